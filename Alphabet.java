@@ -1,5 +1,7 @@
 package enigma;
 
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /**
@@ -88,6 +90,22 @@ class Alphabet {
                 );
     }
 
+    /**
+     * Returns the indices of the characters of TEXT, ignoring
+     * whitespace.  Every other character must be in the alphabet.
+     */
+    int[] toInts(String text) {
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                result[n++] = toInt(c);
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
     /**
      * alphabet represented as an array.
      */
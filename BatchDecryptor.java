@@ -0,0 +1,248 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * Decrypts one ciphertext under several keys at once.  Every key, or
+ * lane, shares the rotors and plugboard but has its own settings and
+ * ring settings, and steps and converts exactly as a FastMachine with
+ * that key would.  This implementation works lane by lane; create()
+ * returns the SIMD engine in simd/, which converts all lanes together
+ * with the Vector API, when it has been compiled (make simd) and the
+ * jdk.incubator.vector module is present, and this one otherwise.
+ * The two give identical results.
+ */
+class BatchDecryptor {
+
+    /**
+     * A decryptor of LANES keys over an alphabet of SIZE characters with
+     * NUMROTORS slots, initially empty, with no plugboard.
+     */
+    BatchDecryptor(int size, int numRotors, int lanes) {
+        if (lanes < 1) {
+            throw error("Error: a batch needs at least one key");
+        }
+        _size = size;
+        _lanes = lanes;
+        _slots = new CompiledRotor[numRotors];
+        _setting = new int[numRotors * lanes];
+        _ring = new int[numRotors * lanes];
+        _plug = PermutationArrays.identity(size);
+        _plugInverse = PermutationArrays.identity(size);
+    }
+
+    /**
+     * Return a decryptor of LANES keys over an alphabet of SIZE
+     * characters with NUMROTORS slots: the SIMD engine if it can be
+     * loaded and handles LANES keys, else a BatchDecryptor.
+     */
+    static BatchDecryptor create(int size, int numRotors, int lanes) {
+        try {
+            return (BatchDecryptor) Class.forName(VECTOR_ENGINE)
+                .getDeclaredConstructor(int.class, int.class, int.class)
+                .newInstance(size, numRotors, lanes);
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return new BatchDecryptor(size, numRotors, lanes);
+        }
+    }
+
+    /**
+     * Return the number of keys I decrypt under.
+     */
+    int lanes() {
+        return _lanes;
+    }
+
+    /**
+     * Return the number of characters in my alphabet.
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Return the number of rotor slots I have.
+     */
+    int numRotors() {
+        return _slots.length;
+    }
+
+    /**
+     * Put ROTOR in SLOT for every lane, leaving settings unchanged.
+     */
+    void setRotor(int slot, CompiledRotor rotor) {
+        _slots[slot] = rotor;
+        int first = _slots.length;
+        while (first > 1 && _slots[first - 1] != null
+                && _slots[first - 1].rotates()) {
+            first -= 1;
+        }
+        _firstMoving = first;
+    }
+
+    /**
+     * Set the setting of SLOT in LANE to POSN.
+     */
+    void setSetting(int lane, int slot, int posn) {
+        _setting[slot * _lanes + lane] = posn;
+    }
+
+    /**
+     * Return the setting of SLOT in LANE.
+     */
+    int setting(int lane, int slot) {
+        return _setting[slot * _lanes + lane];
+    }
+
+    /**
+     * Set the ring setting of SLOT in LANE to POSN.
+     */
+    void setRingSetting(int lane, int slot, int posn) {
+        _ring[slot * _lanes + lane] = posn;
+    }
+
+    /**
+     * Return the ring setting of SLOT in LANE.
+     */
+    int ringSetting(int lane, int slot) {
+        return _ring[slot * _lanes + lane];
+    }
+
+    /**
+     * Set the plugboard of every lane to PLUG, which maps each index to
+     * its partner.
+     */
+    void setPlugboard(int[] plug) {
+        System.arraycopy(plug, 0, _plug, 0, _size);
+        PermutationArrays.inverse(_plug, _plugInverse);
+    }
+
+    /**
+     * Convert the indices of IN under every lane's key, advancing the
+     * rotors before each, leaving the result of IN[K] in lane L at
+     * OUT[K * lanes() + L].
+     */
+    void decrypt(int[] in, int[] out) {
+        for (int k = 0; k < in.length; k += 1) {
+            int c = _plug[in[k]];
+            for (int lane = 0; lane < _lanes; lane += 1) {
+                step(lane);
+                out[k * _lanes + lane] = _plugInverse[scramble(lane, c)];
+            }
+        }
+    }
+
+    /**
+     * Advance the rotors of LANE once, exactly as FastMachine.step does.
+     */
+    private void step(int lane) {
+        int index = _slots.length - 1;
+        boolean shouldAdvThis = true;
+        boolean shouldDbstepPrev = false;
+        while (index >= _firstMoving) {
+            int at = index * _lanes + lane;
+            boolean atNotch = _slots[index].notch()[
+                    wrap(_setting[at] + _ring[at])];
+            if (shouldAdvThis) {
+                advance(at);
+                if (shouldDbstepPrev) {
+                    advance(at + _lanes);
+                }
+                shouldDbstepPrev = false;
+            } else {
+                shouldDbstepPrev = true;
+            }
+            index -= 1;
+            shouldAdvThis = atNotch;
+        }
+    }
+
+    /**
+     * Advance the setting at AT in _setting by one position.
+     */
+    private void advance(int at) {
+        int posn = _setting[at] + 1;
+        _setting[at] = posn == _size ? 0 : posn;
+    }
+
+    /**
+     * Return the result of passing index C through the rotors of LANE at
+     * their current settings.
+     */
+    private int scramble(int lane, int c) {
+        int last = _slots.length - 1;
+        for (int i = last; i >= 0; i -= 1) {
+            c = _slots[i].shiftedForward()[offset(lane, i) + c];
+        }
+        for (int i = 1; i <= last; i += 1) {
+            c = _slots[i].shiftedBackward()[offset(lane, i) + c];
+        }
+        return c;
+    }
+
+    /**
+     * Return the start of the current wiring of SLOT in LANE within its
+     * rotor's shifted tables.
+     */
+    private int offset(int lane, int slot) {
+        int at = slot * _lanes + lane;
+        return wrap(_setting[at] - _ring[at]) * _size;
+    }
+
+    /**
+     * Return P modulo my alphabet size, where -size() < P < 2 * size().
+     */
+    private int wrap(int p) {
+        if (p < 0) {
+            return p + _size;
+        }
+        return p >= _size ? p - _size : p;
+    }
+
+    /**
+     * Name of the class of the SIMD engine.
+     */
+    private static final String VECTOR_ENGINE = "enigma.VectorBatchDecryptor";
+
+    /**
+     * Number of characters in my alphabet.
+     */
+    final int _size;
+
+    /**
+     * Number of lanes.
+     */
+    final int _lanes;
+
+    /**
+     * Rotors in each slot, reflector first.
+     */
+    final CompiledRotor[] _slots;
+
+    /**
+     * Setting of each slot in each lane: slot S of lane L is at
+     * S * _lanes + L, so that each slot's lanes are contiguous.
+     */
+    final int[] _setting;
+
+    /**
+     * Ring setting of each slot in each lane, laid out as _setting.
+     */
+    final int[] _ring;
+
+    /**
+     * Plugboard, mapping each index to its partner.
+     */
+    final int[] _plug;
+
+    /**
+     * Inverse of _plug.
+     */
+    final int[] _plugInverse;
+
+    /**
+     * Index of the leftmost slot in the run of moving rotors ending at
+     * the rightmost slot; only those step.
+     */
+    int _firstMoving;
+}
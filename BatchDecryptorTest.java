@@ -0,0 +1,129 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for BatchDecryptor, checking each lane,
+ * of both the batch decryptor create() returns and the lane-by-lane
+ * one, against FastMachine.  Run with the SIMD engine built and
+ * --add-modules jdk.incubator.vector, this also checks that engine.
+ */
+public class BatchDecryptorTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /**
+     * Return a machine over ALPHA with random wirings and notches from
+     * RANDOM: a reflector, a fixed rotor and three moving rotors.
+     */
+    private static Machine randomMachine(Random random, Alphabet alpha) {
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R",
+                new Permutation(randomCycles(random, alpha, true), alpha)));
+        rotors.add(new FixedRotor("F",
+                new Permutation(randomCycles(random, alpha, false), alpha)));
+        String[] names = new String[] {"R", "F", "M1", "M2", "M3"};
+        for (int i = 2; i < names.length; i += 1) {
+            rotors.add(new MovingRotor(names[i],
+                    new Permutation(randomCycles(random, alpha, false), alpha),
+                    randomString(random, alpha, 1 + random.nextInt(2))));
+        }
+        Machine machine = new Machine(alpha, 5, 3, rotors);
+        machine.insertRotors(names);
+        machine.setPlugboard(new Permutation(
+                randomCycles(random, alpha, true).substring(0, 9), alpha));
+        return machine;
+    }
+
+    /**
+     * Check every lane of BATCH against FastMachine on random keys of a
+     * random machine over ALPHA and a random text of LENGTH characters,
+     * using RANDOM.
+     */
+    private void checkLanes(Random random, Alphabet alpha,
+                            BatchDecryptor batch, int length) {
+        Machine machine = randomMachine(random, alpha);
+        int lanes = batch.lanes();
+        int[] text = randomText(random, alpha.size(), length);
+        int[][] expected = new int[lanes][text.length];
+        for (int lane = 0; lane < lanes; lane += 1) {
+            machine.setRotors(randomString(random, alpha, 4));
+            machine.ringSetRotors(randomString(random, alpha, 4));
+            FastMachine fast = new FastMachine(machine);
+            for (int i = 0; i < machine.numRotors(); i += 1) {
+                if (lane == 0) {
+                    batch.setRotor(i, fast.rotor(i));
+                }
+                batch.setSetting(lane, i, fast.setting(i));
+                batch.setRingSetting(lane, i, fast.ringSetting(i));
+            }
+            fast.convert(text, expected[lane], 0, text.length);
+        }
+        int[] plug = new int[alpha.size()];
+        for (int i = 0; i < plug.length; i += 1) {
+            plug[i] = machine.plugboard().permute(i);
+        }
+        batch.setPlugboard(plug);
+        int[] out = new int[text.length * lanes];
+        batch.decrypt(text, out);
+        for (int lane = 0; lane < lanes; lane += 1) {
+            for (int k = 0; k < text.length; k += 1) {
+                assertEquals(msg(batch.getClass().getSimpleName(),
+                        "lane %d, char %d", lane, k),
+                        expected[lane][k], out[k * lanes + lane]);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesFastMachine() {
+        Random random = new Random(44);
+        for (int trial = 0; trial < 20; trial += 1) {
+            checkLanes(random, UPPER, BatchDecryptor.create(26, 5, 16),
+                    500);
+            checkLanes(random, UPPER, new BatchDecryptor(26, 5, 3), 500);
+        }
+    }
+
+    @Test
+    public void testLargeAlphabet() {
+        Alphabet alpha = new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+                + "0123456789abcdefghijklmnopqrstuvwxyz");
+        Random random = new Random(45);
+        for (int trial = 0; trial < 10; trial += 1) {
+            checkLanes(random, alpha,
+                    BatchDecryptor.create(alpha.size(), 5, 16), 500);
+        }
+    }
+
+    /**
+     * Check that create()'s decryptor stays right once it is
+     * JIT-compiled, used as the verifier uses it: thousands of short
+     * texts on fresh machines, mostly over 26 letters and sometimes over
+     * alphabets of up to 62, more than two vectors.
+     */
+    @Test
+    public void testCompiledDecrypt() {
+        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "0123456789abcdefghijklmnopqrstuvwxyz";
+        Random random = new Random(46);
+        for (int trial = 0; trial < 3000; trial += 1) {
+            int n = random.nextInt(3) > 0 ? 26 : 10 + random.nextInt(53);
+            checkLanes(random, new Alphabet(chars.substring(0, n)),
+                    BatchDecryptor.create(n, 5, 16), 1 + random.nextInt(40));
+        }
+    }
+}
@@ -0,0 +1,528 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * A Turing-Welchman bombe: finds the rotor orders and start positions
+ * consistent with a crib, a known plaintext at a given offset in a
+ * ciphertext, for some plugboard.
+ * The crib and ciphertext letters at each offset form a menu, a graph
+ * whose edges are labelled with the scrambler (the machine without its
+ * plugboard) at that position.  For each rotor order and start
+ * position, the bombe assumes a partner for the most connected menu
+ * letter and propagates the implied plugboard pairs along menu edges
+ * and through the diagonal board (x~y implies y~x), keeping each
+ * letter's possible partners as a bitset.  A hypothesis fails as soon
+ * as any letter has two partners; a position is a stop if some
+ * hypothesis survives.  Ring settings are taken to be 0.
+ */
+final class Bombe {
+
+    /**
+     * A bombe for machines configured like MACHINE with reflector
+     * REFLECTOR, testing the crib CRIB placed at OFFSET in CIPHERTEXT
+     * (all as indices).
+     */
+    Bombe(Machine machine, String reflector, int[] crib, int[] ciphertext,
+          int offset) {
+        _size = machine.alphabet().size();
+        if (_size > Long.SIZE) {
+            throw error("Error: the bombe handles alphabets of at most %d "
+                    + "characters", Long.SIZE);
+        }
+        if (offset < 0 || offset + crib.length > ciphertext.length) {
+            throw error("Error: crib does not fit at offset %d", offset);
+        }
+        machine.stateCodec().checkFits();
+        _codec = machine.stateCodec();
+        _numRotors = machine.numRotors();
+        _offset = offset;
+        _length = crib.length;
+        _orders = KeySearch.rotorOrders(machine, reflector);
+        _compiled = new CompiledRotor[machine.catalog().size()];
+        for (int i = 0; i < _compiled.length; i += 1) {
+            _compiled[i] = machine.catalog().compiled(i);
+        }
+        int[] degree = new int[_size];
+        for (int j = 0; j < _length; j += 1) {
+            int p = crib[j], c = ciphertext[offset + j];
+            if (p == c) {
+                throw error("Error: crib letter %d encrypts to itself", j);
+            }
+            degree[p] += 1;
+            degree[c] += 1;
+        }
+        _edges = new int[_size][];
+        int[] fill = new int[_size];
+        for (int x = 0; x < _size; x += 1) {
+            _edges[x] = new int[2 * degree[x]];
+        }
+        for (int j = 0; j < _length; j += 1) {
+            int p = crib[j], c = ciphertext[offset + j];
+            _edges[p][fill[p]++] = j;
+            _edges[p][fill[p]++] = c;
+            _edges[c][fill[c]++] = j;
+            _edges[c][fill[c]++] = p;
+        }
+        int test = 0;
+        for (int x = 1; x < _size; x += 1) {
+            if (degree[x] > degree[test]) {
+                test = x;
+            }
+        }
+        _testLetter = test;
+    }
+
+    /**
+     * Return the number of partitions of the positions tested, one per
+     * rotor order and leftmost setting.
+     */
+    long partitions() {
+        return (long) _orders.size() * _size;
+    }
+
+    /**
+     * Test every rotor order and start position using PARALLELISM
+     * threads, returning the stops.
+     */
+    List<Stop> run(int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> LongStream.range(0, partitions()).parallel()
+                    .forEach(this::searchPartition)).join();
+        } finally {
+            pool.shutdown();
+        }
+        return stops();
+    }
+
+    /**
+     * Return the stops found so far.
+     */
+    List<Stop> stops() {
+        synchronized (_stops) {
+            return new ArrayList<>(_stops);
+        }
+    }
+
+    /**
+     * Test every start position in PARTITION, recording the stops.
+     * May be called from any thread.
+     */
+    void searchPartition(long partition) {
+        Worker w = _workers.get();
+        int[] order = _orders.get((int) (partition / _size));
+        long orderKey = 0;
+        for (int i = 0; i < _numRotors; i += 1) {
+            w.machine.setRotor(i, _compiled[order[i]]);
+            w.machine.setRingSetting(i, 0);
+            orderKey = _codec.withRotor(orderKey, i, order[i]);
+        }
+        int first = (int) (partition % _size);
+        int[] digits = w.digits;
+        Arrays.fill(digits, 0);
+        long tested = 0;
+        do {
+            w.machine.setSetting(1, first);
+            for (int i = 2; i < _numRotors; i += 1) {
+                w.machine.setSetting(i, digits[i - 2]);
+            }
+            long positionKey = w.machine.positionKey(_codec);
+            buildScramblers(w);
+            tested += 1;
+            if (testPosition(w)) {
+                synchronized (_stops) {
+                    _stops.add(new Stop(orderKey, positionKey,
+                            steckers(w.wires)));
+                }
+            }
+        } while (increment(digits));
+        _tested.add(tested);
+    }
+
+    /**
+     * Record in W the rotor settings at every menu position, stepping
+     * its machine from the start position, and clear its scrambler
+     * tables.
+     */
+    private void buildScramblers(Worker w) {
+        FastMachine m = w.machine;
+        for (int k = 0; k < _offset; k += 1) {
+            m.step();
+        }
+        for (int j = 0; j < _length; j += 1) {
+            m.step();
+            m.saveSettings(w.settings, j * _numRotors);
+        }
+        Arrays.fill(w.scramblers, -1);
+    }
+
+    /**
+     * Return the scrambler at menu position J applied to X, computing
+     * and caching it in W on first use.
+     */
+    private int scramble(Worker w, int j, int x) {
+        int[] table = w.scramblers;
+        int base = j * _size;
+        int y = table[base + x];
+        if (y < 0) {
+            w.machine.loadSettings(w.settings, j * _numRotors);
+            y = w.machine.scrambleUnplugged(x);
+            table[base + x] = y;
+            table[base + y] = x;
+        }
+        return y;
+    }
+
+    /**
+     * Return true iff some partner of the test letter is consistent
+     * with W's scramblers.  On success, W's wires hold the implied
+     * plugboard pairs.
+     */
+    private boolean testPosition(Worker w) {
+        long rejected = 0;
+        for (int h = 0; h < _size; h += 1) {
+            if ((rejected & (1L << h)) != 0) {
+                continue;
+            }
+            if (propagate(w, h)) {
+                return true;
+            }
+            rejected |= w.wires[_testLetter];
+        }
+        return false;
+    }
+
+    /**
+     * Assume the test letter is paired with H and propagate the
+     * implications in W, returning false as soon as some letter has two
+     * partners.  All hypotheses lit by a failed propagation lie in the
+     * same closure and fail too.
+     */
+    private boolean propagate(Worker w, int h) {
+        long[] wires = w.wires;
+        Arrays.fill(wires, 0);
+        w.head = w.tail = 0;
+        if (!light(w, _testLetter, h)) {
+            return false;
+        }
+        int[] queue = w.queue;
+        while (w.head < w.tail) {
+            int code = queue[w.head++];
+            int x = code >>> 6, y = code & 63;
+            int[] edges = _edges[x];
+            for (int e = 0; e < edges.length; e += 2) {
+                int z = edges[e + 1];
+                int partner = scramble(w, edges[e], y);
+                if ((wires[z] & (1L << partner)) == 0
+                        && !light(w, z, partner)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Light the wire pairing X with Y in W, and its diagonal-board
+     * twin, queueing both.  Return false iff this gives X or Y two
+     * partners.
+     */
+    private boolean light(Worker w, int x, int y) {
+        long[] wires = w.wires;
+        wires[x] |= 1L << y;
+        w.queue[w.tail++] = x << 6 | y;
+        if (Long.bitCount(wires[x]) > 1) {
+            return false;
+        }
+        if ((wires[y] & (1L << x)) == 0) {
+            wires[y] |= 1L << x;
+            w.queue[w.tail++] = y << 6 | x;
+            return Long.bitCount(wires[y]) == 1;
+        }
+        return true;
+    }
+
+    /**
+     * Return the partner of each letter lit in WIRES, or -1 for letters
+     * with none.
+     */
+    private int[] steckers(long[] wires) {
+        int[] partners = new int[_size];
+        for (int x = 0; x < _size; x += 1) {
+            partners[x] = wires[x] == 0
+                    ? -1 : Long.numberOfTrailingZeros(wires[x]);
+        }
+        return partners;
+    }
+
+    /**
+     * Advance the odometer DIGITS, each in 0 .. size-1, returning
+     * false once it wraps around to all zeros.
+     */
+    private boolean increment(int[] digits) {
+        for (int i = digits.length - 1; i >= 0; i -= 1) {
+            digits[i] += 1;
+            if (digits[i] < _size) {
+                return true;
+            }
+            digits[i] = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Return the number of positions tested so far.
+     */
+    long positionsTested() {
+        return _tested.sum();
+    }
+
+    /**
+     * A position at which the bombe stopped.
+     */
+    static final class Stop {
+
+        /**
+         * A stop at rotor order ORDERKEY and settings POSITIONKEY, with
+         * the implied plugboard partner PARTNERS[X] of each letter X, or
+         * -1 where unknown.
+         */
+        Stop(long orderKey, long positionKey, int[] partners) {
+            _orderKey = orderKey;
+            _positionKey = positionKey;
+            _partners = partners;
+        }
+
+        /**
+         * Return the implied plugboard partner of index X, or -1 if
+         * unknown.
+         */
+        int partner(int x) {
+            return _partners[x];
+        }
+
+        /**
+         * Return my packed rotor order.
+         */
+        long orderKey() {
+            return _orderKey;
+        }
+
+        /**
+         * Return my packed settings.
+         */
+        long positionKey() {
+            return _positionKey;
+        }
+
+        /**
+         * Return my setup line for machines like MACHINE, including the
+         * implied plugboard pairs other than self-steckered letters.
+         */
+        String setupLine(Machine machine) {
+            StringBuilder line = new StringBuilder(
+                    new Candidate(0, _orderKey, _positionKey)
+                            .setupLine(machine));
+            Alphabet alpha = machine.alphabet();
+            for (int x = 0; x < _partners.length; x += 1) {
+                if (x < _partners[x]) {
+                    line.append(" (").append(alpha.toChar(x))
+                            .append(alpha.toChar(_partners[x])).append(')');
+                }
+            }
+            return line.toString();
+        }
+
+        /**
+         * Packed rotor order.
+         */
+        private final long _orderKey;
+
+        /**
+         * Packed settings.
+         */
+        private final long _positionKey;
+
+        /**
+         * Implied plugboard partner of each letter, or -1.
+         */
+        private final int[] _partners;
+    }
+
+    /**
+     * Per-thread state: a machine, scrambler tables and registers.
+     */
+    private class Worker {
+
+        /**
+         * Machine used to compute scramblers.
+         */
+        final FastMachine machine = new FastMachine(_size, _numRotors);
+
+        /**
+         * Start settings of slots 2 .. numRotors-1.
+         */
+        final int[] digits = new int[_numRotors - 2];
+
+        /**
+         * Settings of every slot at each menu position.
+         */
+        final int[] settings = new int[_length * _numRotors];
+
+        /**
+         * Scrambler at menu position J maps X to scramblers[J*size+X],
+         * or -1 if not yet computed.
+         */
+        final int[] scramblers = new int[_length * _size];
+
+        /**
+         * Bit Y of wires[X] is lit iff X may be paired with Y.
+         */
+        final long[] wires = new long[_size];
+
+        /**
+         * Lit wires not yet propagated, as X << 6 | Y.
+         */
+        final int[] queue = new int[2 * _size * _size];
+
+        /**
+         * Next wire in queue to propagate.
+         */
+        int head;
+
+        /**
+         * End of the queued wires.
+         */
+        int tail;
+    }
+
+    /**
+     * Find the stops for a crib, as specified by ARGS:
+     *   [--offset=N | --drag] [--threads=T] CONFIG CIPHERTEXT REFLECTOR
+     *   CRIB
+     * where CONFIG is a configuration file, CIPHERTEXT a file holding
+     * the ciphertext, REFLECTOR the name of the reflector and CRIB the
+     * known plaintext starting at character --offset (default 0).  With
+     * --drag, tries the crib at every offset that CribFilter allows.
+     * Prints one setup line per stop, after its offset if dragging.
+     */
+    public static void main(String... args) {
+        try {
+            Options options = new Options(args);
+            String[] files = options.positional();
+            if (files.length != 4) {
+                throw error("usage: Bombe [options] CONFIG CIPHERTEXT "
+                        + "REFLECTOR CRIB");
+            }
+            Machine machine = Main.machineFor(files[0]);
+            int[] text = KeySearch.readCiphertext(machine.alphabet(),
+                    files[1], Integer.MAX_VALUE);
+            int[] crib = machine.alphabet().toInts(files[3]);
+            boolean drag = options.flag("drag");
+            int[] offsets = drag
+                    ? CribFilter.positions(new CribFilter(
+                            machine.alphabet().size(), List.of(text))
+                            .offsets(0, crib))
+                    : new int[] { options.intValue("offset", 0) };
+            int threads = options.intValue("threads",
+                    Runtime.getRuntime().availableProcessors());
+            long start = System.nanoTime();
+            long tested = 0;
+            List<String> lines = new ArrayList<>();
+            for (int offset : offsets) {
+                Bombe bombe = new Bombe(machine, files[2], crib, text,
+                        offset);
+                List<String> stops = new ArrayList<>();
+                for (Stop stop : bombe.run(threads)) {
+                    stops.add((drag ? offset + " " : "")
+                            + stop.setupLine(machine));
+                }
+                Collections.sort(stops);
+                lines.addAll(stops);
+                tested += bombe.positionsTested();
+            }
+            for (String line : lines) {
+                System.out.println(line);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf("%d stops, %d positions at %d offsets in "
+                    + "%.1fs (%.0f positions/s)%n", lines.size(), tested,
+                    offsets.length, seconds, tested / seconds);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /**
+     * Size of the alphabet.
+     */
+    private final int _size;
+
+    /**
+     * Codec packing keys.
+     */
+    private final MachineState _codec;
+
+    /**
+     * Number of rotor slots.
+     */
+    private final int _numRotors;
+
+    /**
+     * Position of the crib in the ciphertext.
+     */
+    private final int _offset;
+
+    /**
+     * Length of the crib.
+     */
+    private final int _length;
+
+    /**
+     * Rotor orders tested, as catalog indices.
+     */
+    private final List<int[]> _orders;
+
+    /**
+     * Compiled form of every catalog rotor.
+     */
+    private final CompiledRotor[] _compiled;
+
+    /**
+     * Menu edges at each letter X, as pairs of the crib position and
+     * the letter at the other end.
+     */
+    private final int[][] _edges;
+
+    /**
+     * The most connected menu letter, whose partner is hypothesised.
+     */
+    private final int _testLetter;
+
+    /**
+     * Stops found.
+     */
+    private final List<Stop> _stops = new ArrayList<>();
+
+    /**
+     * Number of positions tested.
+     */
+    private final LongAdder _tested = new LongAdder();
+
+    /**
+     * Per-thread workers.
+     */
+    private final ThreadLocal<Worker> _workers =
+            ThreadLocal.withInitial(Worker::new);
+}
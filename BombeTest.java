@@ -0,0 +1,132 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the Bombe class.
+ */
+public class BombeTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /**
+     * The crib.
+     */
+    private static final String CRIB = "WETTERVORHERSAGEBISKAYA";
+
+    /**
+     * The plugboard of the key.
+     */
+    private static final String PLUGS = "(WK) (EQ) (TZ) (RB) (AX) (SM)";
+
+    /**
+     * Return MACHINE set to the key, with the crib's ciphertext at
+     * offset 3 of a longer message.
+     */
+    private int[] encrypt(Machine machine) {
+        machine.insertRotors(new String[] {"B", "II", "III", "I"});
+        machine.setRotors("HIT");
+        machine.setPlugboard(new Permutation(PLUGS, UPPER));
+        int[] text = UPPER.toInts("DER" + CRIB + "NEUNZEHNUHR");
+        for (int k = 0; k < text.length; k += 1) {
+            text[k] = machine.convert(text[k]);
+        }
+        return text;
+    }
+
+    /**
+     * Return the stop of STOPS at ORDERKEY and POSITIONKEY, or null.
+     */
+    private Bombe.Stop find(List<Bombe.Stop> stops, long orderKey,
+                            long positionKey) {
+        for (Bombe.Stop stop : stops) {
+            if (stop.orderKey() == orderKey
+                && stop.positionKey() == positionKey) {
+                return stop;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testFindsKey() {
+        Machine keyed = threeRotorMachine();
+        int[] text = encrypt(keyed);
+        keyed.insertRotors(new String[] {"B", "II", "III", "I"});
+        keyed.setRotors("HIT");
+        Bombe bombe = new Bombe(threeRotorMachine(), "B", UPPER.toInts(CRIB),
+                text, 3);
+        List<Bombe.Stop> stops = bombe.run(2);
+        assertEquals(6 * 26 * 26 * 26, bombe.positionsTested());
+        Bombe.Stop stop = find(stops, keyed.orderKey(), keyed.positionKey());
+        assertNotNull("true key not reported", stop);
+        assertTrue(stops.size() < 10);
+        Permutation plug = new Permutation(PLUGS, UPPER);
+        int known = 0;
+        for (int x = 0; x < 26; x += 1) {
+            if (stop.partner(x) >= 0) {
+                assertEquals(msg("stop", "partner of %c", UPPER.toChar(x)),
+                        plug.permute(x), stop.partner(x));
+                known += 1;
+            }
+        }
+        for (char c : CRIB.toCharArray()) {
+            assertTrue(stop.partner(UPPER.toInt(c)) >= 0);
+        }
+        assertTrue(known >= CRIB.length() / 2);
+        assertTrue(stop.setupLine(threeRotorMachine())
+                .startsWith("* B II III I HIT"));
+    }
+
+    @Test
+    public void testRejectsWrongHypotheses() {
+        Machine keyed = threeRotorMachine();
+        int[] text = encrypt(keyed);
+        keyed.insertRotors(new String[] {"B", "II", "III", "I"});
+        keyed.setRotors("HIT");
+        long orderKey = keyed.orderKey();
+        long positionKey = keyed.positionKey();
+        List<int[]> orders = KeySearch.rotorOrders(keyed, "B");
+        int orderIndex = -1;
+        for (int o = 0; o < orders.size(); o += 1) {
+            long key = 0;
+            for (int i = 0; i < orders.get(o).length; i += 1) {
+                key = keyed.stateCodec().withRotor(key, i, orders.get(o)[i]);
+            }
+            if (key == orderKey) {
+                orderIndex = o;
+            }
+        }
+        long partition = (long) orderIndex * 26 + UPPER.toInt('H');
+
+        Bombe bombe = new Bombe(threeRotorMachine(), "B", UPPER.toInts(CRIB),
+                text, 3);
+        bombe.searchPartition(partition);
+        assertEquals(26 * 26, bombe.positionsTested());
+        List<Bombe.Stop> stops = bombe.stops();
+        assertEquals("only the key stops among its neighbours",
+                1, stops.size());
+        assertNotNull(find(stops, orderKey, positionKey));
+
+        Bombe shifted = new Bombe(threeRotorMachine(), "B",
+                UPPER.toInts(CRIB), text, 4);
+        shifted.searchPartition(partition);
+        assertEquals(26 * 26, shifted.positionsTested());
+        for (Bombe.Stop stop : shifted.stops()) {
+            assertFalse("crib at the wrong offset stopped at the key",
+                    stop.orderKey() == orderKey
+                    && stop.positionKey() == positionKey);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package enigma;
+
+/**
+ * A scored key found by a search: a rotor order and rotor positions,
+ * packed as by MachineState.
+ */
+final class Candidate implements Comparable<Candidate> {
+
+    /**
+     * A candidate with score SCORE for the rotors ORDERKEY at
+     * POSITIONKEY.
+     */
+    Candidate(double score, long orderKey, long positionKey) {
+        _score = score;
+        _orderKey = orderKey;
+        _positionKey = positionKey;
+    }
+
+    /**
+     * Return my score; larger is better.
+     */
+    double score() {
+        return _score;
+    }
+
+    /**
+     * Return my packed rotor order.
+     */
+    long orderKey() {
+        return _orderKey;
+    }
+
+    /**
+     * Return my packed settings and ring settings.
+     */
+    long positionKey() {
+        return _positionKey;
+    }
+
+    /**
+     * Return true iff I denote the same key as OTHER.
+     */
+    boolean sameKey(Candidate other) {
+        return _orderKey == other._orderKey
+                && _positionKey == other._positionKey;
+    }
+
+    /**
+     * Return the setup line, without plugboard, for my key in machines
+     * like MACHINE.
+     */
+    String setupLine(Machine machine) {
+        MachineState codec = machine.stateCodec();
+        Alphabet alpha = machine.alphabet();
+        StringBuilder line = new StringBuilder("*");
+        for (int i = 0; i < machine.numRotors(); i += 1) {
+            line.append(' ').append(machine.catalog()
+                    .name(codec.rotor(_orderKey, i)));
+        }
+        line.append(' ');
+        for (int i = 1; i < machine.numRotors(); i += 1) {
+            line.append(alpha.toChar(codec.setting(_positionKey, i)));
+        }
+        line.append(' ');
+        for (int i = 1; i < machine.numRotors(); i += 1) {
+            line.append(alpha.toChar(codec.ringSetting(_positionKey, i)));
+        }
+        return line.toString();
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+        return Double.compare(_score, other._score);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.6f %x %x", _score, _orderKey, _positionKey);
+    }
+
+    /**
+     * My score.
+     */
+    private final double _score;
+
+    /**
+     * My packed rotor order.
+     */
+    private final long _orderKey;
+
+    /**
+     * My packed settings and ring settings.
+     */
+    private final long _positionKey;
+}
@@ -0,0 +1,254 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * A resumable position in a stream encryption run: how far input and
+ * output have got, the machine state, and the setup line in force.
+ * The machine state is kept as its packed order and position keys when
+ * they fit, and otherwise as the settings of its rotors, which are
+ * those named by the setup line.
+ */
+final class Checkpoint {
+
+    /**
+     * A checkpoint at input byte INPUTOFFSET and output byte
+     * OUTPUTOFFSET, with the machine at ORDERKEY and POSITIONKEY after
+     * being set up by SETUPLINE.
+     */
+    Checkpoint(long inputOffset, long outputOffset,
+               long orderKey, long positionKey, String setupLine) {
+        _inputOffset = inputOffset;
+        _outputOffset = outputOffset;
+        _orderKey = orderKey;
+        _positionKey = positionKey;
+        _setupLine = setupLine;
+        _positions = null;
+    }
+
+    /**
+     * A checkpoint at input byte INPUTOFFSET and output byte
+     * OUTPUTOFFSET, with the rotors named by SETUPLINE at POSITIONS, as
+     * from Machine.positions().
+     */
+    Checkpoint(long inputOffset, long outputOffset, int[] positions,
+               String setupLine) {
+        _inputOffset = inputOffset;
+        _outputOffset = outputOffset;
+        _orderKey = 0;
+        _positionKey = 0;
+        _setupLine = setupLine;
+        _positions = positions.clone();
+    }
+
+    /**
+     * Return a checkpoint at input byte INPUTOFFSET and output byte
+     * OUTPUTOFFSET of MACHINE, last set up by SETUPLINE, packing its
+     * state if it fits.
+     */
+    static Checkpoint of(long inputOffset, long outputOffset,
+                         Machine machine, String setupLine) {
+        if (machine.stateCodec().fits()) {
+            return new Checkpoint(inputOffset, outputOffset,
+                    machine.orderKey(), machine.positionKey(), setupLine);
+        }
+        return new Checkpoint(inputOffset, outputOffset,
+                machine.positions(), setupLine);
+    }
+
+    /**
+     * Return the byte offset of the next unread input line.
+     */
+    long inputOffset() {
+        return _inputOffset;
+    }
+
+    /**
+     * Return the number of output bytes written.
+     */
+    long outputOffset() {
+        return _outputOffset;
+    }
+
+    /**
+     * Return the packed rotor order of the machine.
+     */
+    long orderKey() {
+        return _orderKey;
+    }
+
+    /**
+     * Return the packed rotor positions of the machine.
+     */
+    long positionKey() {
+        return _positionKey;
+    }
+
+    /**
+     * Return the setup line in force.
+     */
+    String setupLine() {
+        return _setupLine;
+    }
+
+    /**
+     * Return true iff my machine state is packed in orderKey() and
+     * positionKey().
+     */
+    boolean packed() {
+        return _positions == null;
+    }
+
+    /**
+     * Restore MACHINE, already set up by my setup line, to my state.
+     */
+    void restore(Machine machine) {
+        if (_positions == null) {
+            machine.restore(_orderKey, _positionKey);
+        } else {
+            machine.restorePositions(_positions);
+        }
+    }
+
+    /**
+     * Write me to FILE, replacing it atomically.  Forces the data to
+     * disk first iff FSYNC.
+     */
+    void write(Path file, boolean fsync) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(_positions == null ? MAGIC : UNPACKED_MAGIC);
+            out.writeLong(_inputOffset);
+            out.writeLong(_outputOffset);
+            if (_positions == null) {
+                out.writeLong(_orderKey);
+                out.writeLong(_positionKey);
+            } else {
+                out.writeInt(_positions.length);
+                for (int p : _positions) {
+                    out.writeInt(p);
+                }
+            }
+            out.writeUTF(_setupLine);
+        } catch (IOException excp) {
+            throw error("could not encode checkpoint");
+        }
+        writeAtomically(file, bytes.toByteArray(), fsync);
+    }
+
+    /**
+     * Return the checkpoint stored in FILE, or null if there is none.
+     */
+    static Checkpoint read(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            int magic = in.readInt();
+            if (magic == MAGIC) {
+                return new Checkpoint(in.readLong(), in.readLong(),
+                        in.readLong(), in.readLong(), in.readUTF());
+            }
+            if (magic != UNPACKED_MAGIC) {
+                throw error("%s is not a checkpoint file", file);
+            }
+            long inputOffset = in.readLong();
+            long outputOffset = in.readLong();
+            int count = in.readInt();
+            if (count < 0 || count > in.available() / Integer.BYTES) {
+                throw error("%s is not a checkpoint file", file);
+            }
+            int[] positions = new int[count];
+            for (int i = 0; i < positions.length; i += 1) {
+                positions[i] = in.readInt();
+            }
+            return new Checkpoint(inputOffset, outputOffset, positions,
+                    in.readUTF());
+        } catch (IOException excp) {
+            throw error("could not read checkpoint %s", file);
+        }
+    }
+
+    /**
+     * Replace the contents of FILE by DATA, so that readers see either
+     * the old or the new contents in full.  Forces DATA to disk before
+     * the replacement iff FSYNC.
+     */
+    static void writeAtomically(Path file, byte[] data, boolean fsync) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            if (fsync) {
+                channel.force(true);
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", temp);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("could not replace %s", file);
+        }
+    }
+
+    /**
+     * Marks the start of a checkpoint file.
+     */
+    private static final int MAGIC = 0x454e4331;
+
+    /**
+     * Marks the start of a checkpoint file with unpacked rotor
+     * settings.
+     */
+    private static final int UNPACKED_MAGIC = 0x454e4332;
+
+    /**
+     * Byte offset of the next unread input line.
+     */
+    private final long _inputOffset;
+
+    /**
+     * Number of output bytes written.
+     */
+    private final long _outputOffset;
+
+    /**
+     * Packed rotor order.
+     */
+    private final long _orderKey;
+
+    /**
+     * Packed rotor positions.
+     */
+    private final long _positionKey;
+
+    /**
+     * Setup line in force.
+     */
+    private final String _setupLine;
+
+    /**
+     * Rotor settings, as from Machine.positions(), or null if the state
+     * is packed.
+     */
+    private final int[] _positions;
+}
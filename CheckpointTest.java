@@ -0,0 +1,297 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the Checkpoint and LineInput
+ * classes and for runs of Main: resuming from checkpoints, checking
+ * checkpoint options and closing files.
+ */
+public class CheckpointTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /**
+     * Return a configuration with the naval rotors I-V, Beta, Gamma and
+     * B, preceded by EXTRA moving rotors named R0, R1, ... that are all
+     * wired like rotor I.
+     */
+    private static String config(int extra) {
+        StringBuilder text = new StringBuilder(UPPER_STRING + "\n 5 3\n");
+        for (int i = 0; i < extra; i += 1) {
+            text.append(" R").append(i).append(" MQ ")
+                .append(NAVALA.get("I")).append('\n');
+        }
+        String[][] rotors = {{"I", "MQ"}, {"II", "ME"}, {"III", "MV"},
+            {"IV", "MJ"}, {"V", "MZ"}, {"Beta", "N"}, {"Gamma", "N"},
+            {"B", "R"}};
+        for (String[] r : rotors) {
+            text.append(' ').append(r[0]).append(' ').append(r[1])
+                .append(' ').append(NAVALA.get(r[0])).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * First part of an input, ending in mid-message.
+     */
+    private static final String FIRST =
+        "* B Beta III IV I AXLE (YF) (ZH)\n"
+        + "HYIHL BKOML IUYDC MPPSF SZW\n"
+        + "SQCNJ EXNUO JYRZE KTCNB DGU\n";
+
+    /**
+     * Rest of the input.
+     */
+    private static final String REST =
+        "FLIIE GEPGR SJUJT CALGX SNCTM KUF\n"
+        + "\n"
+        + "* B Gamma II V I QRSX (AB)\n"
+        + "HELLO WORLD\n";
+
+    /**
+     * Run Main on ARGS.
+     */
+    private static void run(String... args) {
+        try (Main main = new Main(args)) {
+            main.process();
+        }
+    }
+
+    /**
+     * Return the contents of FILE.
+     */
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Append TEXT to FILE.
+     */
+    private static void append(Path file, String text) throws IOException {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Check that a run over the configuration CONFIG checkpointed after
+     * FIRST and then resumed, after stray output past the checkpoint,
+     * over the rest of the input produces the same output as one
+     * uninterrupted run.  Its checkpoint is packed iff PACKED.
+     */
+    private void checkResume(String config, boolean packed)
+        throws IOException {
+        Path dir = Files.createTempDirectory("resume");
+        Path conf = dir.resolve("conf");
+        Path input = dir.resolve("in");
+        Path whole = dir.resolve("whole");
+        Path output = dir.resolve("out");
+        Path ckpt = dir.resolve("ckpt");
+        try {
+            Files.write(conf, config.getBytes(StandardCharsets.UTF_8));
+            Files.write(input, (FIRST + REST).getBytes(
+                    StandardCharsets.UTF_8));
+            run(conf.toString(), input.toString(), whole.toString());
+
+            Files.write(input, FIRST.getBytes(StandardCharsets.UTF_8));
+            run("--checkpoint=" + ckpt, conf.toString(), input.toString(),
+                output.toString());
+            Checkpoint saved = Checkpoint.read(ckpt);
+            assertEquals(packed, saved.packed());
+            assertEquals(FIRST.length(), saved.inputOffset());
+            assertEquals(Files.size(output), saved.outputOffset());
+            append(output, "LOST OUTPUT\n");
+            append(input, REST);
+            run("--checkpoint=" + ckpt, "--resume", conf.toString(),
+                input.toString(), output.toString());
+            assertEquals(read(whole), read(output));
+        } finally {
+            for (Path p : new Path[] {conf, input, whole, output, ckpt}) {
+                Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        checkResume(config(0), true);
+    }
+
+    @Test
+    public void testResumeLargeCatalog() throws IOException {
+        checkResume(config(5000), false);
+    }
+
+    @Test
+    public void testBlankLineBeforeSetup() throws IOException {
+        Path dir = Files.createTempDirectory("blank");
+        Path conf = dir.resolve("conf");
+        Path input = dir.resolve("in");
+        Path plain = dir.resolve("plain");
+        Path output = dir.resolve("out");
+        Path ckpt = dir.resolve("ckpt");
+        try {
+            Files.write(conf, config(0).getBytes(StandardCharsets.UTF_8));
+            Files.write(input, ("\n" + FIRST).getBytes(
+                    StandardCharsets.UTF_8));
+            run(conf.toString(), input.toString(), plain.toString());
+            run("--checkpoint=" + ckpt, "--checkpoint-every=1",
+                conf.toString(), input.toString(), output.toString());
+            assertEquals(read(plain), read(output));
+        } finally {
+            for (Path p : new Path[] {conf, input, plain, output, ckpt}) {
+                Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testBadCheckpointInterval() {
+        for (String every : new String[] {"0", "-5", "x"}) {
+            try {
+                new Main(new String[] {"--checkpoint=ckpt",
+                    "--checkpoint-every=" + every, "conf", "in", "out"});
+                fail("accepted checkpoint interval " + every);
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().contains("interval"));
+            }
+        }
+    }
+
+    @Test
+    public void testClosesFiles() throws IOException {
+        Path fds = Paths.get("/proc/self/fd");
+        if (!Files.isDirectory(fds)) {
+            return;
+        }
+        Path dir = Files.createTempDirectory("close");
+        Path conf = dir.resolve("conf");
+        Path input = dir.resolve("in");
+        Path output = dir.resolve("out");
+        try {
+            Files.write(conf, config(0).getBytes(StandardCharsets.UTF_8));
+            Files.write(input, FIRST.getBytes(StandardCharsets.UTF_8));
+            long before;
+            try (Stream<Path> open = Files.list(fds)) {
+                before = open.count();
+            }
+            for (int i = 0; i < 50; i += 1) {
+                run(conf.toString(), input.toString(), output.toString());
+                Main.machineFor(conf.toString(), "* B Beta III IV I AXLE");
+            }
+            try (Stream<Path> open = Files.list(fds)) {
+                assertTrue("files left open", open.count() < before + 10);
+            }
+        } finally {
+            for (Path p : new Path[] {conf, input, output}) {
+                Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testReadWrite() throws IOException {
+        Path file = Files.createTempFile("checkpoint", ".ckpt");
+        try {
+            new Checkpoint(10, 20, 0x123456789L, -5L, "* B I II")
+                .write(file, false);
+            Checkpoint packed = Checkpoint.read(file);
+            assertTrue(packed.packed());
+            assertEquals(10, packed.inputOffset());
+            assertEquals(20, packed.outputOffset());
+            assertEquals(0x123456789L, packed.orderKey());
+            assertEquals(-5L, packed.positionKey());
+            assertEquals("* B I II", packed.setupLine());
+
+            new Checkpoint(30, 40, new int[] {1, 2, 3, 4}, "* B III IV")
+                .write(file, true);
+            Checkpoint unpacked = Checkpoint.read(file);
+            assertFalse(unpacked.packed());
+            assertEquals(30, unpacked.inputOffset());
+            assertEquals(40, unpacked.outputOffset());
+            assertEquals("* B III IV", unpacked.setupLine());
+
+            Files.write(file, new byte[] {1, 2, 3, 4, 5, 6});
+            try {
+                Checkpoint.read(file);
+                fail("bad checkpoint read");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+            Files.delete(file);
+            assertNull(Checkpoint.read(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testWriteAtomically() throws IOException {
+        Path file = Files.createTempFile("atomic", ".bin");
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            byte[] data = new byte[100000];
+            Arrays.fill(data, (byte) 7);
+            Checkpoint.writeAtomically(file, data, true);
+            assertArrayEquals(data, Files.readAllBytes(file));
+            assertFalse(Files.exists(temp));
+            byte[] shorter = {1, 2, 3};
+            Checkpoint.writeAtomically(file, shorter, false);
+            assertArrayEquals(shorter, Files.readAllBytes(file));
+            assertFalse(Files.exists(temp));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Test
+    public void testLineInputOffsets() {
+        byte[] bytes = "ab\r\ncd\n\nlast".getBytes(StandardCharsets.UTF_8);
+        LineInput in = new LineInput(new ByteArrayInputStream(bytes), 100);
+        assertEquals(100, in.offset());
+        assertEquals("ab", in.nextLine());
+        assertEquals(104, in.offset());
+        assertEquals("cd", in.nextLine());
+        assertEquals(107, in.offset());
+        assertEquals("", in.nextLine());
+        assertEquals(108, in.offset());
+        assertEquals("last", in.nextLine());
+        assertEquals(112, in.offset());
+        assertNull(in.nextLine());
+        assertEquals(112, in.offset());
+
+        char[] longLine = new char[200000];
+        Arrays.fill(longLine, 'Q');
+        String text = new String(longLine) + "\nx\n";
+        in = new LineInput(new ByteArrayInputStream(
+                text.getBytes(StandardCharsets.UTF_8)), 0);
+        assertEquals(new String(longLine), in.nextLine());
+        assertEquals(longLine.length + 1, in.offset());
+        assertEquals("x", in.nextLine());
+        assertEquals(text.length(), in.offset());
+        assertNull(in.nextLine());
+    }
+}
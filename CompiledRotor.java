@@ -0,0 +1,139 @@
+package enigma;
+
+/**
+ * The wiring and notches of a rotor as primitive tables, for engines
+ * that convert characters without going through Permutation.  Immutable,
+ * so one instance may be shared by any number of threads.
+ * Besides the wiring at setting 0, it holds the wiring at every offset
+ * (setting minus ring setting), so that a conversion at a given offset
+ * is one lookup with no modular arithmetic.
+ */
+final class CompiledRotor {
+
+    /**
+     * The compiled form of ROTOR.
+     */
+    CompiledRotor(Rotor rotor) {
+        Permutation perm = rotor.permutation();
+        Alphabet alpha = rotor.alphabet();
+        int n = perm.size();
+        _name = rotor.name();
+        _rotates = rotor.rotates();
+        _reflecting = rotor.reflecting();
+        _forward = perm.toArray();
+        _backward = PermutationArrays.inverse(_forward);
+        _notch = new boolean[n];
+        for (int i = 0; i < n; i += 1) {
+            _notch[i] = rotor.notches().indexOf(alpha.toChar(i)) >= 0;
+        }
+        _shiftedForward = new int[n * n];
+        _shiftedBackward = new int[n * n];
+        int[] wiring = new int[n];
+        for (int o = 0; o < n; o += 1) {
+            PermutationArrays.conjugate(_forward, o, wiring);
+            System.arraycopy(wiring, 0, _shiftedForward, o * n, n);
+            PermutationArrays.conjugate(_backward, o, wiring);
+            System.arraycopy(wiring, 0, _shiftedBackward, o * n, n);
+        }
+    }
+
+    /**
+     * Return the name of my rotor.
+     */
+    String name() {
+        return _name;
+    }
+
+    /**
+     * Return true iff my rotor can move.
+     */
+    boolean rotates() {
+        return _rotates;
+    }
+
+    /**
+     * Return true iff my rotor reflects.
+     */
+    boolean reflecting() {
+        return _reflecting;
+    }
+
+    /**
+     * Return the wiring at setting 0: entry I is wired to forward()[I].
+     * Must not be modified.
+     */
+    int[] forward() {
+        return _forward;
+    }
+
+    /**
+     * Return the inverse of forward().  Must not be modified.
+     */
+    int[] backward() {
+        return _backward;
+    }
+
+    /**
+     * Return the wiring at every offset: entry O * size + I is where
+     * index I goes at offset O, in 0 .. size-1.  Must not be modified.
+     */
+    int[] shiftedForward() {
+        return _shiftedForward;
+    }
+
+    /**
+     * Return the inverse wiring at every offset, laid out as for
+     * shiftedForward().  Must not be modified.
+     */
+    int[] shiftedBackward() {
+        return _shiftedBackward;
+    }
+
+    /**
+     * Return, for each value of setting plus ring setting, whether my
+     * rotor is at a notch.  Must not be modified.
+     */
+    boolean[] notch() {
+        return _notch;
+    }
+
+    /**
+     * Name of my rotor.
+     */
+    private final String _name;
+
+    /**
+     * True iff my rotor can move.
+     */
+    private final boolean _rotates;
+
+    /**
+     * True iff my rotor reflects.
+     */
+    private final boolean _reflecting;
+
+    /**
+     * Wiring at setting 0.
+     */
+    private final int[] _forward;
+
+    /**
+     * Inverse wiring at setting 0.
+     */
+    private final int[] _backward;
+
+    /**
+     * Wiring at every offset.
+     */
+    private final int[] _shiftedForward;
+
+    /**
+     * Inverse wiring at every offset.
+     */
+    private final int[] _shiftedBackward;
+
+    /**
+     * Notch positions, indexed by setting plus ring setting.
+     */
+    private final boolean[] _notch;
+}
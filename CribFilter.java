@@ -0,0 +1,239 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * Crib dragging by the rule that no letter enciphers to itself.  Each
+ * ciphertext is packed as one bitset per letter, bit k of letter x's set
+ * being lit iff the ciphertext has x at position k.  A crib c clashes at
+ * offset o iff bit o + j of c[j]'s set is lit for some j, so the clashing
+ * offsets are the union over j of c[j]'s set shifted down by j, formed 64
+ * offsets per word.  Every other offset is a placement worth searching.
+ */
+final class CribFilter {
+
+    /**
+     * A filter for CIPHERTEXTS, each a sequence of indices over an
+     * alphabet of SIZE characters.
+     */
+    CribFilter(int size, List<int[]> ciphertexts) {
+        _lengths = new int[ciphertexts.size()];
+        _bits = new long[ciphertexts.size()][];
+        for (int t = 0; t < _bits.length; t += 1) {
+            int[] text = ciphertexts.get(t);
+            int stride = stride(text.length);
+            long[] bits = new long[size * stride];
+            for (int k = 0; k < text.length; k += 1) {
+                bits[text[k] * stride + (k >>> 6)] |= 1L << k;
+            }
+            _lengths[t] = text.length;
+            _bits[t] = bits;
+        }
+    }
+
+    /**
+     * Return the number of words holding one letter's bitset for a
+     * ciphertext of LENGTH characters, including a final empty word so
+     * that shifted reads need no bounds check.
+     */
+    private static int stride(int length) {
+        return (length + 63) / 64 + 1;
+    }
+
+    /**
+     * Return the number of ciphertexts I filter.
+     */
+    int numTexts() {
+        return _bits.length;
+    }
+
+    /**
+     * Return the offsets at which CRIB may lie in ciphertext T, as a
+     * bitset whose bit O is lit iff no crib letter falls on the same
+     * ciphertext letter at offset O.
+     */
+    long[] offsets(int t, int[] crib) {
+        int last = _lengths[t] - crib.length;
+        if (last < 0) {
+            return new long[0];
+        }
+        long[] bits = _bits[t];
+        int stride = stride(_lengths[t]);
+        int words = (last >>> 6) + 1;
+        long[] clashes = new long[words];
+        for (int j = 0; j < crib.length; j += 1) {
+            int base = crib[j] * stride + (j >>> 6);
+            int shift = j & 63;
+            if (shift == 0) {
+                for (int w = 0; w < words; w += 1) {
+                    clashes[w] |= bits[base + w];
+                }
+            } else {
+                for (int w = 0; w < words; w += 1) {
+                    clashes[w] |= bits[base + w] >>> shift
+                            | bits[base + w + 1] << (64 - shift);
+                }
+            }
+        }
+        for (int w = 0; w < words; w += 1) {
+            clashes[w] = ~clashes[w];
+        }
+        if ((last & 63) != 63) {
+            clashes[words - 1] &= (1L << ((last & 63) + 1)) - 1;
+        }
+        return clashes;
+    }
+
+    /**
+     * Return the positions of the lit bits of BITS, in increasing order.
+     */
+    static int[] positions(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        int[] result = new int[count];
+        int i = 0;
+        for (int w = 0; w < bits.length; w += 1) {
+            for (long word = bits[w]; word != 0; word &= word - 1) {
+                result[i] = 64 * w + Long.numberOfTrailingZeros(word);
+                i += 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Pass the surviving offsets of each of CRIBS in each of my
+     * ciphertexts to SINK, using PARALLELISM threads.  Each ciphertext
+     * is handled by one thread, crib by crib, but different ciphertexts
+     * may be handled at once.
+     */
+    void drag(List<int[]> cribs, int parallelism, Sink sink) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, numTexts()).parallel()
+                    .forEach(t -> {
+                        for (int c = 0; c < cribs.size(); c += 1) {
+                            sink.accept(t, c, offsets(t, cribs.get(c)));
+                        }
+                    })).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Receives the offsets at which cribs survive.
+     */
+    interface Sink {
+
+        /**
+         * Accept OFFSETS, as returned by offsets(TEXT, crib number
+         * CRIB).
+         */
+        void accept(int text, int crib, long[] offsets);
+    }
+
+    /**
+     * Drag cribs through ciphertexts, as specified by ARGS:
+     *   [--threads=T] [--count] CONFIG CRIBS CIPHERTEXT...
+     * where CONFIG is a configuration file giving the alphabet, CRIBS a
+     * file with one crib per line and each CIPHERTEXT a file holding a
+     * ciphertext.  Prints each surviving placement as the ciphertext
+     * file, the offset and the crib, or with --count only their number.
+     */
+    public static void main(String... args) {
+        try {
+            Options options = new Options(args);
+            String[] files = options.positional();
+            if (files.length < 3) {
+                throw error("usage: CribFilter [options] CONFIG CRIBS "
+                        + "CIPHERTEXT...");
+            }
+            Alphabet alpha = Main.machineFor(files[0]).alphabet();
+            List<String> words = readCribs(files[1]);
+            List<int[]> cribs = new ArrayList<>();
+            for (String word : words) {
+                cribs.add(alpha.toInts(word));
+            }
+            List<int[]> texts = new ArrayList<>();
+            for (int i = 2; i < files.length; i += 1) {
+                texts.add(KeySearch.readCiphertext(alpha, files[i],
+                        Integer.MAX_VALUE));
+            }
+            long start = System.nanoTime();
+            CribFilter filter = new CribFilter(alpha.size(), texts);
+            LongAdder placements = new LongAdder();
+            boolean count = options.flag("count");
+            ForkJoinPool pool = new ForkJoinPool(options.intValue("threads",
+                    Runtime.getRuntime().availableProcessors()));
+            try {
+                pool.submit(() -> IntStream.range(0, texts.size()).parallel()
+                        .mapToObj(t -> {
+                            StringBuilder out = new StringBuilder();
+                            for (int c = 0; c < cribs.size(); c += 1) {
+                                int[] offsets = positions(filter.offsets(t,
+                                        cribs.get(c)));
+                                placements.add(offsets.length);
+                                for (int o = 0; !count && o < offsets.length;
+                                     o += 1) {
+                                    out.append(files[t + 2]).append(' ')
+                                        .append(offsets[o]).append(' ')
+                                        .append(words.get(c)).append('\n');
+                                }
+                            }
+                            return out;
+                        }).forEachOrdered(System.out::print)).join();
+            } finally {
+                pool.shutdown();
+            }
+            System.out.flush();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf("%d placements of %d cribs in %d texts "
+                    + "in %.2fs%n", placements.sum(), cribs.size(),
+                    texts.size(), seconds);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /**
+     * Return the non-blank lines of the file NAME, trimmed.
+     */
+    static List<String> readCribs(String name) {
+        try {
+            List<String> cribs = new ArrayList<>();
+            for (String line : Files.readAllLines(Paths.get(name))) {
+                if (!line.isBlank()) {
+                    cribs.add(line.trim());
+                }
+            }
+            return cribs;
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+    }
+
+    /**
+     * Length of each ciphertext.
+     */
+    private final int[] _lengths;
+
+    /**
+     * Packed ciphertexts: bit k of word (x * stride + k / 64) of
+     * _bits[T] is lit iff ciphertext T has letter x at position k.
+     */
+    private final long[][] _bits;
+}
@@ -0,0 +1,78 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the CribFilter class.
+ */
+public class CribFilterTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testMatchesScan() {
+        Random random = new Random(40);
+        List<int[]> texts = new ArrayList<>();
+        for (int t = 0; t < 20; t += 1) {
+            texts.add(randomText(random, 6, 1 + random.nextInt(300)));
+        }
+        List<int[]> cribs = new ArrayList<>();
+        for (int c = 0; c < 20; c += 1) {
+            cribs.add(randomText(random, 6, 1 + random.nextInt(140)));
+        }
+        CribFilter filter = new CribFilter(6, texts);
+        List<List<Integer>> found = new ArrayList<>();
+        for (int i = 0; i < texts.size() * cribs.size(); i += 1) {
+            found.add(null);
+        }
+        filter.drag(cribs, 2, (t, c, offsets) -> {
+            List<Integer> list = new ArrayList<>();
+            for (int o : CribFilter.positions(offsets)) {
+                list.add(o);
+            }
+            found.set(t * cribs.size() + c, list);
+        });
+        for (int t = 0; t < texts.size(); t += 1) {
+            int[] text = texts.get(t);
+            for (int c = 0; c < cribs.size(); c += 1) {
+                int[] crib = cribs.get(c);
+                List<Integer> expected = new ArrayList<>();
+                for (int o = 0; o + crib.length <= text.length; o += 1) {
+                    boolean clash = false;
+                    for (int j = 0; j < crib.length; j += 1) {
+                        clash |= text[o + j] == crib[j];
+                    }
+                    if (!clash) {
+                        expected.add(o);
+                    }
+                }
+                assertEquals(msg("text " + t, "crib %d", c), expected,
+                        found.get(t * cribs.size() + c));
+            }
+        }
+    }
+
+    @Test
+    public void testOffsets() {
+        CribFilter filter = new CribFilter(26,
+                List.of(UPPER.toInts("QFZWRWIVTYRESXBFOGKUHQBAISE")));
+        long[] offsets = filter.offsets(0, UPPER.toInts("WETTER"));
+        assertEquals(1, offsets.length);
+        assertEquals(0, offsets[0] & (1L << 3));
+        assertEquals(1L << 0, offsets[0] & (1L << 0));
+        assertEquals(0, offsets[0] >>> 22);
+    }
+}
@@ -0,0 +1,598 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * A catalog of Rejewski's cycle characteristics, for attacks on doubly
+ * enciphered message keys.  With the machine at a start position, the
+ * scramblers A .. F at the next six positions encipher the indicator;
+ * since each is an involution, the products AD, BE and CF can be read
+ * off enough indicators, and the plugboard only conjugates them, so
+ * the lengths of their cycles depend on the rotor order and start
+ * position alone.
+ * A characteristic is packed in a long as the ranks, among all
+ * partitions of the alphabet size, of the cycle lengths of the three
+ * products.  The catalog is built for every rotor order and start
+ * position, with ring settings 0, and saved as an index sorted by
+ * characteristic: a header, the rotor orders, the distinct
+ * characteristics, where each one's entries start, and the entries,
+ * each a rotor order and start position numbered in odometer order.
+ * A saved index is mapped, not read, and searched in place.
+ */
+final class CycleCatalog {
+
+    /**
+     * The catalog saved in FILE, read through MAPPED, for machines like
+     * MACHINE.
+     */
+    private CycleCatalog(Machine machine, Path file, MappedByteBuffer mapped) {
+        _machine = machine;
+        _size = machine.alphabet().size();
+        try {
+            if (mapped.getInt() != MAGIC) {
+                throw error("%s is not a cycle catalog", file);
+            }
+            int size = mapped.getInt();
+            int numRotors = mapped.getInt();
+            if (size != _size || numRotors != machine.numRotors()) {
+                throw error("Error: %s is a catalog for another machine",
+                        file);
+            }
+            int numOrders = mapped.getInt();
+            _positions = mapped.getInt();
+            int distinct = mapped.getInt();
+            _orderKeys = new long[numOrders];
+            mapped.asLongBuffer().get(_orderKeys);
+            mapped.position(mapped.position() + Long.BYTES * numOrders);
+            _keys = mapped.slice().asLongBuffer();
+            _keys.limit(distinct);
+            mapped.position(mapped.position() + Long.BYTES * distinct);
+            _starts = mapped.slice().asIntBuffer();
+            _starts.limit(distinct + 1);
+            mapped.position(mapped.position() + Integer.BYTES
+                    * (distinct + 1));
+            _entries = mapped.slice().asIntBuffer();
+        } catch (BufferUnderflowException | IllegalArgumentException excp) {
+            throw error("%s is not a valid cycle catalog", file);
+        }
+    }
+
+    /**
+     * Return the catalog saved in FILE for machines like MACHINE.
+     */
+    static CycleCatalog load(Machine machine, Path file) {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            return new CycleCatalog(machine, file,
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                            channel.size()));
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /**
+     * Compute the characteristic of every rotor order and start
+     * position of machines like MACHINE with reflector REFLECTOR, using
+     * PARALLELISM threads, and save the catalog in FILE.
+     */
+    static void build(Machine machine, String reflector, int parallelism,
+                      Path file) {
+        new Builder(machine, reflector).save(parallelism, file);
+    }
+
+    /**
+     * Return the number of distinct characteristics in me.
+     */
+    int distinct() {
+        return _keys.limit();
+    }
+
+    /**
+     * Return the rotor orders and start positions, with ring settings
+     * 0, whose characteristic is CHARACTERISTIC.
+     */
+    List<Candidate> find(long characteristic) {
+        int lo = 0, hi = _keys.limit() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long key = _keys.get(mid);
+            if (key < characteristic) {
+                lo = mid + 1;
+            } else if (key > characteristic) {
+                hi = mid - 1;
+            } else {
+                return candidates(_starts.get(mid), _starts.get(mid + 1));
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Return the keys of entries FROM .. TO-1.
+     */
+    private List<Candidate> candidates(int from, int to) {
+        MachineState codec = _machine.stateCodec();
+        int numRotors = _machine.numRotors();
+        List<Candidate> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i += 1) {
+            int entry = _entries.get(i);
+            int position = entry % _positions;
+            long positionKey = 0;
+            for (int slot = numRotors - 1; slot >= 1; slot -= 1) {
+                positionKey = codec.withSetting(positionKey, slot,
+                        position % _size);
+                position /= _size;
+            }
+            result.add(new Candidate(0, _orderKeys[entry / _positions],
+                    positionKey));
+        }
+        return result;
+    }
+
+    /**
+     * Return the characteristic of the products AD, BE and CF given by
+     * INDICATORS, each the six indices of a doubly enciphered message
+     * key, over an alphabet of SIZE characters.  The indicators must
+     * determine all three products.
+     */
+    static long characteristic(int size, List<int[]> indicators) {
+        long[][] counts = partitionCounts(size);
+        long key = 0;
+        for (int p = 0; p < 3; p += 1) {
+            int[] product = new int[size];
+            Arrays.fill(product, -1);
+            for (int[] indicator : indicators) {
+                if (indicator.length != 6) {
+                    throw error("Error: indicators have six characters");
+                }
+                int x = indicator[p], y = indicator[p + 3];
+                if (product[x] >= 0 && product[x] != y) {
+                    throw error("Error: inconsistent indicators");
+                }
+                product[x] = y;
+            }
+            long images = 0;
+            for (int x = 0; x < size; x += 1) {
+                if (product[x] < 0) {
+                    throw error("Error: too few indicators to determine "
+                            + "the cycles");
+                }
+                images |= 1L << product[x];
+            }
+            if (Long.bitCount(images) != size) {
+                throw error("Error: inconsistent indicators");
+            }
+            key = key * counts[size][size]
+                    + rank(counts, product, new int[size + 1], new long[1]);
+        }
+        return key;
+    }
+
+    /**
+     * Return the cycle lengths of the products packed in CHARACTERISTIC
+     * over an alphabet of SIZE characters, as three space-separated
+     * lists, longest cycles first, separated by " / ".
+     */
+    static String describe(int size, long characteristic) {
+        long[][] counts = partitionCounts(size);
+        long total = counts[size][size];
+        long[] ranks = new long[3];
+        for (int p = 2; p >= 0; p -= 1) {
+            ranks[p] = characteristic % total;
+            characteristic /= total;
+        }
+        List<String> products = new ArrayList<>();
+        for (long r : ranks) {
+            List<String> parts = new ArrayList<>();
+            int rem = size;
+            while (rem > 0) {
+                int part = 1;
+                while (counts[rem][part] <= r) {
+                    part += 1;
+                }
+                r -= counts[rem][part - 1];
+                parts.add(Integer.toString(part));
+                rem -= part;
+            }
+            products.add(String.join(" ", parts));
+        }
+        return String.join(" / ", products);
+    }
+
+    /**
+     * Return the rank of the cycle lengths of the permutation PERM among
+     * the partitions of its size, listed in lexicographic order of their
+     * parts, longest first, using the table COUNTS from
+     * partitionCounts.  LENGTHS and SEEN are scratch space for the
+     * cycle type of PERM, as for PermutationArrays.cycleType.
+     */
+    private static long rank(long[][] counts, int[] perm, int[] lengths,
+                             long[] seen) {
+        int size = perm.length;
+        PermutationArrays.cycleType(perm, lengths, seen);
+        long rank = 0;
+        int rem = size;
+        for (int part = size; part >= 1; part -= 1) {
+            for (int i = 0; i < lengths[part]; i += 1) {
+                rank += counts[rem][part - 1];
+                rem -= part;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Return a table whose entry [N][M] is the number of partitions of N
+     * into parts of at most M, for N, M <= SIZE.  Throws an error if
+     * three ranks of partitions of SIZE do not fit in a long, or if
+     * permutations of SIZE characters do not fit in a bitset.
+     */
+    private static long[][] partitionCounts(int size) {
+        if (size > Long.SIZE) {
+            throw error("Error: cycle catalogs handle alphabets of at most "
+                    + "%d characters", Long.SIZE);
+        }
+        long[][] counts = new long[size + 1][size + 1];
+        Arrays.fill(counts[0], 1);
+        for (int n = 1; n <= size; n += 1) {
+            for (int m = 1; m <= size; m += 1) {
+                counts[n][m] = counts[n][m - 1]
+                        + (m <= n ? counts[n - m][m] : 0);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Computes the characteristics of every rotor order and start
+     * position, in partitions of one rotor order and leftmost setting
+     * each, and writes them out as a sorted index.
+     */
+    private static final class Builder {
+
+        /**
+         * A builder for machines like MACHINE with reflector REFLECTOR.
+         */
+        Builder(Machine machine, String reflector) {
+            _size = machine.alphabet().size();
+            _counts = partitionCounts(_size);
+            _numRotors = machine.numRotors();
+            _orders = KeySearch.rotorOrders(machine, reflector);
+            MachineState codec = machine.stateCodec();
+            codec.checkFits();
+            _orderKeys = new long[_orders.size()];
+            for (int o = 0; o < _orderKeys.length; o += 1) {
+                for (int i = 0; i < _numRotors; i += 1) {
+                    _orderKeys[o] = codec.withRotor(_orderKeys[o], i,
+                            _orders.get(o)[i]);
+                }
+            }
+            _compiled = new CompiledRotor[machine.catalog().size()];
+            for (int i = 0; i < _compiled.length; i += 1) {
+                _compiled[i] = machine.catalog().compiled(i);
+            }
+            long positions = 1;
+            for (int i = 1; i < _numRotors; i += 1) {
+                positions *= _size;
+            }
+            long entries = positions * _orders.size();
+            if (entries > MAX_ENTRIES) {
+                throw error("Error: too many positions to catalog");
+            }
+            _positions = (int) positions;
+            _characteristics = new long[(int) entries];
+        }
+
+        /**
+         * Compute every characteristic using PARALLELISM threads and save
+         * the index in FILE.
+         */
+        void save(int parallelism, Path file) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.submit(() -> LongStream.range(0,
+                        (long) _orders.size() * _size).parallel()
+                        .forEach(this::buildPartition)).join();
+            } finally {
+                pool.shutdown();
+            }
+            long[] keys = _characteristics.clone();
+            Arrays.parallelSort(keys);
+            int distinct = 0;
+            for (int i = 0; i < keys.length; i += 1) {
+                if (i == 0 || keys[i] != keys[i - 1]) {
+                    keys[distinct] = keys[i];
+                    distinct += 1;
+                }
+            }
+            int[] starts = new int[distinct + 1];
+            int[] ids = new int[_characteristics.length];
+            for (int e = 0; e < ids.length; e += 1) {
+                ids[e] = Arrays.binarySearch(keys, 0, distinct,
+                        _characteristics[e]);
+                starts[ids[e] + 1] += 1;
+            }
+            for (int i = 0; i < distinct; i += 1) {
+                starts[i + 1] += starts[i];
+            }
+            int[] fill = Arrays.copyOf(starts, distinct);
+            int[] entries = new int[ids.length];
+            for (int e = 0; e < ids.length; e += 1) {
+                entries[fill[ids[e]]] = e;
+                fill[ids[e]] += 1;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(HEADER
+                    + Long.BYTES * (_orderKeys.length + distinct)
+                    + Integer.BYTES * (distinct + 1 + entries.length));
+            buf.putInt(MAGIC).putInt(_size).putInt(_numRotors)
+                .putInt(_orderKeys.length).putInt(_positions)
+                .putInt(distinct);
+            buf.asLongBuffer().put(_orderKeys).put(keys, 0, distinct);
+            buf.position(buf.position()
+                    + Long.BYTES * (_orderKeys.length + distinct));
+            buf.asIntBuffer().put(starts).put(entries);
+            Checkpoint.writeAtomically(file, buf.array(), false);
+        }
+
+        /**
+         * Compute the characteristic of every start position in
+         * PARTITION.  May be called from any thread.
+         */
+        void buildPartition(long partition) {
+            Worker w = _workers.get();
+            int o = (int) (partition / _size);
+            int[] order = _orders.get(o);
+            for (int i = 0; i < _numRotors; i += 1) {
+                w.machine.setRotor(i, _compiled[order[i]]);
+                w.machine.setRingSetting(i, 0);
+            }
+            int first = (int) (partition % _size);
+            int block = _positions / _size;
+            int entry = o * _positions + first * block;
+            for (int p = 0; p < block; p += 1) {
+                w.machine.setSetting(1, first);
+                int rest = p;
+                for (int i = _numRotors - 1; i >= 2; i -= 1) {
+                    w.machine.setSetting(i, rest % _size);
+                    rest /= _size;
+                }
+                _characteristics[entry + p] = characteristic(w);
+            }
+        }
+
+        /**
+         * Return the characteristic of W's machine at its current
+         * settings, stepping it.
+         */
+        private long characteristic(Worker w) {
+            int[][] scramblers = w.scramblers;
+            for (int j = 0; j < 6; j += 1) {
+                w.machine.step();
+                for (int x = 0; x < _size; x += 1) {
+                    scramblers[j][x] = w.machine.scrambleUnplugged(x);
+                }
+            }
+            long key = 0;
+            for (int p = 0; p < 3; p += 1) {
+                PermutationArrays.compose(scramblers[p], scramblers[p + 3],
+                        w.product);
+                key = key * _counts[_size][_size]
+                        + rank(_counts, w.product, w.lengths, w.seen);
+            }
+            return key;
+        }
+
+        /**
+         * Per-thread state: a machine and scratch arrays.
+         */
+        private class Worker {
+
+            /**
+             * Machine used to compute scramblers.
+             */
+            final FastMachine machine = new FastMachine(_size, _numRotors);
+
+            /**
+             * Scrambler J maps X to scramblers[J][X].
+             */
+            final int[][] scramblers = new int[6][_size];
+
+            /**
+             * A product of two scramblers.
+             */
+            final int[] product = new int[_size];
+
+            /**
+             * Number of cycles of each length in product.
+             */
+            final int[] lengths = new int[_size + 1];
+
+            /**
+             * Elements of product already on a cycle.
+             */
+            final long[] seen = new long[1];
+        }
+
+        /**
+         * Size of the alphabet.
+         */
+        private final int _size;
+
+        /**
+         * Partition counts, as from partitionCounts.
+         */
+        private final long[][] _counts;
+
+        /**
+         * Number of rotor slots.
+         */
+        private final int _numRotors;
+
+        /**
+         * Rotor orders, as catalog indices.
+         */
+        private final List<int[]> _orders;
+
+        /**
+         * Packed form of each rotor order.
+         */
+        private final long[] _orderKeys;
+
+        /**
+         * Compiled form of every catalog rotor.
+         */
+        private final CompiledRotor[] _compiled;
+
+        /**
+         * Number of start positions per rotor order.
+         */
+        private final int _positions;
+
+        /**
+         * Characteristic of each entry.
+         */
+        private final long[] _characteristics;
+
+        /**
+         * Per-thread workers.
+         */
+        private final ThreadLocal<Worker> _workers =
+                ThreadLocal.withInitial(Worker::new);
+    }
+
+    /**
+     * Build or search a catalog, as specified by ARGS:
+     *   [--threads=T] CONFIG REFLECTOR INDEX
+     *   --find CONFIG INDEX INDICATORS
+     * where CONFIG is a configuration file, REFLECTOR the name of the
+     * reflector, INDEX the catalog file and INDICATORS a file of doubly
+     * enciphered message keys, six characters each, separated by
+     * whitespace.  The first form builds the catalog; the second prints
+     * the characteristic of the indicators and the setup line of every
+     * rotor order and start position that has it.
+     */
+    public static void main(String... args) {
+        try {
+            Options options = new Options(args);
+            String[] files = options.positional();
+            if (files.length != 3) {
+                throw error("usage: CycleCatalog [options] CONFIG "
+                        + "REFLECTOR INDEX, or --find CONFIG INDEX "
+                        + "INDICATORS");
+            }
+            Machine machine = Main.machineFor(files[0]);
+            long start = System.nanoTime();
+            if (!options.flag("find")) {
+                build(machine, files[1], options.intValue("threads",
+                        Runtime.getRuntime().availableProcessors()),
+                        Paths.get(files[2]));
+                System.err.printf("built in %.1fs%n",
+                        (System.nanoTime() - start) / 1e9);
+                return;
+            }
+            Alphabet alpha = machine.alphabet();
+            List<int[]> indicators = readIndicators(alpha, files[2]);
+            CycleCatalog catalog = load(machine, Paths.get(files[1]));
+            long characteristic = characteristic(alpha.size(), indicators);
+            List<Candidate> found = catalog.find(characteristic);
+            System.out.println(describe(alpha.size(), characteristic));
+            for (Candidate c : found) {
+                System.out.println(c.setupLine(machine));
+            }
+            System.err.printf("%d matches in %.3fs%n", found.size(),
+                    (System.nanoTime() - start) / 1e9);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /**
+     * Return the indicators in the file NAME, as indices over ALPHA.
+     */
+    static List<int[]> readIndicators(Alphabet alpha, String name) {
+        try {
+            List<int[]> indicators = new ArrayList<>();
+            for (String word : Files.readString(Paths.get(name)).trim()
+                    .split("\\s+")) {
+                indicators.add(alpha.toInts(word));
+            }
+            return indicators;
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+    }
+
+    /**
+     * Marks the start of a saved catalog.
+     */
+    private static final int MAGIC = 0x52434331;
+
+    /**
+     * Size of the header of a saved catalog, in bytes.
+     */
+    private static final int HEADER = 6 * Integer.BYTES;
+
+    /**
+     * Largest number of entries allowed, so that a saved catalog fits in
+     * one buffer.
+     */
+    private static final long MAX_ENTRIES = (1 << 28) - (1 << 20);
+
+    /**
+     * Machines the catalog is for.
+     */
+    private final Machine _machine;
+
+    /**
+     * Size of the alphabet.
+     */
+    private final int _size;
+
+    /**
+     * Number of start positions per rotor order.
+     */
+    private final int _positions;
+
+    /**
+     * Packed form of each rotor order.
+     */
+    private final long[] _orderKeys;
+
+    /**
+     * Distinct characteristics, in increasing order.
+     */
+    private final LongBuffer _keys;
+
+    /**
+     * The entries with characteristic I are entries START[I] ..
+     * START[I+1]-1.
+     */
+    private final IntBuffer _starts;
+
+    /**
+     * Rotor order and start position of each entry, as order index *
+     * positions + the odometer number of the start settings.
+     */
+    private final IntBuffer _entries;
+}
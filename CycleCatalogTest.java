@@ -0,0 +1,78 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the CycleCatalog class.
+ */
+public class CycleCatalogTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    @Test
+    public void testDescribe() {
+        List<int[]> indicators = new ArrayList<>();
+        for (int x = 0; x < 26; x += 1) {
+            int[] indicator = {x, x, x, (x + 1) % 26, x, x};
+            indicators.add(indicator);
+        }
+        long key = CycleCatalog.characteristic(26, indicators);
+        String ones = "1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1";
+        assertEquals("26 / " + ones + " / " + ones,
+                CycleCatalog.describe(26, key));
+    }
+
+    @Test
+    public void testFindsKey() throws IOException {
+        Machine machine = threeRotorMachine();
+        Path file = Files.createTempFile("catalog", ".bin");
+        try {
+            CycleCatalog.build(machine, "B", 2, file);
+            CycleCatalog catalog = CycleCatalog.load(machine, file);
+            Random random = new Random(39);
+            machine.insertRotors(new String[] {"B", "II", "III", "I"});
+            machine.setPlugboard(new Permutation("(AQ) (BZ) (MX) (KT)",
+                    UPPER));
+            String start = "QEV";
+            List<int[]> indicators = new ArrayList<>();
+            for (int i = 0; i < 300; i += 1) {
+                machine.setRotors(start);
+                int[] indicator = new int[6];
+                for (int j = 0; j < 3; j += 1) {
+                    indicator[j] = random.nextInt(26);
+                    indicator[j + 3] = indicator[j];
+                }
+                for (int j = 0; j < 6; j += 1) {
+                    indicator[j] = machine.convert(indicator[j]);
+                }
+                indicators.add(indicator);
+            }
+            long key = CycleCatalog.characteristic(26, indicators);
+            String wanted = "* B II III I QEV AAA";
+            boolean found = false;
+            for (Candidate c : catalog.find(key)) {
+                found |= c.setupLine(machine).equals(wanted);
+            }
+            assertTrue(found);
+            assertTrue(catalog.distinct() > 1000);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
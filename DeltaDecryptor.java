@@ -0,0 +1,608 @@
+package enigma;
+
+import java.util.Arrays;
+
+/**
+ * The decryption of a ciphertext under a changing plugboard, with its
+ * n-gram score and index of coincidence, updated incrementally.  With
+ * plugboard P, ciphertext character c at position k decrypts to
+ * P[m_k], where m_k = S_k[P[c]] is the output of the rotor scrambler
+ * S_k there.  Changing the partners of a set of letters changes m_k
+ * only where c is one of them, and the decryption only there and where
+ * m_k is one of them.  So I keep the positions of each ciphertext
+ * letter, which never change, and of each value of m_k, which I
+ * maintain, and an update touches only those positions and the n-grams
+ * over them.  Each changed n-gram is rescored by the last changed
+ * position in it, found by looking at its neighbours, so nothing is
+ * scored twice.
+ * When the changed letters cover too much of the text for that to pay,
+ * an update instead rescores the whole text in one sequential pass,
+ * without storing the decryption; if it is kept, the decryption and
+ * indexes are then rebuilt, so that later sparse updates stay
+ * incremental.
+ * Since most updates in a search are rejected, an update changes only
+ * the decryption, letter counts and score, recording what it changed
+ * so that revert() can undo it cheaply.  The position index of m_k and
+ * the n-gram keys are brought up to date only when the next update
+ * starts without the last having been reverted.
+ */
+final class DeltaDecryptor {
+
+    /**
+     * A decryptor for CIPHERTEXT, over an alphabet of SIZE characters,
+     * whose scrambler at position k maps x to SCRAMBLERS[k * SIZE + x],
+     * scoring with MODEL.  SCRAMBLERS and CIPHERTEXT are shared, not
+     * copied.  The plugboard is initially empty.
+     */
+    DeltaDecryptor(int[] scramblers, int[] ciphertext, int size,
+                   NGramModel model) {
+        int len = ciphertext.length;
+        int n = model.n();
+        _scramblers = scramblers;
+        _ciphertext = ciphertext;
+        _size = size;
+        _table = model.table();
+        _plug = new int[size];
+        _savedPlug = new int[size];
+        _changed = new int[size];
+        _isChanged = new boolean[size];
+        _mid = new int[len];
+        _out = new int[len];
+        _counts = new int[size];
+        _spareCounts = new int[size];
+        _textStart = new int[size + 1];
+        _textPositions = new int[len];
+        for (int c : ciphertext) {
+            _textStart[c + 1] += 1;
+        }
+        for (int x = 0; x < size; x += 1) {
+            _textStart[x + 1] += _textStart[x];
+        }
+        int[] fill = Arrays.copyOf(_textStart, size);
+        for (int k = 0; k < len; k += 1) {
+            _textPositions[fill[ciphertext[k]]++] = k;
+        }
+        _midPositions = new int[size * len];
+        _midCount = new int[size];
+        _midWhere = new int[len];
+        _mark = new int[len];
+        _keys = new int[Math.max(0, len - n + 1)];
+        _grams = new int[_keys.length];
+        _newKeys = new int[_keys.length];
+        _n = n;
+        int high = 1;
+        for (int j = 1; j < n; j += 1) {
+            high *= size;
+        }
+        _high = high;
+        _journalPos = new int[len];
+        _journalMid = new int[len];
+        _journalOut = new int[len];
+        for (int x = 0; x < size; x += 1) {
+            _plug[x] = x;
+        }
+        recompute();
+    }
+
+    /**
+     * Return the scrambler tables of a machine for LEN positions, as
+     * used by my constructor: the table at position k maps x to the
+     * result of passing x through MACHINE's rotors, without plugboard,
+     * after its k+1st step from its current settings.  Steps MACHINE
+     * LEN times.
+     */
+    static int[] scramblers(FastMachine machine, int len) {
+        int size = machine.size();
+        int[] result = new int[len * size];
+        for (int k = 0; k < len; k += 1) {
+            machine.step();
+            int base = k * size;
+            for (int x = 0; x < size; x += 1) {
+                result[base + x] = machine.scrambleUnplugged(x);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Set my plugboard to PLUG, recomputing everything.
+     */
+    void setPlugboard(int[] plug) {
+        System.arraycopy(plug, 0, _plug, 0, _size);
+        recompute();
+    }
+
+    /**
+     * Change my plugboard to PLUG, updating only what the letters whose
+     * partners changed affect, and return the new n-gram score.  The
+     * change may be undone by revert() until the next change.
+     */
+    double update(int[] plug) {
+        commit();
+        int numChanged = 0;
+        for (int x = 0; x < _size; x += 1) {
+            if (plug[x] != _plug[x]) {
+                _changed[numChanged] = x;
+                numChanged += 1;
+            }
+        }
+        System.arraycopy(_plug, 0, _savedPlug, 0, _size);
+        System.arraycopy(plug, 0, _plug, 0, _size);
+        _savedScore = _score;
+        _savedCoincidences = _coincidences;
+        _pending = true;
+        if (numChanged == 0) {
+            return _score;
+        }
+        if (_epoch == Integer.MAX_VALUE) {
+            Arrays.fill(_mark, 0);
+            _epoch = 0;
+        }
+        _epoch += 1;
+        int len = _ciphertext.length;
+        int touched = 0;
+        for (int i = 0; i < numChanged; i += 1) {
+            int x = _changed[i];
+            touched += _textStart[x + 1] - _textStart[x] + _midCount[x];
+        }
+        if (touched * SPARSE > len) {
+            rescan();
+            return _score;
+        }
+        for (int i = 0; i < numChanged; i += 1) {
+            _isChanged[_changed[i]] = true;
+        }
+        for (int i = 0; i < numChanged; i += 1) {
+            int x = _changed[i];
+            for (int j = _textStart[x]; j < _textStart[x + 1]; j += 1) {
+                change(_textPositions[j]);
+            }
+        }
+        for (int i = 0; i < numChanged; i += 1) {
+            int x = _changed[i];
+            for (int j = x * len; j < x * len + _midCount[x]; j += 1) {
+                int k = _midPositions[j];
+                if (!_isChanged[_ciphertext[k]]) {
+                    change(k);
+                }
+            }
+        }
+        for (int i = 0; i < numChanged; i += 1) {
+            _isChanged[_changed[i]] = false;
+        }
+        for (int i = 0; i < _journalSize; i += 1) {
+            rescore(_journalPos[i]);
+        }
+        return _score;
+    }
+
+    /**
+     * Undo the last call of update().
+     */
+    void revert() {
+        _dense = false;
+        for (int i = _journalSize - 1; i >= 0; i -= 1) {
+            int k = _journalPos[i];
+            count(_journalOut[i], _out[k]);
+            _out[k] = _journalOut[i];
+        }
+        _journalSize = 0;
+        _numGrams = 0;
+        _pending = false;
+        System.arraycopy(_savedPlug, 0, _plug, 0, _size);
+        _score = _savedScore;
+        _coincidences = _savedCoincidences;
+    }
+
+    /**
+     * Return the sum of the log-probabilities of the n-grams of my
+     * decryption.
+     */
+    double score() {
+        return _score;
+    }
+
+    /**
+     * Return the index of coincidence of my decryption.
+     */
+    double indexOfCoincidence() {
+        long len = _ciphertext.length;
+        return len < 2 ? 0 : (double) _coincidences / (len * (len - 1));
+    }
+
+    /**
+     * Return the decryption of the character at position K.
+     */
+    int decrypted(int k) {
+        return _plug[_scramblers[k * _size + _plug[_ciphertext[k]]]];
+    }
+
+    /**
+     * Return the number of positions whose decryption or scrambler
+     * output the last update() changed.
+     */
+    int lastChanged() {
+        return _journalSize;
+    }
+
+    /**
+     * Recompute position K under my new plugboard, journalling and
+     * applying any change to its decryption.
+     */
+    private void change(int k) {
+        int mid = _scramblers[k * _size + _plug[_ciphertext[k]]];
+        int out = _plug[mid];
+        if (mid == _mid[k] && out == _out[k]) {
+            return;
+        }
+        _journalPos[_journalSize] = k;
+        _journalMid[_journalSize] = mid;
+        _journalOut[_journalSize] = _out[k];
+        _journalSize += 1;
+        if (out != _out[k]) {
+            count(out, _out[k]);
+            _out[k] = out;
+            _mark[k] = _epoch;
+        }
+    }
+
+    /**
+     * Rescore the n-grams over position K, if its decryption changed in
+     * this update, except those also over a later changed position,
+     * which that position rescores.
+     */
+    private void rescore(int k) {
+        if (_mark[k] != _epoch) {
+            return;
+        }
+        int last = Math.min(k, _keys.length - 1);
+        for (int j = k + 1; j < k + _n && j < _mark.length; j += 1) {
+            if (_mark[j] == _epoch) {
+                last = Math.min(last, j - _n);
+                break;
+            }
+        }
+        for (int g = Math.max(0, k - _n + 1); g <= last; g += 1) {
+            int key = 0;
+            for (int j = g; j < g + _n; j += 1) {
+                key = key * _size + _out[j];
+            }
+            _grams[_numGrams] = g;
+            _newKeys[_numGrams] = key;
+            _numGrams += 1;
+            _score += _table[key] - _table[_keys[g]];
+        }
+    }
+
+    /**
+     * Update the letter counts for a decrypted letter changing from
+     * FROM to TO.
+     */
+    private void count(int to, int from) {
+        _counts[from] -= 1;
+        _coincidences -= 2L * _counts[from];
+        _coincidences += 2L * _counts[to];
+        _counts[to] += 1;
+    }
+
+    /**
+     * Bring the index of scrambler outputs and the n-gram keys up to
+     * date with the last update, if it was not reverted, rebuilding
+     * them and the decryption after a rescan.
+     */
+    private void commit() {
+        if (!_pending) {
+            return;
+        }
+        int len = _ciphertext.length;
+        for (int i = 0; i < _journalSize; i += 1) {
+            int k = _journalPos[i];
+            int mid = _journalMid[i];
+            int old = _mid[k];
+            if (mid != old) {
+                int where = _midWhere[k];
+                _midCount[old] -= 1;
+                int moved = _midPositions[old * len + _midCount[old]];
+                _midPositions[old * len + where] = moved;
+                _midWhere[moved] = where;
+                _midPositions[mid * len + _midCount[mid]] = k;
+                _midWhere[k] = _midCount[mid];
+                _midCount[mid] += 1;
+                _mid[k] = mid;
+            }
+        }
+        if (_dense) {
+            int[] counts = _counts;
+            _counts = _spareCounts;
+            _spareCounts = counts;
+            decrypt();
+            index();
+            computeKeys();
+        }
+        for (int i = 0; i < _numGrams; i += 1) {
+            _keys[_grams[i]] = _newKeys[i];
+        }
+        _journalSize = 0;
+        _numGrams = 0;
+        _pending = false;
+        _dense = false;
+    }
+
+    /**
+     * Score the whole text under my new plugboard in one sequential
+     * pass, counting its letters into the spare counts, and leaving my
+     * decryption and index as they were.
+     */
+    private void rescan() {
+        int[] counts = _spareCounts;
+        Arrays.fill(counts, 0);
+        int[] plug = _plug;
+        int[] scramblers = _scramblers;
+        int[] text = _ciphertext;
+        float[] table = _table;
+        int size = _size;
+        int span = _high;
+        int first = _n - 1;
+        double sum = 0;
+        int key = 0;
+        for (int k = 0; k < text.length; k += 1) {
+            int out = plug[scramblers[k * size + plug[text[k]]]];
+            counts[out] += 1;
+            key = (key % span) * size + out;
+            if (k >= first) {
+                sum += table[key];
+            }
+        }
+        _coincidences = 0;
+        for (int c : counts) {
+            _coincidences += (long) c * (c - 1);
+        }
+        _score = sum;
+        _dense = true;
+    }
+
+    /**
+     * Recompute my scrambler outputs and decryption under my plugboard.
+     */
+    private void decrypt() {
+        for (int k = 0; k < _ciphertext.length; k += 1) {
+            int mid = _scramblers[k * _size + _plug[_ciphertext[k]]];
+            _mid[k] = mid;
+            _out[k] = _plug[mid];
+        }
+    }
+
+    /**
+     * Rebuild the index of positions by scrambler output.
+     */
+    private void index() {
+        int len = _ciphertext.length;
+        Arrays.fill(_midCount, 0);
+        for (int k = 0; k < len; k += 1) {
+            int mid = _mid[k];
+            _midPositions[mid * len + _midCount[mid]] = k;
+            _midWhere[k] = _midCount[mid];
+            _midCount[mid] += 1;
+        }
+    }
+
+    /**
+     * Set the key of every n-gram of my decryption.
+     */
+    private void computeKeys() {
+        int key = 0;
+        for (int k = 0; k < _out.length; k += 1) {
+            key = key * _size + _out[k];
+            if (k >= _n - 1) {
+                _keys[k - _n + 1] = key;
+                key -= _out[k - _n + 1] * _high;
+            }
+        }
+    }
+
+    /**
+     * Recompute my decryption, indexes and scores from scratch.
+     */
+    private void recompute() {
+        decrypt();
+        Arrays.fill(_counts, 0);
+        for (int out : _out) {
+            _counts[out] += 1;
+        }
+        index();
+        _coincidences = 0;
+        for (int c : _counts) {
+            _coincidences += (long) c * (c - 1);
+        }
+        computeKeys();
+        _score = 0;
+        for (int key : _keys) {
+            _score += _table[key];
+        }
+        _journalSize = 0;
+        _numGrams = 0;
+        _pending = false;
+        _dense = false;
+    }
+
+    /**
+     * An update is done by rescanning the whole decryption when the
+     * positions of the changed letters exceed 1/SPARSE of it, which is
+     * then cheaper because the rescan is sequential.
+     */
+    private static final int SPARSE = 8;
+
+    /**
+     * Rotor scrambler at each position, without plugboard.
+     */
+    private final int[] _scramblers;
+
+    /**
+     * The ciphertext, as indices.
+     */
+    private final int[] _ciphertext;
+
+    /**
+     * Size of the alphabet.
+     */
+    private final int _size;
+
+    /**
+     * Length of the n-grams scored.
+     */
+    private final int _n;
+
+    /**
+     * Weight in an n-gram key of its first character.
+     */
+    private final int _high;
+
+    /**
+     * Log-probability of each n-gram, by key.
+     */
+    private final float[] _table;
+
+    /**
+     * Current plugboard.
+     */
+    private final int[] _plug;
+
+    /**
+     * Plugboard before the last update.
+     */
+    private final int[] _savedPlug;
+
+    /**
+     * Letters whose partners change in the current update.
+     */
+    private final int[] _changed;
+
+    /**
+     * True for the letters in _changed during an update.
+     */
+    private final boolean[] _isChanged;
+
+    /**
+     * Scrambler output at each position, as of the last commit.
+     */
+    private final int[] _mid;
+
+    /**
+     * Decryption at each position, as of the last update.
+     */
+    private final int[] _out;
+
+    /**
+     * Number of occurrences of each letter in the decryption.
+     */
+    private int[] _counts;
+
+    /**
+     * Letter counts filled by a rescan.
+     */
+    private int[] _spareCounts;
+
+    /**
+     * Positions of ciphertext letter x are _textPositions[_textStart[x]]
+     * .. _textPositions[_textStart[x + 1] - 1].
+     */
+    private final int[] _textStart;
+
+    /**
+     * Positions, grouped by ciphertext letter.
+     */
+    private final int[] _textPositions;
+
+    /**
+     * Positions whose scrambler output is y are the first _midCount[y]
+     * entries from _midPositions[y * length].
+     */
+    private final int[] _midPositions;
+
+    /**
+     * Number of positions with each scrambler output.
+     */
+    private final int[] _midCount;
+
+    /**
+     * Index of each position within its group of _midPositions.
+     */
+    private final int[] _midWhere;
+
+    /**
+     * Marks positions whose decryption changed in the current epoch.
+     */
+    private final int[] _mark;
+
+    /**
+     * Key of the n-gram starting at each position, as of the last
+     * commit.
+     */
+    private final int[] _keys;
+
+    /**
+     * Starts of the n-grams changed by the last update, in the first
+     * _numGrams entries.
+     */
+    private final int[] _grams;
+
+    /**
+     * New keys of the n-grams in _grams.
+     */
+    private final int[] _newKeys;
+
+    /**
+     * Number of n-grams changed by the last update.
+     */
+    private int _numGrams;
+
+    /**
+     * Current epoch of _mark.
+     */
+    private int _epoch;
+
+    /**
+     * Positions changed by the last update, with their new scrambler
+     * outputs and previous decryptions, in the first _journalSize
+     * entries.
+     */
+    private final int[] _journalPos, _journalMid, _journalOut;
+
+    /**
+     * Number of entries in the journal.
+     */
+    private int _journalSize;
+
+    /**
+     * True iff the last update has been neither committed nor
+     * reverted.
+     */
+    private boolean _pending;
+
+    /**
+     * True iff the last update rescanned the whole text, and so left
+     * the decryption, index and n-gram keys alone and put its letter
+     * counts in the spare array.
+     */
+    private boolean _dense;
+
+    /**
+     * Sum of n-gram log-probabilities of the decryption.
+     */
+    private double _score;
+
+    /**
+     * Sum over letters of count * (count - 1).
+     */
+    private long _coincidences;
+
+    /**
+     * Score before the last update.
+     */
+    private double _savedScore;
+
+    /**
+     * Coincidences before the last update.
+     */
+    private long _savedCoincidences;
+}
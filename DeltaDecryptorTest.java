@@ -0,0 +1,191 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the DeltaDecryptor class, checking
+ * it against decryption and scoring from scratch.
+ */
+public class DeltaDecryptorTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /**
+     * Return a random plugboard over SIZE letters with at most PAIRS
+     * pairs, using RANDOM.
+     */
+    private int[] randomPlug(Random random, int size, int pairs) {
+        int[] plug = new int[size];
+        for (int x = 0; x < size; x += 1) {
+            plug[x] = x;
+        }
+        for (int i = 0; i < pairs; i += 1) {
+            int a = random.nextInt(size);
+            int b = random.nextInt(size);
+            if (plug[a] == a && plug[b] == b) {
+                plug[a] = b;
+                plug[b] = a;
+            }
+        }
+        return plug;
+    }
+
+    /**
+     * Check that DELTA holds the decryption of CIPHERTEXT under PLUG
+     * with SCRAMBLERS over SIZE letters, scored by MODEL.
+     */
+    private void check(DeltaDecryptor delta, int[] scramblers,
+                       int[] ciphertext, int size, int[] plug,
+                       NGramModel model) {
+        int[] plain = new int[ciphertext.length];
+        int[] counts = new int[size];
+        for (int k = 0; k < plain.length; k += 1) {
+            plain[k] = plug[scramblers[k * size + plug[ciphertext[k]]]];
+            assertEquals(plain[k], delta.decrypted(k));
+            counts[plain[k]] += 1;
+        }
+        assertEquals(model.score(plain, 0, plain.length), delta.score(),
+                1e-6);
+        assertEquals(KeySearch.indexOfCoincidence(counts, plain.length),
+                delta.indexOfCoincidence(), 1e-12);
+    }
+
+    @Test
+    public void testUpdateAndRevert() {
+        Random random = new Random(38);
+        Alphabet alpha = new Alphabet();
+        int size = alpha.size();
+        NGramModel model = NGramModel.train(alpha, 3,
+                "THE QUICK BROWN FOX JUMPS OVER THE LAZY DOG AND THEN "
+                + "SOME MORE TEXT TO MAKE THE TRIGRAMS INTERESTING");
+        int len = 300;
+        int[] scramblers = new int[len * size];
+        for (int k = 0; k < len; k += 1) {
+            int[] perm = randomPlug(random, size, size);
+            System.arraycopy(perm, 0, scramblers, k * size, size);
+        }
+        int[] ciphertext = new int[len];
+        for (int k = 0; k < len; k += 1) {
+            ciphertext[k] = random.nextInt(size);
+        }
+        DeltaDecryptor delta = new DeltaDecryptor(scramblers, ciphertext,
+                size, model);
+        int[] plug = randomPlug(random, size, 0);
+        check(delta, scramblers, ciphertext, size, plug, model);
+        plug = randomPlug(random, size, 10);
+        delta.setPlugboard(plug);
+        check(delta, scramblers, ciphertext, size, plug, model);
+        for (int step = 0; step < 200; step += 1) {
+            int[] next = plug.clone();
+            int a = random.nextInt(size);
+            int b = random.nextInt(size);
+            int pa = next[a];
+            int pb = next[b];
+            next[pa] = pa;
+            next[pb] = pb;
+            next[a] = b;
+            next[b] = a;
+            delta.update(next);
+            check(delta, scramblers, ciphertext, size, next, model);
+            if (random.nextBoolean()) {
+                delta.revert();
+                check(delta, scramblers, ciphertext, size, plug, model);
+            } else {
+                plug = next;
+            }
+        }
+    }
+
+    /**
+     * Return a permutation of SIZE letters, shuffled using RANDOM.
+     */
+    private int[] randomPermutation(Random random, int size) {
+        int[] perm = PermutationArrays.identity(size);
+        for (int i = size - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            int t = perm[i];
+            perm[i] = perm[j];
+            perm[j] = t;
+        }
+        return perm;
+    }
+
+    @Test
+    public void testSparseUpdatesAfterRescan() {
+        Random random = new Random(381);
+        StringBuilder chars = new StringBuilder();
+        for (char c = '\u0100'; c < '\u0100' + 100; c += 1) {
+            chars.append(c);
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        int size = alpha.size();
+        // Scores are multiples of 1/64, so that sums are exact in any order.
+        float[] table = new float[size * size];
+        for (int i = 0; i < table.length; i += 1) {
+            table[i] = -random.nextInt(640) / 64f;
+        }
+        NGramModel model = new NGramModel(alpha, 2, table);
+        int len = 4000;
+        int[] scramblers = new int[len * size];
+        for (int k = 0; k < len; k += 1) {
+            System.arraycopy(randomPermutation(random, size), 0,
+                    scramblers, k * size, size);
+        }
+        int[] ciphertext = new int[len];
+        for (int k = 0; k < len; k += 1) {
+            ciphertext[k] = random.nextInt(size);
+        }
+        DeltaDecryptor delta = new DeltaDecryptor(scramblers, ciphertext,
+                size, model);
+        int[] plug = randomPlug(random, size, 0);
+        int sparse = 0;
+        int sparseAfterRescan = 0;
+        boolean rescanned = false;
+        for (int step = 0; step < 300; step += 1) {
+            int[] next;
+            if (step % 10 == 0) {
+                next = randomPlug(random, size, 30);
+            } else {
+                next = plug.clone();
+                int a = random.nextInt(size);
+                int b = random.nextInt(size);
+                int pa = next[a];
+                int pb = next[b];
+                next[pa] = pa;
+                next[pb] = pb;
+                next[a] = b;
+                next[b] = a;
+            }
+            delta.update(next);
+            check(delta, scramblers, ciphertext, size, next, model);
+            boolean wasSparse = delta.lastChanged() > 0;
+            if (wasSparse) {
+                sparse += 1;
+                if (rescanned) {
+                    sparseAfterRescan += 1;
+                }
+            }
+            if (random.nextInt(4) == 0) {
+                delta.revert();
+                check(delta, scramblers, ciphertext, size, plug, model);
+            } else {
+                plug = next;
+                if (step % 10 == 0) {
+                    rescanned = !wasSparse;
+                }
+            }
+        }
+        assertTrue(sparse > 200);
+        assertTrue(sparseAfterRescan > 100);
+    }
+}
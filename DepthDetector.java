@@ -0,0 +1,454 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * Finds messages in depth: pairs of ciphertexts enciphered, over some
+ * stretch, by the same key sequence.  Aligned that way, two texts agree
+ * about as often as two plaintexts do, which is much more often than
+ * unrelated ciphertexts, whose letters agree with probability about the
+ * sum of squares of the letter frequencies.
+ * Each text is bit-sliced: bit k of plane p is bit p of the index of its
+ * k-th letter.  Two texts agree at 64 positions at once where no plane
+ * of one differs from the same plane of the other, so a comparison at
+ * one alignment costs a few word operations and a popcount per 64
+ * characters.  Every pair is compared at every alignment with enough
+ * overlap, blocks of pairs in parallel, and the alignment with the most
+ * surprising number of agreements is kept.  Its score is -log10 of the
+ * Chernoff bound n D(a/n || r) on the chance that unrelated texts, which
+ * agree at rate r, agree at a or more of n aligned characters.  The
+ * bound stays sound for the short overlaps and skewed tails where a
+ * normal approximation would report many false depths.
+ */
+final class DepthDetector {
+
+    /**
+     * A detector for CIPHERTEXTS, each a sequence of indices over an
+     * alphabet of SIZE characters.
+     */
+    DepthDetector(int size, List<int[]> ciphertexts) {
+        _planes = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(
+                size - 1));
+        _lengths = new int[ciphertexts.size()];
+        _bits = new long[ciphertexts.size()][];
+        long[] counts = new long[size];
+        long total = 0;
+        for (int t = 0; t < _bits.length; t += 1) {
+            int[] text = ciphertexts.get(t);
+            int stride = stride(text.length);
+            long[] bits = new long[_planes * stride];
+            for (int k = 0; k < text.length; k += 1) {
+                for (int p = 0; p < _planes; p += 1) {
+                    if ((text[k] >>> p & 1) != 0) {
+                        bits[p * stride + (k >>> 6)] |= 1L << k;
+                    }
+                }
+                counts[text[k]] += 1;
+            }
+            total += text.length;
+            _lengths[t] = text.length;
+            _bits[t] = bits;
+        }
+        double rate = 0;
+        for (long count : counts) {
+            rate += (double) count * count;
+        }
+        _randomRate = total == 0 ? 0 : rate / ((double) total * total);
+    }
+
+    /**
+     * Return the number of words holding one plane of a ciphertext of
+     * LENGTH characters, including a final empty word so that shifted
+     * reads need no bounds check.
+     */
+    private static int stride(int length) {
+        return (length + 63) / 64 + 1;
+    }
+
+    /**
+     * Return the number of ciphertexts I compare.
+     */
+    int numTexts() {
+        return _bits.length;
+    }
+
+    /**
+     * Return the probability that letters of two unrelated ciphertexts
+     * agree, estimated from the letter frequencies of all of them.
+     */
+    double randomRate() {
+        return _randomRate;
+    }
+
+    /**
+     * Return the number of positions K in 0 .. LENGTH-1 at which
+     * character K + SHIFT of ciphertext A equals character K of
+     * ciphertext B, where SHIFT >= 0 and both ranges lie within the
+     * texts.
+     */
+    int coincidences(int a, int b, int shift, int length) {
+        long[] x = _bits[a];
+        long[] y = _bits[b];
+        int xStride = stride(_lengths[a]);
+        int yStride = stride(_lengths[b]);
+        int base = shift >>> 6;
+        int s = shift & 63;
+        int words = (length + 63) >>> 6;
+        int result = 0;
+        for (int w = 0; w < words; w += 1) {
+            long differ = 0;
+            for (int p = 0; p < _planes; p += 1) {
+                int at = p * xStride + base + w;
+                long xw = s == 0 ? x[at]
+                        : x[at] >>> s | x[at + 1] << (64 - s);
+                differ |= xw ^ y[p * yStride + w];
+            }
+            long agree = ~differ;
+            if (w == words - 1 && (length & 63) != 0) {
+                agree &= (1L << length) - 1;
+            }
+            result += Long.bitCount(agree);
+        }
+        return result;
+    }
+
+    /**
+     * Return the best alignment of ciphertexts A and B: the one among
+     * those overlapping by at least MINOVERLAP characters, with B
+     * shifted by at most MAXSHIFT positions against A, whose number of
+     * agreements has the highest score.  Returns null if no alignment
+     * qualifies.
+     */
+    Depth compare(int a, int b, int minOverlap, int maxShift) {
+        Depth best = null;
+        int la = _lengths[a], lb = _lengths[b];
+        int lo = lowestShift(a, b, minOverlap, maxShift);
+        int hi = highestShift(a, b, minOverlap, maxShift);
+        for (int shift = lo; shift <= hi; shift += 1) {
+            int length = shift >= 0 ? Math.min(la - shift, lb)
+                    : Math.min(lb + shift, la);
+            int agree = shift >= 0 ? coincidences(a, b, shift, length)
+                    : coincidences(b, a, -shift, length);
+            double score = score(agree, length);
+            if (best == null || score > best.score()) {
+                best = new Depth(a, b, shift, length, agree, score);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the most negative shift of ciphertext B against A
+     * considered by compare(A, B, MINOVERLAP, MAXSHIFT).
+     */
+    private int lowestShift(int a, int b, int minOverlap, int maxShift) {
+        return Math.max(-maxShift, minOverlap - _lengths[b]);
+    }
+
+    /**
+     * Return the most positive shift of ciphertext B against A
+     * considered by compare(A, B, MINOVERLAP, MAXSHIFT).
+     */
+    private int highestShift(int a, int b, int minOverlap, int maxShift) {
+        return Math.min(maxShift, _lengths[a] - minOverlap);
+    }
+
+    /**
+     * Return the number of alignments compared by detect(MINOVERLAP,
+     * MAXSHIFT, ...), over all pairs.
+     */
+    long alignments(int minOverlap, int maxShift) {
+        long result = 0;
+        for (int a = 0; a < numTexts(); a += 1) {
+            for (int b = a + 1; b < numTexts(); b += 1) {
+                result += Math.max(0, highestShift(a, b, minOverlap, maxShift)
+                        - lowestShift(a, b, minOverlap, maxShift) + 1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the score of AGREE agreements in LENGTH aligned
+     * characters: -log10 of the Chernoff bound on the probability of
+     * at least that many in unrelated ciphertexts, or 0 if AGREE is no
+     * more than expected.
+     */
+    double score(int agree, int length) {
+        double r = _randomRate;
+        double q = (double) agree / length;
+        if (length == 0 || q <= r) {
+            return 0;
+        }
+        double divergence = q * Math.log(q / r);
+        if (q < 1) {
+            divergence += (1 - q) * Math.log((1 - q) / (1 - r));
+        }
+        return length * divergence / Math.log(10);
+    }
+
+    /**
+     * Return every pair of my ciphertexts whose best alignment, as
+     * found by compare(A, B, MINOVERLAP, MAXSHIFT), has a score of at
+     * least MINSCORE, most significant first, using PARALLELISM threads.
+     * The pairs are split into blocks of BLOCK texts by BLOCK texts,
+     * each compared by one thread, so that a block's texts stay in its
+     * cache.
+     */
+    List<Depth> detect(int minOverlap, int maxShift, double minScore,
+                       int parallelism) {
+        int n = numTexts();
+        int blocks = (n + BLOCK - 1) / BLOCK;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Depth> result = pool.submit(() ->
+                    IntStream.range(0, blocks * blocks).parallel()
+                    .filter(i -> i / blocks <= i % blocks)
+                    .mapToObj(i -> compareBlocks(i / blocks, i % blocks,
+                            minOverlap, maxShift, minScore))
+                    .flatMap(List::stream)
+                    .collect(Collectors.toList())).join();
+            result.sort(Collections.reverseOrder());
+            return result;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Return the pairs with first text in block I and second in block
+     * J, as for detect.
+     */
+    private List<Depth> compareBlocks(int i, int j, int minOverlap,
+                                      int maxShift, double minScore) {
+        List<Depth> result = new ArrayList<>();
+        int n = numTexts();
+        for (int a = i * BLOCK; a < Math.min(n, (i + 1) * BLOCK); a += 1) {
+            int from = i == j ? a + 1 : j * BLOCK;
+            for (int b = from; b < Math.min(n, (j + 1) * BLOCK); b += 1) {
+                Depth d = compare(a, b, minOverlap, maxShift);
+                if (d != null && d.score() >= minScore) {
+                    result.add(d);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * An alignment of two ciphertexts and its agreements.
+     */
+    static final class Depth implements Comparable<Depth> {
+
+        /**
+         * The alignment of ciphertexts FIRST and SECOND with SECOND
+         * shifted by SHIFT positions, overlapping by OVERLAP characters
+         * of which AGREE agree, with score SCORE.
+         */
+        Depth(int first, int second, int shift, int overlap, int agree,
+              double score) {
+            _first = first;
+            _second = second;
+            _shift = shift;
+            _overlap = overlap;
+            _agree = agree;
+            _score = score;
+        }
+
+        /**
+         * Return the index of the first ciphertext.
+         */
+        int first() {
+            return _first;
+        }
+
+        /**
+         * Return the index of the second ciphertext.
+         */
+        int second() {
+            return _second;
+        }
+
+        /**
+         * Return the shift S of the second ciphertext: its character K
+         * lines up with character K + S of the first.
+         */
+        int shift() {
+            return _shift;
+        }
+
+        /**
+         * Return the number of characters aligned.
+         */
+        int overlap() {
+            return _overlap;
+        }
+
+        /**
+         * Return the number of aligned characters that agree.
+         */
+        int agree() {
+            return _agree;
+        }
+
+        /**
+         * Return the score of agree(), as DepthDetector.score.
+         */
+        double score() {
+            return _score;
+        }
+
+        @Override
+        public int compareTo(Depth other) {
+            return Double.compare(_score, other._score);
+        }
+
+        /**
+         * Index of the first ciphertext.
+         */
+        private final int _first;
+
+        /**
+         * Index of the second ciphertext.
+         */
+        private final int _second;
+
+        /**
+         * Shift of the second ciphertext.
+         */
+        private final int _shift;
+
+        /**
+         * Number of characters aligned.
+         */
+        private final int _overlap;
+
+        /**
+         * Number of aligned characters that agree.
+         */
+        private final int _agree;
+
+        /**
+         * Score of _agree.
+         */
+        private final double _score;
+    }
+
+    /**
+     * Find messages in depth, as specified by ARGS:
+     *   [--threads=T] [--min-overlap=N] [--max-shift=S] [--confidence=C]
+     *   [--lines] CONFIG CIPHERTEXT...
+     * where CONFIG is a configuration file giving the alphabet and each
+     * CIPHERTEXT a file holding a ciphertext, or with --lines one
+     * ciphertext per non-blank line.  Compares every pair at every
+     * alignment overlapping by at least --min-overlap characters
+     * (default 50) with shifts of at most --max-shift (default
+     * unlimited).  Prints the pairs whose best alignment scores at least
+     * log10 of the number of alignments compared plus --confidence
+     * (default 2), so that unrelated texts are expected to be reported
+     * with probability at most 10^-C, most significant first, as the
+     * two ciphertexts, the shift, the overlap, the agreements and the
+     * score.
+     */
+    public static void main(String... args) {
+        try {
+            Options options = new Options(args);
+            String[] files = options.positional();
+            if (files.length < 2) {
+                throw error("usage: DepthDetector [options] CONFIG "
+                        + "CIPHERTEXT...");
+            }
+            Alphabet alpha = Main.machineFor(files[0]).alphabet();
+            List<String> names = new ArrayList<>();
+            List<int[]> texts = new ArrayList<>();
+            for (int i = 1; i < files.length; i += 1) {
+                if (options.flag("lines")) {
+                    readLines(alpha, files[i], names, texts);
+                } else {
+                    names.add(files[i]);
+                    texts.add(KeySearch.readCiphertext(alpha, files[i],
+                            Integer.MAX_VALUE));
+                }
+            }
+            long start = System.nanoTime();
+            DepthDetector detector = new DepthDetector(alpha.size(), texts);
+            int minOverlap = options.intValue("min-overlap", 50);
+            int maxShift = options.intValue("max-shift", Integer.MAX_VALUE);
+            long alignments = detector.alignments(minOverlap, maxShift);
+            double minScore = Math.log10(Math.max(1, alignments))
+                    + options.doubleValue("confidence", 2);
+            List<Depth> found = detector.detect(minOverlap, maxShift,
+                    minScore, options.intValue("threads",
+                            Runtime.getRuntime().availableProcessors()));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            for (Depth d : found) {
+                System.out.printf("%s %s %d %d %d %.2f%n",
+                        names.get(d.first()), names.get(d.second()),
+                        d.shift(), d.overlap(), d.agree(), d.score());
+            }
+            System.err.printf("%d pairs in depth among %d texts in %.2fs "
+                    + "(%d alignments, random agreement rate %.4f, "
+                    + "minimum score %.2f)%n", found.size(), texts.size(),
+                    seconds, alignments, detector.randomRate(), minScore);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /**
+     * Add each non-blank line of the file NAME to TEXTS as indices in
+     * ALPHA, ignoring whitespace, and its name, NAME:LINE, to NAMES.
+     */
+    private static void readLines(Alphabet alpha, String name,
+                                  List<String> names, List<int[]> texts) {
+        try {
+            List<String> lines = Files.readAllLines(Paths.get(name));
+            for (int i = 0; i < lines.size(); i += 1) {
+                if (!lines.get(i).isBlank()) {
+                    names.add(name + ":" + (i + 1));
+                    texts.add(alpha.toInts(lines.get(i)));
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+    }
+
+    /**
+     * Number of texts in a block of pairs compared by one thread.
+     */
+    private static final int BLOCK = 64;
+
+    /**
+     * Number of bit planes: bits in the largest letter index.
+     */
+    private final int _planes;
+
+    /**
+     * Length of each ciphertext.
+     */
+    private final int[] _lengths;
+
+    /**
+     * Bit-sliced ciphertexts: bit k of word (p * stride + k / 64) of
+     * _bits[T] is bit p of the index of letter k of ciphertext T.
+     */
+    private final long[][] _bits;
+
+    /**
+     * Probability that letters of unrelated ciphertexts agree.
+     */
+    private final double _randomRate;
+}
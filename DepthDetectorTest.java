@@ -0,0 +1,126 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the DepthDetector class.
+ */
+public class DepthDetectorTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    @Test
+    public void testCoincidencesMatchBruteForce() {
+        Random random = new Random(46);
+        for (int size : new int[] {2, 26, 40}) {
+            List<int[]> texts = new ArrayList<>();
+            for (int t = 0; t < 6; t += 1) {
+                texts.add(randomText(random, size, 1 + random.nextInt(300)));
+            }
+            DepthDetector detector = new DepthDetector(size, texts);
+            for (int a = 0; a < texts.size(); a += 1) {
+                for (int b = 0; b < texts.size(); b += 1) {
+                    int[] x = texts.get(a), y = texts.get(b);
+                    for (int shift = 0; shift < x.length; shift += 1) {
+                        int length = Math.min(x.length - shift, y.length);
+                        int expected = 0;
+                        for (int k = 0; k < length; k += 1) {
+                            if (x[k + shift] == y[k]) {
+                                expected += 1;
+                            }
+                        }
+                        assertEquals(msg("depth", "size %d, texts %d %d, "
+                                + "shift %d", size, a, b, shift), expected,
+                                detector.coincidences(a, b, shift, length));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Frequencies, in thousandths, of the letters A-Z in English.
+     */
+    private static final int[] ENGLISH = {
+        82, 15, 28, 43, 127, 22, 20, 61, 70, 2, 8, 40, 24,
+        67, 75, 19, 1, 60, 63, 91, 28, 10, 24, 2, 20, 1
+    };
+
+    /**
+     * Return LENGTH letters drawn from RANDOM with English frequencies.
+     */
+    private static int[] englishLike(Random random, int length) {
+        int total = 0;
+        for (int f : ENGLISH) {
+            total += f;
+        }
+        int[] text = new int[length];
+        for (int k = 0; k < length; k += 1) {
+            int r = random.nextInt(total);
+            int c = 0;
+            while (r >= ENGLISH[c]) {
+                r -= ENGLISH[c];
+                c += 1;
+            }
+            text[k] = c;
+        }
+        return text;
+    }
+
+    @Test
+    public void testFindsDepth() {
+        Machine machine = threeRotorMachine();
+        machine.insertRotors(new String[] {"B", "I", "II", "III"});
+        Random random = new Random(47);
+        List<int[]> texts = new ArrayList<>();
+        /* Unrelated texts: ciphertexts from random starts of one machine
+         * would often share stretches of its key cycle, in depth. */
+        for (int t = 0; t < 20; t += 1) {
+            texts.add(randomText(random, 26, 2500 + random.nextInt(500)));
+        }
+        machine.setRotors("KEY");
+        texts.set(5, convert(machine, englishLike(random, 3000)));
+        machine.setRotors("KEY");
+        for (int k = 0; k < 9; k += 1) {
+            machine.convert(0);
+        }
+        texts.set(14, convert(machine, englishLike(random, 2800)));
+        DepthDetector detector = new DepthDetector(26, texts);
+        double minScore = Math.log10(detector.alignments(1000,
+                Integer.MAX_VALUE)) + 2;
+        List<DepthDetector.Depth> found = detector.detect(1000,
+                Integer.MAX_VALUE, minScore, 2);
+        assertEquals(1, found.size());
+        DepthDetector.Depth depth = found.get(0);
+        assertEquals(5, depth.first());
+        assertEquals(14, depth.second());
+        assertEquals(9, depth.shift());
+        assertEquals(2800, depth.overlap());
+        assertEquals(0, detector.detect(1000, 5,
+                Math.log10(detector.alignments(1000, 5)) + 2, 1).size());
+    }
+
+    /**
+     * Return the indices TEXT converted by MACHINE.
+     */
+    private static int[] convert(Machine machine, int[] text) {
+        int[] result = text.clone();
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = machine.convert(result[k]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,1066 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * Randomized differential testing of the optimized engines against
+ * Machine, the reference for the stepping and conversion semantics.
+ * Each trial generates a random scenario: an alphabet, a catalog of
+ * reflectors, fixed and moving rotors with random wirings and notch
+ * sets, a choice of slots (and so of pawls), settings, ring settings,
+ * a plugboard and a long message.  Every engine converts the message
+ * and is compared, character by character, with Machine.convert.
+ * Trials run in parallel, each from its own seed, so that any one can
+ * be rerun alone.  An engine that disagrees has its scenario shrunk,
+ * one simplification at a time, for as long as it still disagrees, and
+ * the minimal scenario is reported as a configuration file and input
+ * that reproduce it.
+ */
+final class DifferentialVerifier {
+
+    /**
+     * A verifier checking ENGINES, generating messages of at most
+     * MAXLENGTH characters from trials seeded by SEED.
+     */
+    DifferentialVerifier(List<Engine> engines, int maxLength, long seed) {
+        if (maxLength <= 0) {
+            throw error("Error: message length must be positive");
+        }
+        _engines = new ArrayList<>(engines);
+        _maxLength = maxLength;
+        _seed = seed;
+    }
+
+    /**
+     * Run trials FIRST .. FIRST+COUNT-1 using PARALLELISM threads, until
+     * they are done, SECONDS seconds have passed or MAXFAILURES engines
+     * have disagreed, and return the disagreements found, shrunk.
+     */
+    List<Failure> run(long first, long count, double seconds,
+                      int maxFailures, int parallelism) {
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        AtomicLong next = new AtomicLong(first);
+        List<Failure> failures = Collections.synchronizedList(
+                new ArrayList<>());
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, parallelism).parallel()
+                    .forEach(i -> {
+                        long t = next.getAndIncrement();
+                        while (t - first < count
+                               && System.nanoTime() < deadline
+                               && failures.size() < maxFailures) {
+                            failures.addAll(trial(t));
+                            t = next.getAndIncrement();
+                        }
+                    })).join();
+        } finally {
+            pool.shutdown();
+        }
+        return new ArrayList<>(failures);
+    }
+
+    /**
+     * Run trial number T against every engine, returning the shrunk
+     * disagreements.
+     */
+    List<Failure> trial(long t) {
+        Scenario s = scenario(t);
+        List<Failure> result = new ArrayList<>();
+        for (Engine engine : _engines) {
+            String difference = engine.compare(s);
+            _characters.add(s.message.length);
+            if (difference != null) {
+                Scenario shrunk = shrink(engine, s);
+                result.add(new Failure(engine, t, shrunk,
+                        engine.compare(shrunk)));
+            }
+        }
+        _trials.increment();
+        _reference.add(s.message.length);
+        return result;
+    }
+
+    /**
+     * Return the scenario of trial T.
+     */
+    Scenario scenario(long t) {
+        return Scenario.random(new Random(_seed + t * 0x9e3779b97f4a7c15L),
+                _maxLength);
+    }
+
+    /**
+     * Return the number of trials run.
+     */
+    long trials() {
+        return _trials.sum();
+    }
+
+    /**
+     * Return the number of message characters the reference converted.
+     */
+    long referenceCharacters() {
+        return _reference.sum();
+    }
+
+    /**
+     * Return the number of characters compared, over all engines.
+     */
+    long characters() {
+        return _characters.sum();
+    }
+
+    /**
+     * Return a scenario on which ENGINE disagrees with the reference,
+     * found from S, on which it does, by applying simplifications for
+     * as long as one keeps it disagreeing.
+     */
+    static Scenario shrink(Engine engine, Scenario s) {
+        boolean progress = true;
+        for (int round = 0; progress && round < MAX_SHRINKS; round += 1) {
+            progress = false;
+            for (Scenario simpler : s.simplifications()) {
+                if (engine.compare(simpler) != null) {
+                    s = simpler;
+                    progress = true;
+                    break;
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * An engine under test.
+     */
+    interface Engine {
+
+        /**
+         * Return my name.
+         */
+        String name();
+
+        /**
+         * Return a description of the first difference between my
+         * conversion of the message of S and the reference's, or null
+         * if there is none.
+         */
+        String compare(Scenario s);
+    }
+
+    /**
+     * Return the engines to check by default: FastMachine converting
+     * in one call, FastMachine stepping character by character and
+     * then resumed by another from its saved settings, the scalar
+     * BatchDecryptor, the SIMD one if it can be loaded, and
+     * DeltaDecryptor.
+     */
+    static List<Engine> engines() {
+        List<Engine> result = new ArrayList<>();
+        result.add(engine("FastMachine", DifferentialVerifier::fast));
+        result.add(engine("FastMachine split", DifferentialVerifier::split));
+        result.add(engine("BatchDecryptor", s -> batch(s,
+                new BatchDecryptor(s.size(), s.slots.length, LANES))));
+        if (BatchDecryptor.create(2, 2, LANES).getClass()
+                != BatchDecryptor.class) {
+            result.add(engine("BatchDecryptor.create", s -> batch(s,
+                    BatchDecryptor.create(s.size(), s.slots.length, LANES))));
+        }
+        result.add(engine("DeltaDecryptor", DifferentialVerifier::delta));
+        return result;
+    }
+
+    /**
+     * Return an engine named NAME that compares with COMPARE.
+     */
+    static Engine engine(String name, Function<Scenario, String> compare) {
+        return new Engine() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public String compare(Scenario s) {
+                return compare.apply(s);
+            }
+        };
+    }
+
+    /**
+     * Compare FastMachine, converting the message of S in one call.
+     */
+    private static String fast(Scenario s) {
+        int[] out = new int[s.message.length];
+        new FastMachine(s.machine()).convert(s.message, out, 0, out.length);
+        return s.difference(out);
+    }
+
+    /**
+     * Compare FastMachine converting the message of S one character
+     * at a time up to its split point, and a second FastMachine, loaded
+     * with the settings the first reached, converting the rest.
+     */
+    private static String split(Scenario s) {
+        Machine machine = s.machine();
+        FastMachine head = new FastMachine(machine);
+        FastMachine tail = new FastMachine(machine);
+        int[] out = new int[s.message.length];
+        for (int k = 0; k < s.split; k += 1) {
+            out[k] = head.convert(s.message[k]);
+        }
+        int[] settings = new int[s.slots.length];
+        head.saveSettings(settings, 0);
+        tail.loadSettings(settings, 0);
+        tail.convert(s.message, out, s.split, out.length - s.split);
+        String difference = s.difference(out);
+        return difference == null ? null
+                : String.format("split at %d, %s", s.split, difference);
+    }
+
+    /**
+     * Compare BATCH, whose lanes cover the message of S in turn: lane L
+     * starts with the settings the reference reaches after L * M
+     * characters, M being the message length divided among the lanes,
+     * and all lanes convert the first M characters.
+     */
+    private static String batch(Scenario s, BatchDecryptor batch) {
+        int lanes = batch.lanes();
+        int m = (s.message.length + lanes - 1) / lanes;
+        int[] in = Arrays.copyOf(s.message, m);
+        Machine machine = s.machine();
+        FastMachine fast = new FastMachine(machine);
+        for (int i = 0; i < s.slots.length; i += 1) {
+            batch.setRotor(i, fast.rotor(i));
+        }
+        batch.setPlugboard(s.plug());
+        int[] expected = new int[m * lanes];
+        for (int lane = 0; lane < lanes; lane += 1) {
+            for (int i = 0; i < s.slots.length; i += 1) {
+                batch.setSetting(lane, i, machine.slot(i).setting());
+                batch.setRingSetting(lane, i, machine.slot(i).ringSetting());
+            }
+            for (int k = 0; k < m; k += 1) {
+                expected[k * lanes + lane] = machine.convert(in[k]);
+            }
+        }
+        int[] out = new int[m * lanes];
+        batch.decrypt(in, out);
+        for (int k = 0; k < out.length; k += 1) {
+            if (out[k] != expected[k]) {
+                return String.format("lane %d, position %d: expected %c, "
+                        + "got %c", k % lanes, k / lanes,
+                        s.alphabet.charAt(expected[k]),
+                        s.alphabet.charAt(out[k]));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compare DeltaDecryptor, built with no plugboard from FastMachine's
+     * scramblers for the message of S and a random bigram model, over a
+     * random walk of plugboards: first to the plugboard of S, then
+     * through single pairs made or broken and whole new plugboards,
+     * each update kept or reverted at random.  Its decryption, score and
+     * index of coincidence must match the reference's conversion after
+     * the first update, and one recomputed from scratch for the
+     * plugboard it should have after every later update and revert.
+     * Small alphabets and messages take the rescanning path and large
+     * ones the incremental one, whose later updates build on the kept
+     * decryption, so a wrong one shows up in their scores.  The model's
+     * entries are multiples of 1/64, which sum exactly, so scores must
+     * match exactly.
+     */
+    private static String delta(Scenario s) {
+        FastMachine fast = new FastMachine(s.machine());
+        int n = s.size();
+        fast.setPlugboard(PermutationArrays.identity(n));
+        Random random = new Random(Arrays.hashCode(s.message)
+                + s.alphabet.hashCode());
+        float[] table = new float[n * n];
+        for (int i = 0; i < table.length; i += 1) {
+            table[i] = -random.nextInt(640) / 64f;
+        }
+        NGramModel model = new NGramModel(new Alphabet(s.alphabet), 2,
+                table);
+        int[] scramblers = DeltaDecryptor.scramblers(fast, s.message.length);
+        DeltaDecryptor delta =
+            new DeltaDecryptor(scramblers, s.message, n, model);
+        DeltaDecryptor fresh =
+            new DeltaDecryptor(scramblers, s.message, n, model);
+        int[] plug = s.plug();
+        delta.update(plug);
+        String difference = deltaDifference(s, delta, model);
+        if (difference != null) {
+            return "update 0, " + difference;
+        }
+        for (int step = 1; step < DELTA_STEPS; step += 1) {
+            int[] next = random.nextInt(4) == 0 ? randomPlug(random, n)
+                : togglePair(random, plug);
+            delta.update(next);
+            fresh.setPlugboard(next);
+            difference = deltaDifference(s, delta, fresh);
+            if (difference != null) {
+                return String.format("update %d, %s", step, difference);
+            }
+            if (random.nextBoolean()) {
+                delta.revert();
+                fresh.setPlugboard(plug);
+                difference = deltaDifference(s, delta, fresh);
+                if (difference != null) {
+                    return String.format("revert of update %d, %s", step,
+                            difference);
+                }
+            } else {
+                plug = next;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return a description of the first difference between DELTA and
+     * the reference's conversion of the message of S, scored by MODEL,
+     * or null if there is none.
+     */
+    private static String deltaDifference(Scenario s, DeltaDecryptor delta,
+                                          NGramModel model) {
+        int[] expected = s.reference();
+        int[] out = new int[expected.length];
+        int[] counts = new int[s.size()];
+        for (int k = 0; k < out.length; k += 1) {
+            out[k] = delta.decrypted(k);
+            counts[expected[k]] += 1;
+        }
+        String difference = s.difference(out);
+        return difference != null ? difference
+            : statsDifference(model.score(expected, 0, expected.length),
+                    delta.score(),
+                    KeySearch.indexOfCoincidence(counts, expected.length),
+                    delta.indexOfCoincidence());
+    }
+
+    /**
+     * Return a description of the first difference between the
+     * decryption, score and index of coincidence of DELTA and of FRESH,
+     * over the message of S, or null if there is none.
+     */
+    private static String deltaDifference(Scenario s, DeltaDecryptor delta,
+                                          DeltaDecryptor fresh) {
+        for (int k = 0; k < s.message.length; k += 1) {
+            if (delta.decrypted(k) != fresh.decrypted(k)) {
+                return String.format("position %d: expected %c, got %c", k,
+                        s.alphabet.charAt(fresh.decrypted(k)),
+                        s.alphabet.charAt(delta.decrypted(k)));
+            }
+        }
+        return statsDifference(fresh.score(), delta.score(),
+                fresh.indexOfCoincidence(), delta.indexOfCoincidence());
+    }
+
+    /**
+     * Return a description of the difference between the expected
+     * SCORE and GOTSCORE, or else between the expected index of
+     * coincidence IOC and GOTIOC, or null if both agree.
+     */
+    private static String statsDifference(double score, double gotScore,
+                                          double ioc, double gotIoc) {
+        if (gotScore != score) {
+            return String.format("score: expected %s, got %s", score,
+                    gotScore);
+        } else if (gotIoc != ioc) {
+            return String.format("index of coincidence: expected %s, "
+                    + "got %s", ioc, gotIoc);
+        }
+        return null;
+    }
+
+    /**
+     * Return a random plugboard over SIZE characters, as the partner of
+     * each index, using RANDOM.
+     */
+    private static int[] randomPlug(Random random, int size) {
+        int[] plug = PermutationArrays.identity(size);
+        for (int i = random.nextInt(size / 2 + 1); i > 0; i -= 1) {
+            int a = random.nextInt(size);
+            int b = random.nextInt(size);
+            if (plug[a] == a && plug[b] == b) {
+                plug[a] = b;
+                plug[b] = a;
+            }
+        }
+        return plug;
+    }
+
+    /**
+     * Return plugboard PLUG with two random characters unplugged if they
+     * are partners, and else paired after unplugging their partners,
+     * using RANDOM.
+     */
+    private static int[] togglePair(Random random, int[] plug) {
+        int[] result = plug.clone();
+        int a = random.nextInt(plug.length);
+        int b = random.nextInt(plug.length);
+        int pa = result[a];
+        int pb = result[b];
+        result[pa] = pa;
+        result[pb] = pb;
+        if (pa != b) {
+            result[a] = b;
+            result[b] = a;
+        }
+        return result;
+    }
+
+    /**
+     * A machine and message to convert, described as plainly as a
+     * configuration file and input, so that it can be simplified and
+     * printed.  Immutable once made.
+     */
+    static final class Scenario {
+
+        /**
+         * A scenario over the characters of ALPHABET, with rotors
+         * described by ROTORS, each {name, type, cycles} as in a
+         * configuration file, the rotors named SLOTS inserted with
+         * settings SETTING and ring settings RING (indexed by slot),
+         * plugboard pairs PLUG, message MESSAGE and split point SPLIT.
+         */
+        Scenario(String alphabet, List<String[]> rotors, String[] slots,
+                 int[] setting, int[] ring, List<String> plug,
+                 int[] message, int split) {
+            this.alphabet = alphabet;
+            this.rotors = rotors;
+            this.slots = slots;
+            this.setting = setting;
+            this.ring = ring;
+            this.plug = plug;
+            this.message = message;
+            this.split = split;
+        }
+
+        /**
+         * Return a random scenario from RANDOM with a message of at most
+         * MAXLENGTH characters.
+         */
+        static Scenario random(Random random, int maxLength) {
+            int n = random.nextInt(3) > 0 ? 26 : 2 + random.nextInt(61);
+            List<Character> pool = new ArrayList<>();
+            for (char c : CHARACTERS.toCharArray()) {
+                pool.add(c);
+            }
+            Collections.shuffle(pool, random);
+            StringBuilder alphabet = new StringBuilder();
+            for (int i = 0; i < n; i += 1) {
+                alphabet.append(pool.get(i));
+            }
+            String alpha = alphabet.toString();
+            List<String[]> rotors = new ArrayList<>();
+            int reflectors = 1 + random.nextInt(2);
+            int fixed = random.nextInt(3);
+            int moving = 1 + random.nextInt(5);
+            for (int i = 0; i < reflectors; i += 1) {
+                rotors.add(new String[] {"R" + i, "R",
+                    cycles(random, alpha, true)});
+            }
+            for (int i = 0; i < fixed; i += 1) {
+                rotors.add(new String[] {"F" + i, "N",
+                    cycles(random, alpha, false)});
+            }
+            for (int i = 0; i < moving; i += 1) {
+                rotors.add(new String[] {"M" + i, "M" + notches(random, alpha),
+                    cycles(random, alpha, false)});
+            }
+            int useFixed = random.nextInt(fixed + 1);
+            int useMoving = 1 + random.nextInt(Math.min(moving, 4));
+            String[] slots = new String[1 + useFixed + useMoving];
+            slots[0] = "R" + random.nextInt(reflectors);
+            pick(random, slots, 1, useFixed, "F", fixed);
+            pick(random, slots, 1 + useFixed, useMoving, "M", moving);
+            int[] setting = new int[slots.length];
+            int[] ring = new int[slots.length];
+            for (int i = 1; i < slots.length; i += 1) {
+                setting[i] = random.nextInt(n);
+                ring[i] = random.nextInt(4) == 0 ? 0 : random.nextInt(n);
+            }
+            List<Character> letters = new ArrayList<>(
+                    pool.subList(0, n));
+            Collections.shuffle(letters, random);
+            List<String> plug = new ArrayList<>();
+            int pairs = random.nextInt(n / 2 + 1);
+            for (int i = 0; i < pairs; i += 1) {
+                plug.add("" + letters.get(2 * i) + letters.get(2 * i + 1));
+            }
+            int[] message = new int[1 + random.nextInt(maxLength)];
+            for (int k = 0; k < message.length; k += 1) {
+                message[k] = random.nextInt(n);
+            }
+            return new Scenario(alpha, rotors, slots, setting, ring, plug,
+                    message, random.nextInt(message.length + 1));
+        }
+
+        /**
+         * Return the cycles of a random permutation of ALPHA from RANDOM:
+         * a derangement of pairs (and one triple, if ALPHA has an odd
+         * number of characters) if REFLECTING.
+         */
+        private static String cycles(Random random, String alpha,
+                                     boolean reflecting) {
+            List<Character> chars = new ArrayList<>();
+            for (char c : alpha.toCharArray()) {
+                chars.add(c);
+            }
+            Collections.shuffle(chars, random);
+            StringBuilder result = new StringBuilder();
+            int i = 0;
+            while (i < chars.size()) {
+                int len = !reflecting ? 1 + random.nextInt(chars.size() - i)
+                        : chars.size() - i == 3 ? 3 : 2;
+                result.append('(');
+                for (int j = i; j < i + len; j += 1) {
+                    result.append(chars.get(j));
+                }
+                result.append(')');
+                i += len;
+            }
+            return result.toString();
+        }
+
+        /**
+         * Return random notches over ALPHA from RANDOM: sometimes none,
+         * sometimes every position, usually one to three.
+         */
+        private static String notches(Random random, String alpha) {
+            switch (random.nextInt(10)) {
+            case 0:
+                return "";
+            case 1:
+                return alpha;
+            default:
+                StringBuilder result = new StringBuilder();
+                for (int i = 1 + random.nextInt(3); i > 0; i -= 1) {
+                    char c = alpha.charAt(random.nextInt(alpha.length()));
+                    if (result.indexOf(Character.toString(c)) < 0) {
+                        result.append(c);
+                    }
+                }
+                return result.toString();
+            }
+        }
+
+        /**
+         * Fill SLOTS[AT .. AT+COUNT-1] with distinct names chosen by
+         * RANDOM from PREFIX0 .. PREFIX(AVAILABLE-1).
+         */
+        private static void pick(Random random, String[] slots, int at,
+                                 int count, String prefix, int available) {
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < available; i += 1) {
+                order.add(i);
+            }
+            Collections.shuffle(order, random);
+            for (int i = 0; i < count; i += 1) {
+                slots[at + i] = prefix + order.get(i);
+            }
+        }
+
+        /**
+         * Return the number of characters in my alphabet.
+         */
+        int size() {
+            return alphabet.length();
+        }
+
+        /**
+         * Return my machine, set up and ready to convert my message.
+         */
+        Machine machine() {
+            Alphabet alpha = new Alphabet(alphabet);
+            List<Rotor> all = new ArrayList<>();
+            for (String[] r : rotors) {
+                Permutation perm = new Permutation(r[2], alpha);
+                switch (r[1].charAt(0)) {
+                case 'R':
+                    all.add(new Reflector(r[0], perm));
+                    break;
+                case 'N':
+                    all.add(new FixedRotor(r[0], perm));
+                    break;
+                default:
+                    all.add(new MovingRotor(r[0], perm, r[1].substring(1)));
+                    break;
+                }
+            }
+            Machine machine = new Machine(alpha, slots.length, pawls(), all);
+            machine.insertRotors(slots);
+            machine.setRotors(chars(setting));
+            machine.ringSetRotors(chars(ring));
+            machine.setPlugboard(new Permutation(plugCycles(), alpha));
+            return machine;
+        }
+
+        /**
+         * Return the number of moving rotors in my slots.
+         */
+        int pawls() {
+            int result = 0;
+            for (String name : slots) {
+                if (name.startsWith("M")) {
+                    result += 1;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Return the characters at the positions POSNS[1 ..].
+         */
+        private String chars(int[] posns) {
+            StringBuilder result = new StringBuilder();
+            for (int i = 1; i < posns.length; i += 1) {
+                result.append(alphabet.charAt(posns[i]));
+            }
+            return result.toString();
+        }
+
+        /**
+         * Return my plugboard as cycles.
+         */
+        private String plugCycles() {
+            StringBuilder result = new StringBuilder();
+            for (String pair : plug) {
+                result.append('(').append(pair).append(')');
+            }
+            return result.toString();
+        }
+
+        /**
+         * Return my plugboard as the partner of each index.
+         */
+        int[] plug() {
+            int[] result = new int[size()];
+            for (int i = 0; i < result.length; i += 1) {
+                result[i] = i;
+            }
+            for (String pair : plug) {
+                int a = alphabet.indexOf(pair.charAt(0));
+                int b = alphabet.indexOf(pair.charAt(1));
+                result[a] = b;
+                result[b] = a;
+            }
+            return result;
+        }
+
+        /**
+         * Return the reference conversion of my message.
+         */
+        int[] reference() {
+            if (_reference == null) {
+                Machine machine = machine();
+                int[] result = new int[message.length];
+                for (int k = 0; k < result.length; k += 1) {
+                    result[k] = machine.convert(message[k]);
+                }
+                _reference = result;
+            }
+            return _reference;
+        }
+
+        /**
+         * Return a description of the first difference between OUT and
+         * the reference conversion of my message, or null if none.
+         */
+        String difference(int[] out) {
+            int[] expected = reference();
+            for (int k = 0; k < expected.length; k += 1) {
+                if (out[k] != expected[k]) {
+                    return String.format("position %d: expected %c, got %c",
+                            k, alphabet.charAt(expected[k]),
+                            alphabet.charAt(out[k]));
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Return scenarios simpler than me, roughly the biggest
+         * simplifications first: a shorter message, with characters cut
+         * from its end or from its start (starting with the settings
+         * the reference reaches there); a message of one repeated
+         * character; fewer plugboard pairs; zero ring settings and
+         * settings; no unused rotors; fewer slots; fewer notches; a
+         * split at either end.
+         */
+        List<Scenario> simplifications() {
+            List<Scenario> result = new ArrayList<>();
+            int len = message.length;
+            for (int cut : new int[] {len / 2, len / 4, len / 16, 1}) {
+                if (cut > 0 && cut < len) {
+                    result.add(withMessage(Arrays.copyOf(message, len - cut),
+                            Math.min(split, len - cut)));
+                    result.add(startingAt(cut));
+                }
+            }
+            if (Arrays.stream(message).anyMatch(c -> c != 0)) {
+                result.add(withMessage(new int[len], split));
+            }
+            for (int i = 0; i < plug.size(); i += 1) {
+                List<String> fewer = new ArrayList<>(plug);
+                fewer.remove(i);
+                result.add(new Scenario(alphabet, rotors, slots, setting,
+                        ring, fewer, message, split));
+            }
+            for (int i = 1; i < slots.length; i += 1) {
+                if (ring[i] != 0) {
+                    int[] zeroed = ring.clone();
+                    zeroed[i] = 0;
+                    result.add(new Scenario(alphabet, rotors, slots, setting,
+                            zeroed, plug, message, split));
+                }
+                if (setting[i] != 0) {
+                    int[] zeroed = setting.clone();
+                    zeroed[i] = 0;
+                    result.add(new Scenario(alphabet, rotors, slots, zeroed,
+                            ring, plug, message, split));
+                }
+            }
+            List<String> used = Arrays.asList(slots);
+            List<String[]> usedRotors = new ArrayList<>();
+            for (String[] r : rotors) {
+                if (used.contains(r[0])) {
+                    usedRotors.add(r);
+                }
+            }
+            if (usedRotors.size() < rotors.size()) {
+                result.add(new Scenario(alphabet, usedRotors, slots, setting,
+                        ring, plug, message, split));
+            }
+            for (int i = 1; i < slots.length; i += 1) {
+                Scenario fewer = withoutSlot(i);
+                if (fewer != null) {
+                    result.add(fewer);
+                }
+            }
+            for (int r = 0; r < rotors.size(); r += 1) {
+                String type = rotors.get(r)[1];
+                for (int j = 1; j < type.length(); j += 1) {
+                    List<String[]> fewer = new ArrayList<>(rotors);
+                    fewer.set(r, new String[] {rotors.get(r)[0],
+                        type.substring(0, j) + type.substring(j + 1),
+                        rotors.get(r)[2]});
+                    result.add(new Scenario(alphabet, fewer, slots, setting,
+                            ring, plug, message, split));
+                }
+            }
+            if (split != 0) {
+                result.add(withMessage(message, 0));
+            }
+            if (split != len) {
+                result.add(withMessage(message, len));
+            }
+            return result;
+        }
+
+        /**
+         * Return me with message MSG and split point SPLIT.
+         */
+        private Scenario withMessage(int[] msg, int splitAt) {
+            return new Scenario(alphabet, rotors, slots, setting, ring,
+                    plug, msg, splitAt);
+        }
+
+        /**
+         * Return me without the first CUT characters of my message,
+         * starting with the settings the reference reaches after them.
+         */
+        private Scenario startingAt(int cut) {
+            Machine machine = machine();
+            for (int k = 0; k < cut; k += 1) {
+                machine.rotate();
+            }
+            int[] reached = new int[slots.length];
+            for (int i = 1; i < slots.length; i += 1) {
+                reached[i] = machine.slot(i).setting();
+            }
+            return new Scenario(alphabet, rotors, slots, reached, ring, plug,
+                    Arrays.copyOfRange(message, cut, message.length),
+                    Math.max(0, split - cut));
+        }
+
+        /**
+         * Return me with the rotor in slot I removed, or null if the
+         * slots left would not make a machine.
+         */
+        private Scenario withoutSlot(int i) {
+            int last = i == slots.length - 1 ? i - 1 : slots.length - 1;
+            if (last < 1 || !slots[last].startsWith("M")) {
+                return null;
+            }
+            String[] fewer = new String[slots.length - 1];
+            int[] fewerSetting = new int[fewer.length];
+            int[] fewerRing = new int[fewer.length];
+            for (int j = 0, k = 0; j < slots.length; j += 1) {
+                if (j != i) {
+                    fewer[k] = slots[j];
+                    fewerSetting[k] = setting[j];
+                    fewerRing[k] = ring[j];
+                    k += 1;
+                }
+            }
+            return new Scenario(alphabet, rotors, fewer, fewerSetting,
+                    fewerRing, plug, message, split);
+        }
+
+        /**
+         * Return a configuration file describing my rotors.
+         */
+        String config() {
+            StringBuilder result = new StringBuilder(alphabet)
+                .append(String.format("%n%d %d%n", slots.length, pawls()));
+            for (String[] r : rotors) {
+                result.append(String.format(" %s %s %s%n", r[0], r[1], r[2]));
+            }
+            return result.toString();
+        }
+
+        /**
+         * Return an input file that sets up my machine and converts my
+         * message.
+         */
+        String input() {
+            StringBuilder msg = new StringBuilder();
+            for (int c : message) {
+                msg.append(alphabet.charAt(c));
+            }
+            return String.format("* %s %s %s %s%n%s%n",
+                    String.join(" ", slots), chars(setting), chars(ring),
+                    plugCycles(), msg);
+        }
+
+        /**
+         * My alphabet, as its characters.
+         */
+        final String alphabet;
+
+        /**
+         * My rotors, each {name, type, cycles}.
+         */
+        final List<String[]> rotors;
+
+        /**
+         * Names of the rotors in my slots, reflector first.
+         */
+        final String[] slots;
+
+        /**
+         * Setting of each slot.
+         */
+        final int[] setting;
+
+        /**
+         * Ring setting of each slot.
+         */
+        final int[] ring;
+
+        /**
+         * Plugboard pairs, each two characters.
+         */
+        final List<String> plug;
+
+        /**
+         * Message to convert, as indices.
+         */
+        final int[] message;
+
+        /**
+         * Where engines that hand over part way through do so.
+         */
+        final int split;
+
+        /**
+         * Reference conversion of my message, once computed.
+         */
+        private int[] _reference;
+    }
+
+    /**
+     * A disagreement of an engine with the reference.
+     */
+    static final class Failure {
+
+        /**
+         * The disagreement of ENGINE in trial TRIAL, shrunk to SCENARIO,
+         * where its first difference is DIFFERENCE.
+         */
+        Failure(Engine engine, long trial, Scenario scenario,
+                String difference) {
+            _engine = engine;
+            _trial = trial;
+            _scenario = scenario;
+            _difference = difference;
+        }
+
+        /**
+         * Return the engine that disagreed.
+         */
+        Engine engine() {
+            return _engine;
+        }
+
+        /**
+         * Return the trial in which it did.
+         */
+        long trial() {
+            return _trial;
+        }
+
+        /**
+         * Return the shrunk scenario on which it does.
+         */
+        Scenario scenario() {
+            return _scenario;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s disagrees in trial %d, %s%n"
+                    + "config:%n%sinput:%n%s", _engine.name(), _trial,
+                    _difference, _scenario.config(), _scenario.input());
+        }
+
+        /**
+         * Engine that disagreed.
+         */
+        private final Engine _engine;
+
+        /**
+         * Trial in which it did.
+         */
+        private final long _trial;
+
+        /**
+         * Shrunk scenario.
+         */
+        private final Scenario _scenario;
+
+        /**
+         * First difference on the shrunk scenario.
+         */
+        private final String _difference;
+    }
+
+    /**
+     * Check the engines against the reference, as specified by ARGS:
+     *   [--seconds=S] [--trials=N] [--first=T] [--length=L] [--seed=X]
+     *   [--failures=F] [--threads=T]
+     * Runs trials from number --first (default 0) with seed --seed
+     * (default random) until --trials trials (default unlimited) have
+     * run, --seconds seconds (default 60) have passed or --failures
+     * engines (default 1) have disagreed, on messages of up to --length
+     * characters (default 100000), using --threads threads (default all
+     * processors).  Prints each disagreement, shrunk, and exits with
+     * status 1 if there was any.
+     */
+    public static void main(String... args) {
+        try {
+            Options options = new Options(args);
+            long seed = Long.parseLong(options.value("seed",
+                    Long.toString(new Random().nextLong())));
+            DifferentialVerifier verifier = new DifferentialVerifier(
+                    engines(), options.intValue("length", 100000), seed);
+            int trials = options.intValue("trials", Integer.MAX_VALUE);
+            long start = System.nanoTime();
+            List<Failure> failures = verifier.run(
+                    options.intValue("first", 0),
+                    trials == Integer.MAX_VALUE ? Long.MAX_VALUE : trials,
+                    options.doubleValue("seconds", 60),
+                    options.intValue("failures", 1),
+                    options.intValue("threads",
+                            Runtime.getRuntime().availableProcessors()));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            for (Failure f : failures) {
+                System.out.println(f);
+            }
+            List<String> names = new ArrayList<>();
+            for (Engine e : verifier._engines) {
+                names.add(e.name());
+            }
+            System.err.printf("seed %d: %d trials, %d characters checked "
+                    + "(%.1f M/s) in %.1fs against %s: %d disagreements%n",
+                    seed, verifier.trials(), verifier.characters(),
+                    verifier.characters() / seconds / 1e6, seconds,
+                    String.join(", ", names), failures.size());
+            if (failures.isEmpty()) {
+                return;
+            }
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad seed%n");
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /**
+     * Characters from which alphabets are drawn.
+     */
+    private static final String CHARACTERS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    /**
+     * Number of keys the batch engines decrypt under at once.
+     */
+    private static final int LANES = 16;
+
+    /**
+     * Number of plugboard updates DeltaDecryptor is checked over.
+     */
+    private static final int DELTA_STEPS = 8;
+
+    /**
+     * Most simplifications applied when shrinking.
+     */
+    private static final int MAX_SHRINKS = 10000;
+
+    /**
+     * Engines checked.
+     */
+    private final List<Engine> _engines;
+
+    /**
+     * Longest message generated.
+     */
+    private final int _maxLength;
+
+    /**
+     * Seed of trial 0.
+     */
+    private final long _seed;
+
+    /**
+     * Number of trials run.
+     */
+    private final LongAdder _trials = new LongAdder();
+
+    /**
+     * Number of characters converted by the reference.
+     */
+    private final LongAdder _reference = new LongAdder();
+
+    /**
+     * Number of characters compared, over all engines.
+     */
+    private final LongAdder _characters = new LongAdder();
+}
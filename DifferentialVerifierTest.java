@@ -0,0 +1,63 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the DifferentialVerifier class.
+ */
+public class DifferentialVerifierTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    @Test
+    public void testEnginesAgree() {
+        DifferentialVerifier verifier = new DifferentialVerifier(
+                DifferentialVerifier.engines(), 2000, 48);
+        List<DifferentialVerifier.Failure> failures =
+                verifier.run(0, 200, 60, 1, 2);
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(200, verifier.trials());
+    }
+
+    /**
+     * An engine that forgets the plugboard.
+     */
+    private static final DifferentialVerifier.Engine UNPLUGGED =
+        DifferentialVerifier.engine("unplugged", s -> {
+            FastMachine fast = new FastMachine(s.machine());
+            int[] identity = new int[s.size()];
+            for (int i = 0; i < identity.length; i += 1) {
+                identity[i] = i;
+            }
+            fast.setPlugboard(identity);
+            int[] out = new int[s.message.length];
+            fast.convert(s.message, out, 0, out.length);
+            return s.difference(out);
+        });
+
+    @Test
+    public void testShrinksDisagreement() {
+        DifferentialVerifier verifier = new DifferentialVerifier(
+                List.of(UNPLUGGED), 5000, 48);
+        List<DifferentialVerifier.Failure> failures =
+                verifier.run(0, 20, 60, 1, 1);
+        assertEquals(1, failures.size());
+        DifferentialVerifier.Scenario s = failures.get(0).scenario();
+        assertNotNull(UNPLUGGED.compare(s));
+        assertEquals(1, s.message.length);
+        assertEquals(1, s.plug.size());
+        assertEquals(s.slots.length, s.rotors.size());
+        assertTrue(failures.get(0).toString().contains("(" + s.plug.get(0)
+                + ")"));
+    }
+}
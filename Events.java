@@ -0,0 +1,113 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events marking where an Enigma workload spends
+ * its time.  Each event is begun before and committed after the work it
+ * times; when no recording enables it, shouldCommit() is false and the
+ * event costs next to nothing.
+ */
+final class Events {
+
+    /**
+     * Not instantiable.
+     */
+    private Events() {
+    }
+
+    /**
+     * Reading a configuration file.
+     */
+    @Name("enigma.ConfigLoad")
+    @Label("Configuration Load")
+    @Category("Enigma")
+    static class ConfigLoad extends Event {
+
+        /**
+         * Number of characters in the alphabet.
+         */
+        @Label("Alphabet Size")
+        int alphabetSize;
+
+        /**
+         * Number of rotors in the catalog.
+         */
+        @Label("Rotors")
+        int rotors;
+
+        /**
+         * Number of rotor slots.
+         */
+        @Label("Slots")
+        int slots;
+    }
+
+    /**
+     * Handling one setup line.
+     */
+    @Name("enigma.Setup")
+    @Label("Setup Line")
+    @Category("Enigma")
+    static class Setup extends Event {
+
+        /**
+         * Names of the inserted rotors, reflector first.
+         */
+        @Label("Rotor Order")
+        String rotorOrder;
+
+        /**
+         * The setup line.
+         */
+        @Label("Line")
+        String line;
+    }
+
+    /**
+     * Converting one batch of characters.
+     */
+    @Name("enigma.ConvertBatch")
+    @Label("Conversion Batch")
+    @Category("Enigma")
+    @Description("Conversion of one message or chunk")
+    static class ConvertBatch extends Event {
+
+        /**
+         * Names of the inserted rotors, reflector first.
+         */
+        @Label("Rotor Order")
+        String rotorOrder;
+
+        /**
+         * Number of characters converted.
+         */
+        @Label("Chars Processed")
+        int chars;
+    }
+
+    /**
+     * Constructing a permutation from cycle notation.
+     */
+    @Name("enigma.PermutationBuild")
+    @Label("Permutation Construction")
+    @Category("Enigma")
+    static class PermutationBuild extends Event {
+
+        /**
+         * Number of characters in the alphabet.
+         */
+        @Label("Alphabet Size")
+        int alphabetSize;
+
+        /**
+         * Length of the cycle notation, without whitespace.
+         */
+        @Label("Cycles Length")
+        int cyclesLength;
+    }
+}
@@ -0,0 +1,359 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * An Enigma machine working on primitive tables, with the same stepping
+ * and conversion semantics as Machine.  Unlike Machine, all of its state
+ * lives in the instance rather than in shared Rotor objects, so each
+ * thread can own one and reuse it for many keys.  Conversion allocates
+ * nothing.
+ * Each slot keeps the start of its rotor's wiring at its current
+ * offset, updated only when that slot's setting or ring setting
+ * changes.  The reflector and the rotors that seldom move (the fixed
+ * rotors and the leftmost moving one) are composed into one table, the
+ * left stack, which is rebuilt only after one of those rotors changes,
+ * so that a conversion passes through the others alone.
+ */
+final class FastMachine {
+
+    /**
+     * A machine over an alphabet of SIZE characters with NUMROTORS
+     * slots, initially empty, with no plugboard.
+     */
+    FastMachine(int size, int numRotors) {
+        _size = size;
+        _slots = new CompiledRotor[numRotors];
+        _setting = new int[numRotors];
+        _ring = new int[numRotors];
+        _offset = new int[numRotors];
+        _plug = PermutationArrays.identity(size);
+        _plugInverse = PermutationArrays.identity(size);
+        _left = new int[size];
+    }
+
+    /**
+     * A machine with the rotors, settings and plugboard currently in
+     * MACHINE.
+     */
+    FastMachine(Machine machine) {
+        this(machine.alphabet().size(), machine.numRotors());
+        for (int i = 0; i < _slots.length; i += 1) {
+            Rotor r = machine.slot(i);
+            if (r == null) {
+                throw error("Error: no rotors inserted");
+            }
+            setRotor(i, new CompiledRotor(r));
+            _setting[i] = r.setting();
+            _ring[i] = r.ringSetting();
+            updateOffset(i);
+        }
+        setPlugboard(machine.plugboard().toArray());
+    }
+
+    /**
+     * Return the number of characters in my alphabet.
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Return the number of rotor slots I have.
+     */
+    int numRotors() {
+        return _slots.length;
+    }
+
+    /**
+     * Put ROTOR in SLOT, leaving its setting and ring setting unchanged.
+     */
+    void setRotor(int slot, CompiledRotor rotor) {
+        _slots[slot] = rotor;
+        int first = _slots.length;
+        while (first > 1 && _slots[first - 1] != null
+                && _slots[first - 1].rotates()) {
+            first -= 1;
+        }
+        _firstMoving = first;
+        _split = Math.max(1, Math.min(first + 1, _slots.length - 1));
+        _leftValid = false;
+    }
+
+    /**
+     * Return the rotor in SLOT.
+     */
+    CompiledRotor rotor(int slot) {
+        return _slots[slot];
+    }
+
+    /**
+     * Set the setting of SLOT to POSN.
+     */
+    void setSetting(int slot, int posn) {
+        if (slot < _split && _setting[slot] != posn) {
+            _leftValid = false;
+        }
+        _setting[slot] = posn;
+        updateOffset(slot);
+    }
+
+    /**
+     * Return the setting of SLOT.
+     */
+    int setting(int slot) {
+        return _setting[slot];
+    }
+
+    /**
+     * Set the ring setting of SLOT to POSN.
+     */
+    void setRingSetting(int slot, int posn) {
+        if (slot < _split && _ring[slot] != posn) {
+            _leftValid = false;
+        }
+        _ring[slot] = posn;
+        updateOffset(slot);
+    }
+
+    /**
+     * Bring the offset of SLOT up to date with its settings.
+     */
+    private void updateOffset(int slot) {
+        _offset[slot] = wrap(_setting[slot] - _ring[slot]) * _size;
+    }
+
+    /**
+     * Return the ring setting of SLOT.
+     */
+    int ringSetting(int slot) {
+        return _ring[slot];
+    }
+
+    /**
+     * Copy the settings of all slots into INTO, starting at AT.
+     */
+    void saveSettings(int[] into, int at) {
+        System.arraycopy(_setting, 0, into, at, _setting.length);
+    }
+
+    /**
+     * Set the settings of all slots from FROM, starting at AT, as saved
+     * by saveSettings.
+     */
+    void loadSettings(int[] from, int at) {
+        for (int i = 0; i < _split; i += 1) {
+            if (_setting[i] != from[at + i]) {
+                _leftValid = false;
+            }
+        }
+        System.arraycopy(from, at, _setting, 0, _setting.length);
+        for (int i = 0; i < _setting.length; i += 1) {
+            updateOffset(i);
+        }
+    }
+
+    /**
+     * Set the plugboard to PLUG, which maps each index to its partner.
+     */
+    void setPlugboard(int[] plug) {
+        System.arraycopy(plug, 0, _plug, 0, _size);
+        PermutationArrays.inverse(_plug, _plugInverse);
+    }
+
+    /**
+     * Set my settings and ring settings from the position key KEY
+     * according to CODEC.
+     */
+    void restorePositions(MachineState codec, long key) {
+        for (int i = 1; i < _slots.length; i += 1) {
+            setSetting(i, codec.setting(key, i));
+            setRingSetting(i, codec.ringSetting(key, i));
+        }
+    }
+
+    /**
+     * Return my settings and ring settings as a position key according
+     * to CODEC.
+     */
+    long positionKey(MachineState codec) {
+        long key = 0;
+        for (int i = 1; i < _slots.length; i += 1) {
+            key = codec.withSetting(key, i, _setting[i]);
+            key = codec.withRingSetting(key, i, _ring[i]);
+        }
+        return key;
+    }
+
+    /**
+     * Advance the rotors once, exactly as Machine.rotate does.
+     */
+    void step() {
+        int index = _slots.length - 1;
+        boolean shouldAdvThis = true;
+        boolean shouldDbstepPrev = false;
+        while (index >= _firstMoving) {
+            boolean atNotch = _slots[index].notch()[
+                    wrap(_setting[index] + _ring[index])];
+            if (shouldAdvThis) {
+                advance(index);
+                if (shouldDbstepPrev) {
+                    advance(index + 1);
+                }
+                shouldDbstepPrev = false;
+            } else {
+                shouldDbstepPrev = true;
+            }
+            index -= 1;
+            shouldAdvThis = atNotch;
+        }
+    }
+
+    /**
+     * Advance the rotor in SLOT by one position.
+     */
+    private void advance(int slot) {
+        int posn = _setting[slot] + 1;
+        _setting[slot] = posn == _size ? 0 : posn;
+        int offset = _offset[slot] + _size;
+        _offset[slot] = offset == _size * _size ? 0 : offset;
+        if (slot < _split) {
+            _leftValid = false;
+        }
+    }
+
+    /**
+     * Return the result of converting index C after first advancing
+     * the rotors, as for Machine.convert.
+     */
+    int convert(int c) {
+        step();
+        return scramble(c);
+    }
+
+    /**
+     * Convert the LEN indices of IN starting at FROM into OUT starting
+     * at FROM, advancing the rotors before each.
+     */
+    void convert(int[] in, int[] out, int from, int len) {
+        for (int k = from; k < from + len; k += 1) {
+            step();
+            out[k] = scramble(in[k]);
+        }
+    }
+
+    /**
+     * Return the result of passing index C through the plugboard and
+     * rotors at their current settings, without advancing.
+     */
+    int scramble(int c) {
+        return _plugInverse[scrambleUnplugged(_plug[c])];
+    }
+
+    /**
+     * Return the result of passing index C through the rotors at their
+     * current settings, bypassing the plugboard.
+     */
+    int scrambleUnplugged(int c) {
+        if (!_leftValid) {
+            buildLeft();
+        }
+        int last = _slots.length - 1;
+        for (int i = last; i >= _split; i -= 1) {
+            c = _slots[i].shiftedForward()[_offset[i] + c];
+        }
+        c = _left[c];
+        for (int i = _split; i <= last; i += 1) {
+            c = _slots[i].shiftedBackward()[_offset[i] + c];
+        }
+        return c;
+    }
+
+    /**
+     * Compose the rotors in the slots before _split, at their current
+     * settings, into the left stack.
+     */
+    private void buildLeft() {
+        for (int x = 0; x < _size; x += 1) {
+            int c = x;
+            for (int i = _split - 1; i >= 0; i -= 1) {
+                c = _slots[i].shiftedForward()[_offset[i] + c];
+            }
+            for (int i = 1; i < _split; i += 1) {
+                c = _slots[i].shiftedBackward()[_offset[i] + c];
+            }
+            _left[x] = c;
+        }
+        _leftValid = true;
+    }
+
+    /**
+     * Return P modulo my alphabet size, where -size() < P < 2 * size().
+     */
+    private int wrap(int p) {
+        if (p < 0) {
+            return p + _size;
+        }
+        return p >= _size ? p - _size : p;
+    }
+
+    /**
+     * Number of characters in my alphabet.
+     */
+    private final int _size;
+
+    /**
+     * Rotors in each slot, reflector first.
+     */
+    private final CompiledRotor[] _slots;
+
+    /**
+     * Setting of each slot.
+     */
+    private final int[] _setting;
+
+    /**
+     * Ring setting of each slot.
+     */
+    private final int[] _ring;
+
+    /**
+     * Start of the current wiring of each slot's rotor within its
+     * shifted tables: the slot's setting minus its ring setting, modulo
+     * the alphabet size, times the alphabet size.
+     */
+    private final int[] _offset;
+
+    /**
+     * Plugboard, mapping each index to its partner.
+     */
+    private final int[] _plug;
+
+    /**
+     * Inverse of _plug.
+     */
+    private final int[] _plugInverse;
+
+    /**
+     * Index of the leftmost slot in the run of moving rotors ending at
+     * the rightmost slot; only those step.
+     */
+    private int _firstMoving;
+
+    /**
+     * Number of slots, from the reflector on, composed into _left.
+     */
+    private int _split;
+
+    /**
+     * The left stack: the result of passing an index entering slot
+     * _split - 1 from the right through the slots before _split and
+     * back.
+     */
+    private final int[] _left;
+
+    /**
+     * True iff _left matches the rotors and settings of its slots.
+     */
+    private boolean _leftValid;
+}
@@ -0,0 +1,78 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the FastMachine class, checking it
+ * against Machine.
+ */
+public class FastMachineTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /**
+     * Return a machine with the naval rotors, rotors I-VIII having
+     * notches NOTCHES[0..7].
+     */
+    private Machine navalMachine(String[] notches) {
+        List<Rotor> rotors = new ArrayList<>();
+        String[] moving = {"I", "II", "III", "IV", "V", "VI", "VII", "VIII"};
+        for (int i = 0; i < moving.length; i += 1) {
+            rotors.add(new MovingRotor(moving[i],
+                    new Permutation(NAVALA.get(moving[i]), UPPER),
+                    notches[i]));
+        }
+        rotors.add(new FixedRotor("Beta",
+                new Permutation(NAVALA.get("Beta"), UPPER)));
+        rotors.add(new FixedRotor("Gamma",
+                new Permutation(NAVALA.get("Gamma"), UPPER)));
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        rotors.add(new Reflector("C", new Permutation(NAVALA.get("C"), UPPER)));
+        return new Machine(UPPER, 5, 3, rotors);
+    }
+
+    @Test
+    public void testMatchesMachine() {
+        Random random = new Random(61);
+        String[] moving = {"I", "II", "III", "IV", "V", "VI", "VII", "VIII"};
+        for (int trial = 0; trial < 40; trial += 1) {
+            String[] notches = new String[8];
+            for (int i = 0; i < 8; i += 1) {
+                notches[i] = randomString(random, UPPER, 1 + random.nextInt(2));
+            }
+            Machine machine = navalMachine(notches);
+            List<String> order = new ArrayList<>(List.of(moving));
+            Collections.shuffle(order, random);
+            machine.insertRotors(new String[] {
+                random.nextBoolean() ? "B" : "C",
+                random.nextBoolean() ? "Beta" : "Gamma",
+                order.get(0), order.get(1), order.get(2)
+            });
+            machine.setRotors(randomString(random, UPPER, 4));
+            machine.ringSetRotors(randomString(random, UPPER, 4));
+            machine.setPlugboard(new Permutation("(AQ) (BZ) (MXK)", UPPER));
+            FastMachine fast = new FastMachine(machine);
+            for (int k = 0; k < 2000; k += 1) {
+                int c = random.nextInt(26);
+                assertEquals(msg("trial " + trial, "char %d", k),
+                        machine.convert(c), fast.convert(c));
+            }
+            long key = machine.positionKey();
+            assertEquals(key, fast.positionKey(machine.stateCodec()));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package enigma;
+
+/**
+ * An enumeration of every combination of a number of digits, each in
+ * 0 .. base-1, in reflected Gray-code order: each step changes exactly
+ * one digit by one, the rightmost digit moving fastest and each digit
+ * reversing direction instead of wrapping around.  Searches use it to
+ * walk rotor settings so that consecutive keys differ in one rotor and
+ * state derived from the others can be kept.
+ */
+final class KeyEnumerator {
+
+    /**
+     * An enumerator of LENGTH digits in base BASE, starting at all
+     * zeros.
+     */
+    KeyEnumerator(int length, int base) {
+        _base = base;
+        _digits = new int[length];
+        _directions = new int[length];
+        reset();
+    }
+
+    /**
+     * Go back to all zeros, every digit moving upwards.
+     */
+    void reset() {
+        for (int i = 0; i < _digits.length; i += 1) {
+            _digits[i] = 0;
+            _directions[i] = 1;
+        }
+    }
+
+    /**
+     * Return the number of digits.
+     */
+    int length() {
+        return _digits.length;
+    }
+
+    /**
+     * Return the value of digit I.
+     */
+    int digit(int i) {
+        return _digits[i];
+    }
+
+    /**
+     * Move to the next combination and return the index of the digit
+     * that changed, or -1, leaving the digits alone, if every
+     * combination has been visited since the last reset.
+     */
+    int next() {
+        for (int i = _digits.length - 1; i >= 0; i -= 1) {
+            int d = _digits[i] + _directions[i];
+            if (d >= 0 && d < _base) {
+                _digits[i] = d;
+                return i;
+            }
+            _directions[i] = -_directions[i];
+        }
+        return -1;
+    }
+
+    /**
+     * Base of the digits.
+     */
+    private final int _base;
+
+    /**
+     * Current value of each digit.
+     */
+    private final int[] _digits;
+
+    /**
+     * Direction, 1 or -1, in which each digit next moves.
+     */
+    private final int[] _directions;
+}
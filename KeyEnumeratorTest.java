@@ -0,0 +1,48 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the KeyEnumerator class.
+ */
+public class KeyEnumeratorTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testGrayOrder() {
+        KeyEnumerator keys = new KeyEnumerator(3, 5);
+        boolean[] seen = new boolean[125];
+        int[] previous = new int[3];
+        int visited = 0;
+        int changed = -1;
+        do {
+            int code = 0;
+            for (int i = 0; i < 3; i += 1) {
+                int d = keys.digit(i);
+                code = code * 5 + d;
+                if (changed >= 0) {
+                    assertEquals(i == changed ? 1 : 0,
+                            Math.abs(d - previous[i]));
+                }
+                previous[i] = d;
+            }
+            assertFalse(seen[code]);
+            seen[code] = true;
+            visited += 1;
+            changed = keys.next();
+        } while (changed >= 0);
+        assertEquals(125, visited);
+        keys.reset();
+        assertEquals(0, keys.digit(0) + keys.digit(1) + keys.digit(2));
+        assertEquals(2, keys.next());
+    }
+}
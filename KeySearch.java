@@ -0,0 +1,646 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * Ciphertext-only search for the rotor order, settings and, optionally,
+ * ring settings of a machine without plugboard knowledge.  Every
+ * candidate key decrypts the ciphertext and is scored by its index of
+ * coincidence; the best are kept.
+ * The key space is split into partitions, one per rotor order and
+ * setting of the leftmost rotor, which are searched in parallel by a
+ * work-stealing pool.  Each thread decrypts on its own FastMachine.
+ * Candidates are decrypted in blocks; after each, the best index of
+ * coincidence the rest of the text could still give is compared with
+ * the top-K cutoff, shared by all threads, and the candidate is
+ * abandoned if it could not make the cut.
+ * The partitions searched are recorded in a SearchProgress, which a
+ * background thread can save periodically, with the best candidates,
+ * to a checkpoint file; a search resumed from it skips them.
+ */
+final class KeySearch {
+
+    /**
+     * A search for keys of machines configured like MACHINE, with
+     * reflector REFLECTOR, under which CIPHERTEXT decrypts best.
+     * Ring settings are searched for the rightmost RINGSLOTS slots,
+     * and are 0 elsewhere.  The best TOPK candidates are kept.
+     */
+    KeySearch(Machine machine, String reflector, int[] ciphertext,
+              int ringSlots, int topK) {
+        if (ringSlots < 0 || ringSlots >= machine.numRotors()) {
+            throw error("Error: bad number of ring slots: %d", ringSlots);
+        }
+        machine.stateCodec().checkFits();
+        _codec = machine.stateCodec();
+        _size = machine.alphabet().size();
+        _numRotors = machine.numRotors();
+        _ciphertext = ciphertext;
+        _ringSlots = ringSlots;
+        _orders = rotorOrders(machine, reflector);
+        _compiled = new CompiledRotor[machine.catalog().size()];
+        for (int i = 0; i < _compiled.length; i += 1) {
+            _compiled[i] = machine.catalog().compiled(i);
+        }
+        _top = new TopK(topK);
+        _progress = new SearchProgress(jobKey(), partitions());
+    }
+
+    /**
+     * Return every valid rotor order for machines configured like
+     * MACHINE with reflector REFLECTOR, as catalog indices of the
+     * rotor in each slot.  Each order has as many moving rotors as the
+     * machine has pawls, to the right of its fixed rotors.
+     */
+    static List<int[]> rotorOrders(Machine machine, String reflector) {
+        RotorCatalog catalog = machine.catalog();
+        int reflectorIndex = machine.rotorIndex(reflector);
+        if (!catalog.reflecting(reflectorIndex)) {
+            throw error("Error: %s is not a reflector", reflector);
+        }
+        List<Integer> fixed = new ArrayList<>();
+        List<Integer> moving = new ArrayList<>();
+        for (int i = 0; i < catalog.size(); i += 1) {
+            if (catalog.rotates(i)) {
+                moving.add(i);
+            } else if (!catalog.reflecting(i)) {
+                fixed.add(i);
+            }
+        }
+        int numFixed = machine.numRotors() - 1 - machine.numPawls();
+        List<int[]> orders = new ArrayList<>();
+        int[] order = new int[machine.numRotors()];
+        order[0] = reflectorIndex;
+        addOrders(orders, order, 1, numFixed + 1, fixed, moving,
+                new boolean[catalog.size()]);
+        return orders;
+    }
+
+    /**
+     * Add to ORDERS every completion of ORDER from SLOT on, taking
+     * rotors from FIXED for slots before FIRSTMOVING and from MOVING
+     * after, and skipping rotors marked in USED.
+     */
+    private static void addOrders(List<int[]> orders, int[] order, int slot,
+                                  int firstMoving, List<Integer> fixed,
+                                  List<Integer> moving, boolean[] used) {
+        if (slot == order.length) {
+            orders.add(order.clone());
+            return;
+        }
+        for (int r : slot < firstMoving ? fixed : moving) {
+            if (!used[r]) {
+                used[r] = true;
+                order[slot] = r;
+                addOrders(orders, order, slot + 1, firstMoving,
+                        fixed, moving, used);
+                used[r] = false;
+            }
+        }
+    }
+
+    /**
+     * Return the number of partitions of my key space.
+     */
+    long partitions() {
+        return (long) _orders.size() * _size;
+    }
+
+    /**
+     * Return a key identifying my search, as a hash of the alphabet
+     * size, rotor orders, the wiring and notches of the rotors in them,
+     * searched ring slots and ciphertext, so that a checkpoint is not
+     * resumed, nor a job shared, by a different search.
+     */
+    long jobKey() {
+        long key = FNV_BASIS;
+        key = (key ^ _size) * FNV_PRIME;
+        key = (key ^ _ringSlots) * FNV_PRIME;
+        boolean[] used = new boolean[_compiled.length];
+        for (int[] order : _orders) {
+            for (int r : order) {
+                key = (key ^ r) * FNV_PRIME;
+                used[r] = true;
+            }
+        }
+        for (int r = 0; r < used.length; r += 1) {
+            if (used[r]) {
+                for (int y : _compiled[r].forward()) {
+                    key = (key ^ y) * FNV_PRIME;
+                }
+                for (boolean notch : _compiled[r].notch()) {
+                    key = (key ^ (notch ? 1 : 0)) * FNV_PRIME;
+                }
+            }
+        }
+        for (int c : _ciphertext) {
+            key = (key ^ c) * FNV_PRIME;
+        }
+        return key;
+    }
+
+    /**
+     * Return the record of the partitions I have searched.
+     */
+    SearchProgress progress() {
+        return _progress;
+    }
+
+    /**
+     * Continue from PROGRESS, a record of this search read from a
+     * checkpoint: skip the partitions it has done and start from its
+     * candidates.
+     */
+    void resume(SearchProgress progress) {
+        if (progress.job() != jobKey()
+                || progress.partitions() != partitions()) {
+            throw error("Error: progress is for a different search");
+        }
+        _progress = progress;
+        _top.offerAll(progress.candidates());
+    }
+
+    /**
+     * Save my progress to FILE every PERIOD seconds while running, and
+     * when done, forcing each save to disk iff FSYNC.  The saves are
+     * made by a background thread and do not hold up the search.
+     */
+    void checkpointTo(Path file, long period, boolean fsync) {
+        if (period < 1) {
+            throw error("Error: bad checkpoint period: %d", period);
+        }
+        _checkpointFile = file;
+        _checkpointPeriod = period;
+        _fsync = fsync;
+    }
+
+    /**
+     * Return the number of keys in each partition.
+     */
+    long partitionSize() {
+        long result = 1;
+        for (int i = 0; i < freeDigits(); i += 1) {
+            result *= _size;
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of settings and ring settings enumerated
+     * within a partition.
+     */
+    private int freeDigits() {
+        return _numRotors - 2 + _ringSlots;
+    }
+
+    /**
+     * Search every partition using PARALLELISM threads, returning the
+     * best candidates found, best first.
+     */
+    List<Candidate> run(int parallelism) {
+        return run(0, partitions(), parallelism);
+    }
+
+    /**
+     * Search partitions LO .. HI-1 using PARALLELISM threads, returning
+     * the best candidates found so far, best first.
+     */
+    List<Candidate> run(long lo, long hi, int parallelism) {
+        ScheduledExecutorService saver = null;
+        if (_checkpointFile != null) {
+            saver = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "search-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            saver.scheduleWithFixedDelay(this::saveProgress,
+                    _checkpointPeriod, _checkpointPeriod, TimeUnit.SECONDS);
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Task(lo, hi));
+        } finally {
+            pool.shutdown();
+            if (saver != null) {
+                saver.shutdownNow();
+                try {
+                    saver.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (_checkpointFile != null) {
+            _progress.write(_checkpointFile, _top, _fsync);
+        }
+        return _top.best();
+    }
+
+    /**
+     * Save my progress to the checkpoint file, warning of failures
+     * rather than stopping the search.
+     */
+    private void saveProgress() {
+        try {
+            _progress.write(_checkpointFile, _top, _fsync);
+        } catch (EnigmaException excp) {
+            System.err.printf("Warning: %s%n", excp.getMessage());
+        }
+    }
+
+    /**
+     * Searches the partitions LO .. HI-1, splitting them among the
+     * pool's threads.
+     */
+    private class Task extends RecursiveAction {
+
+        /**
+         * A task for partitions LO .. HI-1.
+         */
+        Task(long lo, long hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                long mid = (_lo + _hi) >>> 1;
+                invokeAll(new Task(_lo, mid), new Task(mid, _hi));
+            } else if (_hi > _lo && !_progress.isDone(_lo)) {
+                searchPartition(_lo);
+                _progress.markDone(_lo);
+            }
+        }
+
+        /**
+         * First partition searched.
+         */
+        private final long _lo;
+
+        /**
+         * One past the last partition searched.
+         */
+        private final long _hi;
+    }
+
+    /**
+     * Try every key in PARTITION, offering the good ones to my top-K.
+     * Keys are visited in Gray-code order, searched ring settings
+     * changing slowest, so that consecutive keys differ in one setting
+     * and W's machine keeps the state derived from the others.
+     * May be called from any thread.
+     */
+    void searchPartition(long partition) {
+        Worker w = _workers.get();
+        int[] order = _orders.get((int) (partition / _size));
+        long orderKey = 0;
+        for (int i = 0; i < _numRotors; i += 1) {
+            w.machine.setRotor(i, _compiled[order[i]]);
+            w.machine.setRingSetting(i, 0);
+            orderKey = _codec.withRotor(orderKey, i, order[i]);
+        }
+        int[] start = w.start;
+        Arrays.fill(start, 0);
+        start[1] = (int) (partition % _size);
+        KeyEnumerator keys = w.keys;
+        keys.reset();
+        long tested = 0;
+        w.pruned = 0;
+        w.decrypted = 0;
+        int changed = -1;
+        do {
+            if (changed >= 0) {
+                setDigit(w, changed);
+            }
+            w.machine.loadSettings(start, 0);
+            double score = score(w);
+            tested += 1;
+            if (_top.accepts(score)) {
+                w.machine.loadSettings(start, 0);
+                _top.offer(new Candidate(score, orderKey,
+                        w.machine.positionKey(_codec)));
+            }
+            changed = keys.next();
+        } while (changed >= 0);
+        _tested.add(tested);
+        _pruned.add(w.pruned);
+        _decrypted.add(w.decrypted);
+    }
+
+    /**
+     * Apply the new value of digit D of W's key enumerator: the ring
+     * setting of a searched slot for the first ring-slots digits, and
+     * otherwise the start setting of a slot from slot 2 on.
+     */
+    private void setDigit(Worker w, int d) {
+        if (d < _ringSlots) {
+            w.machine.setRingSetting(_numRotors - _ringSlots + d,
+                    w.keys.digit(d));
+        } else {
+            w.start[d - _ringSlots + 2] = w.keys.digit(d);
+        }
+    }
+
+    /**
+     * Decrypt my ciphertext on W's machine from its current settings
+     * and return the index of coincidence of the result, or negative
+     * infinity if it cannot beat the top-K cutoff.  The sum of c(c-1)
+     * over the letter counts c grows by at most r(2m + r - 1) over the
+     * last r characters, where m is the largest count so far: all of
+     * them the most common letter.
+     */
+    private double score(Worker w) {
+        int[] counts = w.counts;
+        Arrays.fill(counts, 0);
+        int[] text = _ciphertext;
+        long norm = (long) text.length * (text.length - 1);
+        double limit = _top.threshold() * norm;
+        long sum = 0;
+        int most = 0;
+        int k = 0;
+        while (k < text.length) {
+            int end = Math.min(k + BLOCK, text.length);
+            for (; k < end; k += 1) {
+                int c = w.machine.convert(text[k]);
+                sum += 2 * counts[c];
+                counts[c] += 1;
+                most = Math.max(most, counts[c]);
+            }
+            long rest = text.length - k;
+            if (rest > 0 && sum + rest * (2 * most + rest - 1) < limit) {
+                w.pruned += 1;
+                w.decrypted += k;
+                return Double.NEGATIVE_INFINITY;
+            }
+        }
+        w.decrypted += k;
+        return text.length < 2 ? 0 : (double) sum / norm;
+    }
+
+    /**
+     * Return the index of coincidence of a text of LENGTH characters
+     * whose letter frequencies are COUNTS.
+     */
+    static double indexOfCoincidence(int[] counts, int length) {
+        long sum = 0;
+        for (int c : counts) {
+            sum += (long) c * (c - 1);
+        }
+        return length < 2 ? 0 : (double) sum / ((long) length * (length - 1));
+    }
+
+    /**
+     * Return the candidates kept so far.
+     */
+    TopK top() {
+        return _top;
+    }
+
+    /**
+     * Return the number of keys tried so far.
+     */
+    long candidatesTested() {
+        return _tested.sum();
+    }
+
+    /**
+     * Return the number of keys abandoned before the end of the
+     * ciphertext so far.
+     */
+    long candidatesPruned() {
+        return _pruned.sum();
+    }
+
+    /**
+     * Return the number of characters decrypted so far.
+     */
+    long charactersDecrypted() {
+        return _decrypted.sum();
+    }
+
+    /**
+     * Per-thread state: a machine and scratch arrays.
+     */
+    private class Worker {
+
+        /**
+         * Machine used for decryption.
+         */
+        final FastMachine machine = new FastMachine(_size, _numRotors);
+
+        /**
+         * Letter counts of the current decryption.
+         */
+        final int[] counts = new int[_size];
+
+        /**
+         * Settings and ring settings enumerated in a partition.
+         */
+        final KeyEnumerator keys = new KeyEnumerator(freeDigits(), _size);
+
+        /**
+         * Start settings of every slot for the current key.
+         */
+        final int[] start = new int[_numRotors];
+
+        /**
+         * Keys abandoned in the current partition.
+         */
+        long pruned;
+
+        /**
+         * Characters decrypted in the current partition.
+         */
+        long decrypted;
+    }
+
+    /**
+     * Search for the key of a ciphertext, as specified by ARGS:
+     *   [--rings=K] [--top=K] [--sample=N] [--threads=T]
+     *   [--checkpoint=FILE [--checkpoint-every=S] [--fsync] [--resume]]
+     *   CONFIG CIPHERTEXT REFLECTOR
+     * where CONFIG is a configuration file, CIPHERTEXT a file holding the
+     * ciphertext and REFLECTOR the name of the reflector.  Searches ring
+     * settings of the rightmost --rings slots (default 0), decrypts only
+     * the first --sample characters (default all), uses --threads
+     * threads (default all processors) and prints the best --top keys
+     * (default 10), best first, with their scores.  With --checkpoint,
+     * saves its progress to FILE every --checkpoint-every seconds
+     * (default 60), forced to disk with --fsync; with --resume,
+     * continues from FILE, if it exists, skipping the partitions it
+     * records as searched.
+     */
+    public static void main(String... args) {
+        try {
+            Options options = new Options(args);
+            String[] files = options.positional();
+            if (files.length != 3) {
+                throw error("usage: KeySearch [options] CONFIG CIPHERTEXT "
+                        + "REFLECTOR");
+            }
+            Machine machine = Main.machineFor(files[0]);
+            int[] text = readCiphertext(machine.alphabet(), files[1],
+                    options.intValue("sample", Integer.MAX_VALUE));
+            KeySearch search = new KeySearch(machine, files[2], text,
+                    options.intValue("rings", 0),
+                    options.intValue("top", 10));
+            String checkpoint = options.value("checkpoint", null);
+            if (checkpoint != null) {
+                Path file = Paths.get(checkpoint);
+                if (options.flag("resume")) {
+                    search.resume(SearchProgress.read(file, search.jobKey(),
+                            search.partitions()));
+                }
+                search.checkpointTo(file,
+                        options.intValue("checkpoint-every", 60),
+                        options.flag("fsync"));
+            } else if (options.flag("resume")) {
+                throw error("--resume requires --checkpoint");
+            }
+            long start = System.nanoTime();
+            List<Candidate> best = search.run(options.intValue("threads",
+                    Runtime.getRuntime().availableProcessors()));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            for (Candidate c : best) {
+                System.out.printf("%.6f %s%n", c.score(), c.setupLine(machine));
+            }
+            long tested = search.candidatesTested();
+            double characters = (double) tested * text.length;
+            System.err.printf("%d keys in %.1fs (%.0f keys/s), %.1f%% "
+                    + "pruned, %.1f%% of characters decrypted%n",
+                    tested, seconds, seconds > 0 ? tested / seconds : 0,
+                    tested > 0 ? 100.0 * search.candidatesPruned() / tested
+                    : 0,
+                    characters > 0
+                    ? 100.0 * search.charactersDecrypted() / characters : 0);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /**
+     * Return at most LIMIT indices of the characters in the file named
+     * NAME, in alphabet ALPHA, ignoring whitespace.
+     */
+    static int[] readCiphertext(Alphabet alpha, String name, int limit) {
+        try {
+            int[] text = alpha.toInts(Files.readString(Paths.get(name)));
+            return text.length > limit ? Arrays.copyOf(text, limit) : text;
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+    }
+
+    /**
+     * Number of characters decrypted between checks of the bound.
+     */
+    private static final int BLOCK = 16;
+
+    /**
+     * Offset basis of the 64-bit FNV-1a hash used by jobKey.
+     */
+    private static final long FNV_BASIS = 0xcbf29ce484222325L;
+
+    /**
+     * Prime of the 64-bit FNV-1a hash used by jobKey.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Codec packing keys.
+     */
+    private final MachineState _codec;
+
+    /**
+     * Size of the alphabet.
+     */
+    private final int _size;
+
+    /**
+     * Number of rotor slots.
+     */
+    private final int _numRotors;
+
+    /**
+     * The ciphertext, as indices.
+     */
+    private final int[] _ciphertext;
+
+    /**
+     * Number of rightmost slots whose ring settings are searched.
+     */
+    private final int _ringSlots;
+
+    /**
+     * Rotor orders searched, as catalog indices.
+     */
+    private final List<int[]> _orders;
+
+    /**
+     * Compiled form of every catalog rotor.
+     */
+    private final CompiledRotor[] _compiled;
+
+    /**
+     * Best candidates found.
+     */
+    private final TopK _top;
+
+    /**
+     * Number of keys tried.
+     */
+    private final LongAdder _tested = new LongAdder();
+
+    /**
+     * Number of keys abandoned early.
+     */
+    private final LongAdder _pruned = new LongAdder();
+
+    /**
+     * Number of characters decrypted.
+     */
+    private final LongAdder _decrypted = new LongAdder();
+
+    /**
+     * Partitions searched so far.
+     */
+    private SearchProgress _progress;
+
+    /**
+     * File to which progress is saved, or null if not checkpointing.
+     */
+    private Path _checkpointFile;
+
+    /**
+     * Seconds between saves of progress.
+     */
+    private long _checkpointPeriod;
+
+    /**
+     * True iff each save is forced to disk.
+     */
+    private boolean _fsync;
+
+    /**
+     * Per-thread workers.
+     */
+    private final ThreadLocal<Worker> _workers =
+            ThreadLocal.withInitial(Worker::new);
+}
@@ -0,0 +1,126 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the KeySearch class.
+ */
+public class KeySearchTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    @Test
+    public void testPruningKeepsBest() {
+        Machine machine = threeRotorMachine();
+        machine.insertRotors(new String[] {"B", "II", "I", "III"});
+        machine.setRotors("RUN");
+        int[] text = UPPER.toInts("WHENINTHECOURSEOFHUMANEVENTSITBECOMES"
+                + "NECESSARYFORONEPEOPLETODISSOLVETHEPOLITICALBANDSWHICH"
+                + "HAVECONNECTEDTHEMWITHANOTHER");
+        for (int k = 0; k < text.length; k += 1) {
+            text[k] = machine.convert(text[k]);
+        }
+        List<Double> all = new ArrayList<>();
+        for (int[] order : KeySearch.rotorOrders(machine, "B")) {
+            String[] names = new String[order.length];
+            for (int i = 0; i < order.length; i += 1) {
+                names[i] = machine.allRotors().get(order[i]).name();
+            }
+            machine.insertRotors(names);
+            for (int p = 0; p < 26 * 26 * 26; p += 1) {
+                machine.setRotors("" + (char) ('A' + p / 676)
+                        + (char) ('A' + p / 26 % 26) + (char) ('A' + p % 26));
+                FastMachine fast = new FastMachine(machine);
+                int[] counts = new int[26];
+                for (int c : text) {
+                    counts[fast.convert(c)] += 1;
+                }
+                all.add(KeySearch.indexOfCoincidence(counts, text.length));
+            }
+        }
+        Collections.sort(all, Collections.reverseOrder());
+        KeySearch search = new KeySearch(threeRotorMachine(), "B", text, 0, 8);
+        List<Candidate> best = search.run(2);
+        assertEquals(8, best.size());
+        for (int i = 0; i < best.size(); i += 1) {
+            assertEquals(msg("pruned", "candidate %d", i), all.get(i),
+                    best.get(i).score(), 1e-12);
+        }
+        assertEquals(all.size(), search.candidatesTested());
+        assertTrue(search.candidatesPruned() > 0);
+        assertTrue(search.charactersDecrypted()
+                < search.candidatesTested() * text.length);
+    }
+
+    @Test
+    public void testRejectsEmptyTop() {
+        try {
+            new KeySearch(threeRotorMachine(), "B", UPPER.toInts("ABC"), 0,
+                    0);
+            fail("kept no candidates");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testResumeSkipsDone() throws IOException {
+        Machine machine = threeRotorMachine();
+        machine.insertRotors(new String[] {"B", "III", "II", "I"});
+        machine.setRotors("ZIP");
+        int[] text = UPPER.toInts("ALLHAPPYFAMILIESARELIKEEACHOTHEREACH"
+                + "UNHAPPYFAMILYISUNHAPPYINITSOWNWAY");
+        for (int k = 0; k < text.length; k += 1) {
+            text[k] = machine.convert(text[k]);
+        }
+        List<Candidate> expected =
+                new KeySearch(threeRotorMachine(), "B", text, 0, 5).run(1);
+        Path file = Files.createTempFile("search", ".ckpt");
+        try {
+            KeySearch first =
+                new KeySearch(threeRotorMachine(), "B", text, 0, 5);
+            first.checkpointTo(file, 3600, false);
+            long half = first.partitions() / 2;
+            first.run(0, half, 2);
+            KeySearch second =
+                new KeySearch(threeRotorMachine(), "B", text, 0, 5);
+            second.resume(SearchProgress.read(file, second.jobKey(),
+                    second.partitions()));
+            assertEquals(half, second.progress().done());
+            List<Candidate> best = second.run(2);
+            assertEquals((second.partitions() - half)
+                    * second.partitionSize(), second.candidatesTested());
+            assertEquals(expected.size(), best.size());
+            for (int i = 0; i < best.size(); i += 1) {
+                assertTrue(expected.get(i).sameKey(best.get(i)));
+            }
+            KeySearch other = new KeySearch(threeRotorMachine(), "B",
+                    Arrays.copyOf(text, 40), 0, 5);
+            try {
+                SearchProgress.read(file, other.jobKey(), other.partitions());
+                fail("resumed a different search");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
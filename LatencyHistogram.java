@@ -0,0 +1,157 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of nanosecond latencies in log-linear buckets, in the
+ * manner of HdrHistogram: values below 2^SUB_BITS are counted exactly,
+ * and each larger power-of-two range is split into 2^(SUB_BITS-1)
+ * equal buckets, so every recorded value is known to within 1/32 of
+ * itself, about 3.1%.
+ * Recording allocates nothing and may be done from any number of
+ * threads at once.
+ */
+final class LatencyHistogram {
+
+    /**
+     * Bits of precision kept for each value.
+     */
+    static final int SUB_BITS = 6;
+
+    /**
+     * Number of values counted exactly.
+     */
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /**
+     * Number of buckets in each power-of-two range above SUB_COUNT.
+     */
+    private static final int HALF_COUNT = SUB_COUNT / 2;
+
+    /**
+     * An empty histogram.
+     */
+    LatencyHistogram() {
+        _counts = new AtomicLongArray(
+                SUB_COUNT + (Long.SIZE - SUB_BITS) * HALF_COUNT);
+    }
+
+    /**
+     * Count one latency of NANOS nanoseconds.  Negative values count
+     * as zero.
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        _counts.incrementAndGet(index(value));
+        _max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Return the bucket holding VALUE.
+     */
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB_COUNT + (shift - 1) * HALF_COUNT
+                + (int) (value >>> shift) - HALF_COUNT;
+    }
+
+    /**
+     * Return the largest value held by bucket INDEX.
+     */
+    static long highestValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int k = index - SUB_COUNT;
+        int shift = k / HALF_COUNT + 1;
+        long mantissa = k % HALF_COUNT + HALF_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Return the number of values recorded.
+     */
+    long count() {
+        long total = 0;
+        for (int i = 0; i < _counts.length(); i += 1) {
+            total += _counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Return the largest value recorded, or 0 if none.
+     */
+    long max() {
+        return _max.get();
+    }
+
+    /**
+     * Return the value at percentile PERCENT (0 .. 100): a value no
+     * smaller than that percentage of recorded values, to within the
+     * bucket precision.  Returns 0 if nothing has been recorded.
+     */
+    long percentile(double percent) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percent / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < _counts.length(); i += 1) {
+            seen += _counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max());
+            }
+        }
+        return max();
+    }
+
+    /**
+     * Reset all counts to zero.
+     */
+    void reset() {
+        for (int i = 0; i < _counts.length(); i += 1) {
+            _counts.set(i, 0);
+        }
+        _max.set(0);
+    }
+
+    /**
+     * Return a one-line summary: count, p50, p99, p99.9 and maximum.
+     */
+    @Override
+    public String toString() {
+        return String.format("n=%d p50=%s p99=%s p99.9=%s max=%s",
+                count(), format(percentile(50)), format(percentile(99)),
+                format(percentile(99.9)), format(max()));
+    }
+
+    /**
+     * Return NANOS in a readable unit.
+     */
+    static String format(long nanos) {
+        if (nanos < 10_000) {
+            return nanos + "ns";
+        } else if (nanos < 10_000_000) {
+            return String.format("%.1fus", nanos / 1e3);
+        } else if (nanos < 10_000_000_000L) {
+            return String.format("%.1fms", nanos / 1e6);
+        }
+        return String.format("%.1fs", nanos / 1e9);
+    }
+
+    /**
+     * Number of values recorded in each bucket.
+     */
+    private final AtomicLongArray _counts;
+
+    /**
+     * Largest value recorded.
+     */
+    private final AtomicLong _max = new AtomicLong();
+}
@@ -0,0 +1,53 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the LatencyHistogram class.
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testBucketBounds() {
+        long previous = -1;
+        for (int i = 0; i < 2000; i += 1) {
+            long value = LatencyHistogram.highestValue(
+                    LatencyHistogram.index(i * 977L + i * i * 31L));
+            assertTrue(value >= i * 977L + i * i * 31L);
+            assertTrue(value >= previous);
+            previous = value;
+        }
+        for (long v = 1; v > 0 && v < Long.MAX_VALUE / 3; v = v * 3 + 1) {
+            long high = LatencyHistogram.highestValue(
+                    LatencyHistogram.index(v));
+            assertTrue(high >= v);
+            assertTrue(high - v <= v / 30 + 1);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.percentile(50));
+        for (long v = 1; v <= 10000; v += 1) {
+            h.record(v * 1000);
+        }
+        assertEquals(10000, h.count());
+        assertEquals(10_000_000, h.max());
+        assertEquals(5_000_000, h.percentile(50), 5_000_000 / 30.0);
+        assertEquals(9_900_000, h.percentile(99), 9_900_000 / 30.0);
+        assertEquals(10_000_000, h.percentile(100));
+        h.reset();
+        assertEquals(0, h.count());
+    }
+}
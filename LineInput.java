@@ -0,0 +1,123 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * A source of input lines that keeps track of the byte offset of the
+ * next unread line, so that a run can later be resumed from there.
+ */
+class LineInput {
+
+    /**
+     * Lines read from IN, whose first byte lies at OFFSET in the
+     * underlying file.
+     */
+    LineInput(InputStream in, long offset) {
+        _in = in;
+        _offset = offset;
+    }
+
+    /**
+     * Return the next line without its terminator, or null at the end
+     * of input.
+     */
+    String nextLine() {
+        int len = 0;
+        while (true) {
+            if (_pos == _limit && !fill()) {
+                if (len == 0) {
+                    return null;
+                }
+                break;
+            }
+            byte b = _buf[_pos++];
+            _offset += 1;
+            if (b == '\n') {
+                break;
+            }
+            if (len == _line.length) {
+                _line = Arrays.copyOf(_line, 2 * len);
+            }
+            _line[len++] = b;
+        }
+        if (len > 0 && _line[len - 1] == '\r') {
+            len -= 1;
+        }
+        return new String(_line, 0, len, CHARSET);
+    }
+
+    /**
+     * Return the byte offset of the next unread line.
+     */
+    long offset() {
+        return _offset;
+    }
+
+    /**
+     * Close the underlying input.
+     */
+    void close() {
+        try {
+            _in.close();
+        } catch (IOException excp) {
+            throw error("could not close input: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Refill my buffer, returning false at the end of input.
+     */
+    private boolean fill() {
+        try {
+            int n = _in.read(_buf);
+            if (n <= 0) {
+                return false;
+            }
+            _pos = 0;
+            _limit = n;
+            return true;
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Character set used to decode lines, as for Scanner.
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /**
+     * Underlying input.
+     */
+    private final InputStream _in;
+
+    /**
+     * Bytes read ahead from _in.
+     */
+    private final byte[] _buf = new byte[1 << 16];
+
+    /**
+     * Position of the next unread byte in _buf.
+     */
+    private int _pos;
+
+    /**
+     * Number of valid bytes in _buf.
+     */
+    private int _limit;
+
+    /**
+     * Bytes of the line being read.
+     */
+    private byte[] _line = new byte[256];
+
+    /**
+     * Byte offset of the next unread byte.
+     */
+    private long _offset;
+}
@@ -2,6 +2,7 @@ package enigma;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import static enigma.EnigmaException.*;
 
@@ -17,13 +18,24 @@ class Machine {
      */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
-        inputChecker(alpha, numRotors, pawls, allRotors);
+        this(alpha, numRotors, pawls, new RotorCatalog(allRotors));
+    }
+
+    /**
+     * A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
+     * and 0 < PAWLS < NUMROTORS pawls, whose available rotors are those
+     * of CATALOG, built as they are inserted.
+     */
+    Machine(Alphabet alpha, int numRotors, int pawls, RotorCatalog catalog) {
+        inputChecker(alpha, numRotors, pawls, catalog);
         _alphabet = alpha;
         _numRotors = numRotors;
         _numPawls = pawls;
-        _allRotors = allRotors;
+        _catalog = catalog;
         _slots = new Rotor[numRotors];
+        _slotIndex = new int[numRotors];
         _plugBoard = new Permutation("", alpha);
+        _state = new MachineState(alpha.size(), numRotors, catalog.size());
     }
 
     /**
@@ -35,10 +47,10 @@ class Machine {
      * @param alpha the alphabet.
      * @param numRotors the number of rotors.
      * @param pawls the number of pawls.
-     * @param allRotors collection of all rotors.
+     * @param catalog catalog of all rotors.
      */
     void inputChecker(Alphabet alpha, int numRotors,
-                      int pawls, Collection<Rotor> allRotors) {
+                      int pawls, RotorCatalog catalog) {
         if (pawls <= 0) {
             throw error("Error: the machine has to have more than one pawl");
         }
@@ -62,15 +74,55 @@ class Machine {
         return _numPawls;
     }
 
+    /**
+     * Return my alphabet.
+     */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /**
+     * Return all available rotors, in catalog order.  Getting one
+     * builds it if it has not been yet.
+     */
+    List<Rotor> allRotors() {
+        return _catalog.rotors();
+    }
+
+    /**
+     * Return the catalog of my available rotors.
+     */
+    RotorCatalog catalog() {
+        return _catalog;
+    }
+
+    /**
+     * Return the rotor in slot I, or null if none is inserted.
+     */
+    Rotor slot(int i) {
+        return _slots[i];
+    }
+
+    /**
+     * Return my plugboard.
+     */
+    Permutation plugboard() {
+        return _plugBoard;
+    }
+
     /**
      * Set my rotor slots to the rotors named ROTORS from my set of
      * available rotors (ROTORS[0] names the reflector).
      * Initially, all rotors are set at their 0 setting.
      */
     void insertRotors(String[] rotors) {
+        if (Metrics.ENABLED) {
+            reportRotations();
+        }
         insertRotorChecker(rotors);
         for (int i = 0; i < _slots.length; i++) {
-            _slots[i] = rotorGrabber(rotors[i]);
+            _slotIndex[i] = rotorIndex(rotors[i]);
+            _slots[i] = _catalog.rotor(_slotIndex[i]);
         }
     }
 
@@ -82,13 +134,21 @@ class Machine {
      * @return
      */
     Rotor rotorGrabber(String rotorName) {
-        for (Rotor r : _allRotors) {
-            if (r.name().equals(rotorName)) {
-                return r;
-            }
+        return _catalog.rotor(rotorIndex(rotorName));
+    }
+
+    /**
+     * Return the position of the rotor named ROTORNAME in the
+     * list of all available rotors.
+     * Throw error iff no matching rotor is found.
+     */
+    int rotorIndex(String rotorName) {
+        int i = _catalog.indexOf(rotorName);
+        if (i < 0) {
+            throw error("Error: failed to grab rotor, "
+                    + "matching Rotor name not found");
         }
-        throw error("Error: failed to grab rotor, "
-                + "matching Rotor name not found");
+        return i;
     }
 
     /**
@@ -164,6 +224,103 @@ class Machine {
         }
     }
 
+    /**
+     * Return the codec used to pack my state.
+     */
+    MachineState stateCodec() {
+        return _state;
+    }
+
+    /**
+     * Return the packed order key of my current rotors: the catalog
+     * index of the rotor in each slot.
+     */
+    long orderKey() {
+        _state.checkFits();
+        checkInserted();
+        long key = 0;
+        for (int i = 0; i < _slots.length; i++) {
+            key = _state.withRotor(key, i, _slotIndex[i]);
+        }
+        return key;
+    }
+
+    /**
+     * Return the packed position key of my current rotors: the setting
+     * and ring setting of every rotor right of the reflector.
+     */
+    long positionKey() {
+        _state.checkFits();
+        checkInserted();
+        long key = 0;
+        for (int i = 1; i < _slots.length; i++) {
+            key = _state.withSetting(key, i, _slots[i].setting());
+            key = _state.withRingSetting(key, i, _slots[i].ringSetting());
+        }
+        return key;
+    }
+
+    /**
+     * Restore the rotor order ORDERKEY and the settings POSITIONKEY,
+     * as previously returned by orderKey() and positionKey().  The
+     * plugboard is left unchanged.
+     */
+    void restore(long orderKey, long positionKey) {
+        _state.checkFits();
+        for (int i = 0; i < _slots.length; i++) {
+            int index = _state.rotor(orderKey, i);
+            if (index >= _catalog.size()) {
+                throw error("Error: rotor index %d out of range", index);
+            }
+            _slotIndex[i] = index;
+            _slots[i] = _catalog.rotor(index);
+        }
+        for (int i = 1; i < _slots.length; i++) {
+            _slots[i].set(_state.setting(positionKey, i));
+            _slots[i].setRingSet(_state.ringSetting(positionKey, i));
+        }
+    }
+
+    /**
+     * Return the setting and ring setting of each rotor right of the
+     * reflector, those of slot I at 2 * (I - 1) and 2 * (I - 1) + 1.
+     * Unlike positionKey(), this works however large the machine.
+     */
+    int[] positions() {
+        checkInserted();
+        int[] result = new int[2 * (_slots.length - 1)];
+        for (int i = 1; i < _slots.length; i++) {
+            result[2 * (i - 1)] = _slots[i].setting();
+            result[2 * (i - 1) + 1] = _slots[i].ringSetting();
+        }
+        return result;
+    }
+
+    /**
+     * Restore the settings POSITIONS of my current rotors, as
+     * previously returned by positions().  The rotors and plugboard
+     * are left unchanged.
+     */
+    void restorePositions(int[] positions) {
+        checkInserted();
+        if (positions.length != 2 * (_slots.length - 1)) {
+            throw error("Error: wrong number of rotor positions");
+        }
+        for (int i = 1; i < _slots.length; i++) {
+            _slots[i].set(positions[2 * (i - 1)]);
+            _slots[i].setRingSet(positions[2 * (i - 1) + 1]);
+        }
+    }
+
+    /**
+     * Throw error iff rotors have not yet been inserted.
+     */
+    private void checkInserted() {
+        if (_slots[0] == null) {
+            throw error("Error: no rotors inserted");
+        }
+    }
+
     /**
      * Set the plugboard to PLUGBOARD.
      */
@@ -203,6 +360,9 @@ class Machine {
      * changing their settings if applicable.
      */
     void rotate() {
+        if (Metrics.ENABLED) {
+            _rotations += 1;
+        }
         int index = _slots.length - 1;
         boolean shouldAdvThis = true;
         boolean shouldDbstepPrev = false;
@@ -230,18 +390,69 @@ class Machine {
     }
 
 
+    /**
+     * Add the rotations made since they were last reported to the
+     * metrics.  Counting them here and reporting them per message keeps
+     * a shared counter out of rotate().
+     */
+    private void reportRotations() {
+        Metrics.METRICS.rotated(_rotations);
+        _rotations = 0;
+    }
+
     /**
      * Returns the encoding/decoding of MSG,
      * updating the state of the rotors accordingly.
      */
     String convert(String msg) {
+        return convert(msg, null);
+    }
+
+    /**
+     * Returns the encoding/decoding of MSG, updating the state of the
+     * rotors accordingly and recording each converted character in
+     * STATS, unless it is null.
+     */
+    String convert(String msg, TextStats stats) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        Events.ConvertBatch event = new Events.ConvertBatch();
+        event.begin();
         String result = new String();
         for (char c : msg.toCharArray()) {
-            result += _alphabet.toChar(convert(_alphabet.toInt(c)));
+            int converted = convert(_alphabet.toInt(c));
+            if (stats != null) {
+                stats.record(converted);
+            }
+            result += _alphabet.toChar(converted);
+        }
+        if (Metrics.ENABLED) {
+            Metrics.METRICS.converted(msg.length(), System.nanoTime() - start);
+            reportRotations();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.rotorOrder = rotorOrder();
+            event.chars = msg.length();
+            event.commit();
         }
         return result;
     }
 
+    /**
+     * Return the names of my rotors, reflector first, separated by
+     * spaces.
+     */
+    String rotorOrder() {
+        StringBuilder result = new StringBuilder();
+        for (Rotor r : _slots) {
+            if (result.length() > 0) {
+                result.append(' ');
+            }
+            result.append(r == null ? "-" : r.name());
+        }
+        return result.toString();
+    }
+
     /**
      * Common alphabet of my rotors.
      */
@@ -258,13 +469,23 @@ class Machine {
     private int _numPawls;
 
     /**
-     * a collection of all rotors.
+     * the catalog of all rotors.
+     */
+    private final RotorCatalog _catalog;
+
+    /**
+     * catalog index of the rotor in each slot.
      */
-    private Collection<Rotor> _allRotors;
+    private int[] _slotIndex;
+
+    /**
+     * codec packing my state into longs.
+     */
+    private final MachineState _state;
 
     /**
      * a collection of slots indexing from the left,
-     * each slot can contain one rotor in the _allRotors.
+     * each slot can contain one rotor of the _catalog.
      */
     private Rotor[] _slots;
 
@@ -275,4 +496,9 @@ class Machine {
      * mapping to itself.
      */
     private Permutation _plugBoard;
+
+    /**
+     * rotations not yet reported to the metrics.
+     */
+    private long _rotations;
 }
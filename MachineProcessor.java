@@ -0,0 +1,267 @@
+package enigma;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * A reactive stage that converts a stream of message chunks with one
+ * machine and publishes the results in order.  Chunks are converted in
+ * batches sized by the demand of the single downstream subscriber, and
+ * never more than a fixed number are requested from upstream, so the
+ * buffer between the two is bounded.  Conversions for one processor
+ * never overlap, which keeps the machine's state in stream order, but
+ * any number of processors may share one executor.
+ */
+class MachineProcessor implements Flow.Processor<String, String> {
+
+    /**
+     * A processor converting chunks with MACHINE, running its work on
+     * EXECUTOR and buffering at most CAPACITY chunks.
+     */
+    MachineProcessor(Machine machine, Executor executor, int capacity) {
+        if (capacity <= 0) {
+            throw error("Error: buffer capacity must be positive");
+        }
+        _machine = machine;
+        _executor = executor;
+        _capacity = capacity;
+        _queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        synchronized (this) {
+            if (_downstream == null) {
+                _downstream = subscriber;
+                subscriber.onSubscribe(new Downstream());
+                schedule();
+                return;
+            }
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        subscriber.onError(
+                new IllegalStateException("already subscribed"));
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (_upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        _upstream = subscription;
+        subscription.request(_capacity);
+    }
+
+    @Override
+    public void onNext(String chunk) {
+        if (!_queue.offer(chunk)) {
+            _upstream.cancel();
+            _error = new IllegalStateException(
+                    "upstream sent more chunks than requested");
+            _done = true;
+        }
+        schedule();
+    }
+
+    @Override
+    public void onError(Throwable err) {
+        _error = err;
+        _done = true;
+        schedule();
+    }
+
+    @Override
+    public void onComplete() {
+        _done = true;
+        schedule();
+    }
+
+    /**
+     * Arrange for drain() to run, unless it is already running, in
+     * which case it will run again.
+     */
+    private void schedule() {
+        if (_wip.getAndIncrement() == 0) {
+            _executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Convert and publish as many buffered chunks as downstream demand
+     * allows, replenish upstream demand by as many, and deliver the
+     * final signal once the buffer is empty.  If converting a chunk or
+     * publishing its result throws, the stream fails at once with that
+     * exception.
+     */
+    private void drain() {
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super String> down = _downstream;
+            if (down != null && !_cancelled && !_terminated) {
+                try {
+                    emit(down);
+                } catch (RuntimeException excp) {
+                    _queue.clear();
+                    _upstream.cancel();
+                    terminate(down, excp);
+                }
+                if (!_terminated && _done && _queue.isEmpty()
+                        && !_cancelled) {
+                    terminate(down, _error);
+                }
+            }
+            missed = _wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Convert buffered chunks and publish them to DOWN while it has
+     * demand, and request as many more from upstream.
+     */
+    private void emit(Flow.Subscriber<? super String> down) {
+        long demand = _demand.get();
+        long emitted = 0;
+        while (emitted < demand && !_cancelled) {
+            String chunk = _queue.poll();
+            if (chunk == null) {
+                break;
+            }
+            down.onNext(_machine.convert(chunk));
+            emitted += 1;
+        }
+        if (emitted > 0) {
+            if (demand != Long.MAX_VALUE) {
+                _demand.addAndGet(-emitted);
+            }
+            if (!_done) {
+                _upstream.request(emitted);
+            }
+        }
+    }
+
+    /**
+     * Deliver the final signal to DOWN: ERR, or completion if ERR is
+     * null.  A subscriber that throws from either has broken its
+     * contract and has nothing left to be told, so what it throws is
+     * dropped rather than left to stall later drains.
+     */
+    private void terminate(Flow.Subscriber<? super String> down,
+                           Throwable err) {
+        _terminated = true;
+        try {
+            if (err != null) {
+                down.onError(err);
+            } else {
+                down.onComplete();
+            }
+        } catch (RuntimeException excp) {
+            /* Ignore: the stream is over. */
+        }
+    }
+
+    /**
+     * The subscription handed to my downstream subscriber.
+     */
+    private class Downstream implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                _error = new IllegalArgumentException(
+                        "non-positive request: " + n);
+                _queue.clear();
+                _done = true;
+                if (_upstream != null) {
+                    _upstream.cancel();
+                }
+            } else {
+                _demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            _cancelled = true;
+            if (_upstream != null) {
+                _upstream.cancel();
+            }
+        }
+    }
+
+    /**
+     * The machine converting my chunks, in stream order.
+     */
+    private final Machine _machine;
+
+    /**
+     * Runs my conversions.
+     */
+    private final Executor _executor;
+
+    /**
+     * Maximum number of chunks buffered or requested from upstream.
+     */
+    private final int _capacity;
+
+    /**
+     * Chunks received and not yet converted.
+     */
+    private final ArrayBlockingQueue<String> _queue;
+
+    /**
+     * Outstanding downstream demand.
+     */
+    private final AtomicLong _demand = new AtomicLong();
+
+    /**
+     * Number of drain requests not yet handled; drain() runs while
+     * this is positive.
+     */
+    private final AtomicInteger _wip = new AtomicInteger();
+
+    /**
+     * Subscription to my source, once subscribed.
+     */
+    private volatile Flow.Subscription _upstream;
+
+    /**
+     * My only subscriber, once subscribed.
+     */
+    private volatile Flow.Subscriber<? super String> _downstream;
+
+    /**
+     * Error to deliver after the buffered chunks, or null.
+     */
+    private volatile Throwable _error;
+
+    /**
+     * True once no more chunks will arrive.
+     */
+    private volatile boolean _done;
+
+    /**
+     * True once downstream has cancelled.
+     */
+    private volatile boolean _cancelled;
+
+    /**
+     * True once the final signal has been delivered.  Only accessed
+     * by drain().
+     */
+    private boolean _terminated;
+}
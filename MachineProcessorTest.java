@@ -0,0 +1,271 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the MachineProcessor class.  Work
+ * runs on the calling thread, so that every signal has been handled
+ * when the call delivering it returns.
+ */
+public class MachineProcessorTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /**
+     * Runs tasks on the calling thread.
+     */
+    private static final Executor DIRECT = Runnable::run;
+
+    /**
+     * Return threeRotorMachine(), set up.
+     */
+    private static Machine machine() {
+        Machine machine = threeRotorMachine();
+        machine.insertRotors(new String[] {"B", "III", "I", "II"});
+        machine.setRotors("FLO");
+        return machine;
+    }
+
+    /**
+     * An upstream subscription recording what is asked of it.
+     */
+    private static class Upstream implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Total chunks requested.
+         */
+        long requested;
+
+        /**
+         * True once cancelled.
+         */
+        boolean cancelled;
+    }
+
+    /**
+     * A downstream subscriber recording what it receives, and checking
+     * that it never receives more than it requested.
+     */
+    private static class Sink implements Flow.Subscriber<String> {
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(String item) {
+            assertTrue("more results than requested",
+                    items.size() < requested);
+            assertFalse(complete || error != null);
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable err) {
+            assertFalse(complete || error != null);
+            error = err;
+        }
+
+        @Override
+        public void onComplete() {
+            assertFalse(complete || error != null);
+            complete = true;
+        }
+
+        /**
+         * Request N more results.
+         */
+        void request(long n) {
+            requested += n;
+            subscription.request(n);
+        }
+
+        /**
+         * My subscription.
+         */
+        Flow.Subscription subscription;
+
+        /**
+         * Total results requested.
+         */
+        long requested;
+
+        /**
+         * Results received, in order.
+         */
+        final List<String> items = new ArrayList<>();
+
+        /**
+         * Error received, or null.
+         */
+        Throwable error;
+
+        /**
+         * True once completed.
+         */
+        boolean complete;
+    }
+
+    /**
+     * Chunks sent through the processors.
+     */
+    private static final String[] CHUNKS = {
+        "THEQU", "ICKBR", "OWNFO", "XJUMP", "SOVER", "THELA", "ZYDOG"
+    };
+
+    @Test
+    public void testBackpressureAndOrder() {
+        Machine reference = machine();
+        MachineProcessor processor =
+            new MachineProcessor(machine(), DIRECT, 4);
+        Upstream up = new Upstream();
+        processor.onSubscribe(up);
+        assertEquals(4, up.requested);
+        Sink sink = new Sink();
+        processor.subscribe(sink);
+        for (int i = 0; i < 4; i += 1) {
+            processor.onNext(CHUNKS[i]);
+        }
+        assertTrue(sink.items.isEmpty());
+        sink.request(2);
+        assertEquals(2, sink.items.size());
+        assertEquals(6, up.requested);
+        processor.onNext(CHUNKS[4]);
+        processor.onNext(CHUNKS[5]);
+        sink.request(3);
+        assertEquals(5, sink.items.size());
+        assertEquals(9, up.requested);
+        processor.onNext(CHUNKS[6]);
+        processor.onComplete();
+        assertFalse(sink.complete);
+        sink.request(10);
+        assertEquals(CHUNKS.length, sink.items.size());
+        assertTrue(sink.complete);
+        assertNull(sink.error);
+        for (int i = 0; i < CHUNKS.length; i += 1) {
+            assertEquals(reference.convert(CHUNKS[i]), sink.items.get(i));
+        }
+        assertTrue(up.requested - CHUNKS.length <= 4);
+    }
+
+    @Test
+    public void testCancel() {
+        MachineProcessor processor =
+            new MachineProcessor(machine(), DIRECT, 4);
+        Upstream up = new Upstream();
+        processor.onSubscribe(up);
+        Sink sink = new Sink();
+        processor.subscribe(sink);
+        sink.request(10);
+        processor.onNext(CHUNKS[0]);
+        assertEquals(1, sink.items.size());
+        sink.subscription.cancel();
+        assertTrue(up.cancelled);
+        processor.onNext(CHUNKS[1]);
+        processor.onComplete();
+        assertEquals(1, sink.items.size());
+        assertFalse(sink.complete);
+        assertNull(sink.error);
+    }
+
+    @Test
+    public void testErrors() {
+        Machine broken = new Machine(UPPER, 4, 3, machine().allRotors()) {
+            @Override
+            String convert(String msg) {
+                if (msg.equals(CHUNKS[1])) {
+                    throw new IllegalStateException("broken");
+                }
+                return msg;
+            }
+        };
+        MachineProcessor processor = new MachineProcessor(broken, DIRECT, 4);
+        Upstream up = new Upstream();
+        processor.onSubscribe(up);
+        Sink sink = new Sink();
+        processor.subscribe(sink);
+        processor.onNext(CHUNKS[0]);
+        processor.onNext(CHUNKS[1]);
+        processor.onNext(CHUNKS[2]);
+        sink.request(10);
+        assertEquals(List.of(CHUNKS[0]), sink.items);
+        assertTrue(sink.error instanceof IllegalStateException);
+        assertTrue(up.cancelled);
+        processor.onNext(CHUNKS[3]);
+        sink.request(1);
+        assertEquals(1, sink.items.size());
+
+        processor = new MachineProcessor(machine(), DIRECT, 4);
+        up = new Upstream();
+        processor.onSubscribe(up);
+        RuntimeException thrown = new RuntimeException("subscriber");
+        Sink throwing = new Sink() {
+            @Override
+            public void onNext(String item) {
+                super.onNext(item);
+                throw thrown;
+            }
+        };
+        processor.subscribe(throwing);
+        throwing.request(10);
+        processor.onNext(CHUNKS[0]);
+        processor.onNext(CHUNKS[1]);
+        assertEquals(1, throwing.items.size());
+        assertSame(thrown, throwing.error);
+        assertTrue(up.cancelled);
+
+        processor = new MachineProcessor(machine(), DIRECT, 4);
+        up = new Upstream();
+        processor.onSubscribe(up);
+        sink = new Sink();
+        processor.subscribe(sink);
+        processor.onNext(CHUNKS[0]);
+        processor.onNext(CHUNKS[1]);
+        Throwable upstreamError = new IllegalArgumentException("upstream");
+        processor.onError(upstreamError);
+        assertNull(sink.error);
+        sink.request(1);
+        assertNull(sink.error);
+        sink.request(1);
+        assertEquals(2, sink.items.size());
+        assertSame(upstreamError, sink.error);
+
+        processor = new MachineProcessor(machine(), DIRECT, 1);
+        up = new Upstream();
+        processor.onSubscribe(up);
+        sink = new Sink();
+        processor.subscribe(sink);
+        processor.onNext(CHUNKS[0]);
+        processor.onNext(CHUNKS[1]);
+        assertTrue(up.cancelled);
+        sink.request(10);
+        assertTrue(sink.error instanceof IllegalStateException);
+
+        Sink second = new Sink();
+        processor.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+}
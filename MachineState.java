@@ -0,0 +1,142 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * Canonical packed encoding of the complete state of a machine: which
+ * catalog rotor sits in each slot (the order key), and the setting and
+ * ring setting of every rotor (the position key).  Both keys are plain
+ * longs, so states can be compared, hashed and stored without walking
+ * the slots or allocating.
+ */
+final class MachineState {
+
+    /**
+     * A codec for machines with NUMROTORS slots, an alphabet of
+     * ALPHABETSIZE characters and a catalog of CATALOGSIZE rotors.
+     */
+    MachineState(int alphabetSize, int numRotors, int catalogSize) {
+        _numRotors = numRotors;
+        _settingBits = bitsFor(alphabetSize);
+        _indexBits = bitsFor(catalogSize);
+        _fits = 2 * (numRotors - 1) * _settingBits <= Long.SIZE
+                && numRotors * _indexBits <= Long.SIZE;
+    }
+
+    /**
+     * Return the number of bits needed to hold values 0 .. N-1.
+     */
+    private static int bitsFor(int n) {
+        return Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(n - 1));
+    }
+
+    /**
+     * Return true iff states of my machines fit in two longs.
+     */
+    boolean fits() {
+        return _fits;
+    }
+
+    /**
+     * Throw an error unless states of my machines fit in two longs.
+     */
+    void checkFits() {
+        if (!_fits) {
+            throw error("Error: machine state too large to pack "
+                    + "into two longs");
+        }
+    }
+
+    /**
+     * Return the number of rotor slots I encode.
+     */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /**
+     * Return the order key with catalog index INDEX for SLOT added
+     * to KEY.
+     */
+    long withRotor(long key, int slot, int index) {
+        int shift = slot * _indexBits;
+        long mask = mask(_indexBits) << shift;
+        return (key & ~mask) | ((long) index << shift);
+    }
+
+    /**
+     * Return the catalog index of the rotor in SLOT according to the
+     * order key KEY.
+     */
+    int rotor(long key, int slot) {
+        return (int) ((key >>> (slot * _indexBits)) & mask(_indexBits));
+    }
+
+    /**
+     * Return the position key KEY with SLOT (1 .. numRotors()-1) at
+     * setting POSN.
+     */
+    long withSetting(long key, int slot, int posn) {
+        return with(key, (slot - 1) * _settingBits, posn);
+    }
+
+    /**
+     * Return the position key KEY with SLOT (1 .. numRotors()-1) at
+     * ring setting POSN.
+     */
+    long withRingSetting(long key, int slot, int posn) {
+        return with(key, (_numRotors + slot - 2) * _settingBits, posn);
+    }
+
+    /**
+     * Return the setting of SLOT according to the position key KEY.
+     */
+    int setting(long key, int slot) {
+        return (int) ((key >>> ((slot - 1) * _settingBits))
+                & mask(_settingBits));
+    }
+
+    /**
+     * Return the ring setting of SLOT according to the position key KEY.
+     */
+    int ringSetting(long key, int slot) {
+        return (int) ((key >>> ((_numRotors + slot - 2) * _settingBits))
+                & mask(_settingBits));
+    }
+
+    /**
+     * Return KEY with the settings field starting at bit SHIFT
+     * replaced by VALUE.
+     */
+    private long with(long key, int shift, int value) {
+        long mask = mask(_settingBits) << shift;
+        return (key & ~mask) | ((long) value << shift);
+    }
+
+    /**
+     * Return a mask of the lowest BITS bits.
+     */
+    private static long mask(int bits) {
+        return bits == Long.SIZE ? -1L : (1L << bits) - 1;
+    }
+
+    /**
+     * Number of rotor slots.
+     */
+    private final int _numRotors;
+
+    /**
+     * Bits used by one setting or ring setting.
+     */
+    private final int _settingBits;
+
+    /**
+     * Bits used by one catalog index.
+     */
+    private final int _indexBits;
+
+    /**
+     * True iff a full state fits in two longs.
+     */
+    private final boolean _fits;
+}
@@ -9,6 +9,7 @@ import org.junit.rules.Timeout;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import static org.junit.Assert.*;
 import static enigma.TestUtils.*;
 
 /** Testing machines, I guess
@@ -59,6 +60,38 @@ public class MachineTest {
         System.out.println(converted);
     }
 
+    @Test
+    public void checkSnapshotRestore() {
+        check();
+        _machine.ringSetRotors("ABCD");
+        long order = _machine.orderKey();
+        long position = _machine.positionKey();
+        String first = _machine.convert("HELLOWORLDHELLOWORLD");
+        assertNotEquals(position, _machine.positionKey());
+        _machine.insertRotors(new String[] {"B", "Beta", "I", "II", "V"});
+        _machine.setRotors("QQQQ");
+        _machine.restore(order, position);
+        assertEquals(order, _machine.orderKey());
+        assertEquals(position, _machine.positionKey());
+        assertEquals(first, _machine.convert("HELLOWORLDHELLOWORLD"));
+    }
+
+    @Test
+    public void checkStateCodec() {
+        MachineState codec = new MachineState(26, 5, 12);
+        assertTrue(codec.fits());
+        long key = 0;
+        for (int i = 1; i < 5; i++) {
+            key = codec.withSetting(key, i, 25 - i);
+            key = codec.withRingSetting(key, i, i);
+        }
+        for (int i = 1; i < 5; i++) {
+            assertEquals(25 - i, codec.setting(key, i));
+            assertEquals(i, codec.ringSetting(key, i));
+        }
+        assertFalse(new MachineState(64, 7, 12).fits());
+    }
+
     Machine _machine;
     Collection<Rotor> rotors;
     Rotor _V;
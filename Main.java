@@ -2,12 +2,22 @@ package enigma;
 
 import com.sun.xml.internal.rngom.xml.sax.AbstractLexicalHandler;
 
-import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.NoSuchElementException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 import static enigma.EnigmaException.*;
@@ -15,11 +25,12 @@ import static enigma.EnigmaException.*;
 /**
  * Enigma simulator.
  */
-public final class Main {
+public final class Main implements Closeable {
 
     /**
      * Process a sequence of encryptions and decryptions, as
-     * specified by ARGS, where 1 <= ARGS.length <= 3.
+     * specified by ARGS, where 1 <= ARGS.length <= 3, not counting
+     * options.
      * ARGS[0] is the name of a configuration file.
      * ARGS[1] is optional; when present, it names an input file
      * containing messages.  Otherwise, input comes from the standard
@@ -27,10 +38,24 @@ public final class Main {
      * file for processed messages.  Otherwise, output goes to the
      * standard output. Exits normally if there are no errors in the input;
      * otherwise with code 1.
+     * Options, which precede the file names, are
+     *   --checkpoint=FILE  periodically record progress in FILE;
+     *   --checkpoint-every=N  record progress every N input bytes;
+     *   --fsync  force each checkpoint to disk;
+     *   --resume  continue from the checkpoint in FILE, if any;
+     *   --latency  report setup and conversion latencies on the
+     *              standard error at the end of the run;
+     *   --stats  report the length, index of coincidence, chi-square
+     *            against uniform letters and commonest letters of the
+     *            output of each message on the standard error as it
+     *            ends, and of the whole run, with its letter
+     *            frequencies, at the end.
+     * A message is the text converted under one setup line.
+     * Checkpointing requires named input and output files.
      */
     public static void main(String... args) {
-        try {
-            new Main(args).process();
+        try (Main main = new Main(args)) {
+            main.process();
             return;
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
@@ -42,140 +67,335 @@ public final class Main {
      * Check ARGS and open the necessary files (see comment on main).
      */
     Main(String[] args) {
-        if (args.length < 1 || args.length > 3) {
+        int k = parseOptions(args);
+        int nargs = args.length - k;
+        if (nargs < 1 || nargs > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
-        _config = getInput(args[0]);
-        if (args.length > 1) {
-            _input = getInput(args[1]);
+        if (_checkpointFile != null && nargs < 3) {
+            throw error("checkpointing requires input and output files");
+        }
+        _config = readFile(args[k]);
+        Checkpoint start = null;
+        if (_resume) {
+            if (_checkpointFile == null) {
+                throw error("--resume requires --checkpoint");
+            }
+            start = Checkpoint.read(_checkpointFile);
+        }
+        _start = start;
+        long inputOffset = start == null ? 0 : start.inputOffset();
+        long outputOffset = start == null ? 0 : start.outputOffset();
+        if (nargs > 1) {
+            _input = new LineInput(openInput(args[k + 1], inputOffset),
+                    inputOffset);
         } else {
-            _input = new Scanner(System.in);
+            _input = new LineInput(System.in, 0);
         }
-        if (args.length > 2) {
-            _output = getOutput(args[2]);
+        _namedInput = nargs > 1;
+        if (nargs > 2) {
+            _outputCount = new CountingOutputStream(
+                    openOutput(args[k + 2], outputOffset), outputOffset);
+            _output = new PrintStream(
+                    new BufferedOutputStream(_outputCount, 1 << 16));
         } else {
+            _outputCount = null;
             _output = System.out;
         }
     }
 
     /**
-     * Return a Scanner reading from the file named NAME.
+     * A Main that only reads the configuration file named NAME, opening
+     * no input or output, so that it can configure and set up machines
+     * but not process messages.
+     */
+    private Main(String name) {
+        _config = readFile(name);
+        _start = null;
+        _input = null;
+        _namedInput = false;
+        _outputCount = null;
+        _output = null;
+    }
+
+    /**
+     * Return a Main that only reads the configuration file named NAME,
+     * for readConfig() and setUp(); it need not be closed.
+     */
+    static Main forConfig(String name) {
+        return new Main(name);
+    }
+
+    /**
+     * Return a machine configured from the configuration file named
+     * NAME, with no rotors inserted.
+     */
+    static Machine machineFor(String name) {
+        return forConfig(name).readConfig();
+    }
+
+    /**
+     * Return a machine configured from the configuration file named
+     * NAME and set up by the setup line SETUPLINE.
+     */
+    static Machine machineFor(String name, String setupLine) {
+        Main main = forConfig(name);
+        Machine machine = main.readConfig();
+        main.setUp(machine, setupLine);
+        return machine;
+    }
+
+    /**
+     * Set my options from the leading options in ARGS, returning the
+     * index of the first non-option argument.
+     */
+    private int parseOptions(String[] args) {
+        int k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+            String arg = args[k];
+            if (arg.startsWith("--checkpoint=")) {
+                _checkpointFile = Paths.get(arg.substring(13));
+            } else if (arg.startsWith("--checkpoint-every=")) {
+                try {
+                    _checkpointInterval = Long.parseLong(arg.substring(19));
+                } catch (NumberFormatException excp) {
+                    throw error("bad checkpoint interval: %s", arg);
+                }
+                if (_checkpointInterval < 1) {
+                    throw error("bad checkpoint interval: %s", arg);
+                }
+            } else if (arg.equals("--fsync")) {
+                _fsync = true;
+            } else if (arg.equals("--resume")) {
+                _resume = true;
+            } else if (arg.equals("--stats")) {
+                _stats = true;
+            } else if (arg.equals("--latency")) {
+                _setupLatency = new LatencyHistogram();
+                _convertLatency = new LatencyHistogram();
+            } else {
+                throw error("unknown option: %s", arg);
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Return a stream reading from the file named NAME, starting at
+     * byte OFFSET.
      */
-    private Scanner getInput(String name) {
+    private InputStream openInput(String name, long offset) {
         try {
-            return new Scanner(new File(name));
+            FileInputStream in = new FileInputStream(name);
+            in.getChannel().position(offset);
+            return in;
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
     /**
-     * Return a PrintStream writing to the file named NAME.
+     * Return a stream writing to the file named NAME, discarding
+     * everything after its first OFFSET bytes.
      */
-    private PrintStream getOutput(String name) {
+    private OutputStream openOutput(String name, long offset) {
         try {
-            return new PrintStream(new File(name));
+            if (offset == 0) {
+                return new FileOutputStream(name);
+            }
+            try (RandomAccessFile file = new RandomAccessFile(name, "rw")) {
+                if (file.length() < offset) {
+                    throw error("%s is shorter than its checkpoint", name);
+                }
+                file.setLength(offset);
+            }
+            return new FileOutputStream(name, true);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
+    /**
+     * Return the contents of the file named NAME.
+     */
+    private String readFile(String name) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(name)));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /**
+     * Flush my output, and close my input and output if they are named
+     * files.  The standard input and output stay open.
+     */
+    @Override
+    public void close() {
+        if (_namedInput) {
+            _input.close();
+        }
+        if (_outputCount != null) {
+            _output.close();
+        } else if (_output != null) {
+            _output.flush();
+        }
+    }
+
     /**
      * Configure an Enigma machine from the contents of configuration
      * file _config and apply it to the messages in _input, sending the
      * results to _output.
      */
-    private void process() {
+    void process() {
         Machine machine = readConfig();
-        if (!_input.hasNext("\\*")) {
-            throw error("Error: missing setting");
+        if (_start != null) {
+            setUp(machine, _start.setupLine());
+            _start.restore(machine);
+            _setupLine = _start.setupLine();
         }
-        while (_input.hasNextLine()) {
-            String line = _input.nextLine();
+        long nextCheckpoint = _input.offset() + _checkpointInterval;
+        TextStats message = null, run = null;
+        if (_stats) {
+            message = new TextStats(_alphabet.size());
+            run = new TextStats(_alphabet.size());
+        }
+        String line;
+        while ((line = _input.nextLine()) != null) {
+            long start = _setupLatency != null ? System.nanoTime() : 0;
             if (line.contains("*")) {
+                if (message != null) {
+                    endMessage(message, run);
+                }
                 setUp(machine, line);
-                continue;
-            }
-            if (line.isBlank()) {
+                _setupLine = line;
+                if (_setupLatency != null) {
+                    _setupLatency.record(System.nanoTime() - start);
+                }
+            } else if (line.isBlank()) {
                 _output.println();
+            } else if (_setupLine == null) {
+                throw error("Error: missing setting");
             } else {
-                line = machine.convert(line.replaceAll("\\s+", ""));
+                line = machine.convert(line.replaceAll("\\s+", ""),
+                        message);
+                if (_convertLatency != null) {
+                    _convertLatency.record(System.nanoTime() - start);
+                }
                 printMessageLine(line);
             }
+            if (_checkpointFile != null && _setupLine != null
+                    && _input.offset() >= nextCheckpoint) {
+                checkpoint(machine);
+                nextCheckpoint = _input.offset() + _checkpointInterval;
+            }
+        }
+        if (_setupLine == null) {
+            throw error("Error: missing setting");
+        }
+        _output.flush();
+        if (_checkpointFile != null) {
+            checkpoint(machine);
+        }
+        if (_setupLatency != null) {
+            System.err.printf("setup latency:   %s%n", _setupLatency);
+            System.err.printf("message latency: %s%n", _convertLatency);
+        }
+        if (message != null) {
+            endMessage(message, run);
+            System.err.printf("stats: run: %s%n%s", run.summary(_alphabet, 3),
+                    run.frequencies(_alphabet));
+        }
+    }
+
+    /**
+     * Report the statistics of the message just ended, MESSAGE, if it
+     * had any characters, add them to those of the RUN, and clear
+     * MESSAGE for the next.
+     */
+    private void endMessage(TextStats message, TextStats run) {
+        if (message.length() > 0) {
+            _messages += 1;
+            System.err.printf("stats: message %d: %s%n", _messages,
+                    message.summary(_alphabet, 3));
+            run.add(message);
+            message.clear();
         }
     }
 
+    /**
+     * Record the progress of M so far in the checkpoint file.  There
+     * must have been a setup line.
+     */
+    private void checkpoint(Machine M) {
+        _output.flush();
+        Checkpoint.of(_input.offset(), _outputCount.count(), M, _setupLine)
+                .write(_checkpointFile, _fsync);
+    }
 
     /**
      * Return an Enigma machine configured from the contents of configuration
-     * file _config.
+     * file _config.  The rotors are only indexed here; each is built when
+     * the machine first selects it.
      */
-    private Machine readConfig() {
-        try {
-            ArrayList<Rotor> allRotors = new ArrayList<>();
-            _alphabetString = _config.nextLine();
-            _alphabet = new Alphabet(_alphabetString);
-            if (!_config.hasNextInt()) {
-                throw error("Error: wrong numSlot value");
-            }
-            _numRotors = _config.nextInt();
-            if (!_config.hasNextInt()) {
-                throw error("Error: wrong numPawl value");
-            }
-            _numPawls = _config.nextInt();
-            while (_config.hasNext()) {
-                Rotor R = readRotor();
-                allRotors.add(R);
-            }
-            return new Machine(_alphabet, _numRotors, _numPawls, allRotors);
-        } catch (NoSuchElementException excp) {
+    Machine readConfig() {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        Events.ConfigLoad event = new Events.ConfigLoad();
+        event.begin();
+        int lineEnd = _config.indexOf('\n');
+        if (lineEnd < 0) {
             throw error("configuration file truncated");
         }
+        _alphabetString = _config.substring(0,
+                lineEnd > 0 && _config.charAt(lineEnd - 1) == '\r'
+                ? lineEnd - 1 : lineEnd);
+        _alphabet = new Alphabet(_alphabetString);
+        Matcher number = TOKEN.matcher(_config);
+        if (!number.find(lineEnd)) {
+            throw error("Error: wrong numSlot value");
+        }
+        _numRotors = parseCount(number.group(), "numSlot");
+        if (!number.find(number.end())) {
+            throw error("Error: wrong numPawl value");
+        }
+        _numPawls = parseCount(number.group(), "numPawl");
+        RotorCatalog catalog =
+                RotorCatalog.index(_alphabet, _config, number.end());
+        Machine machine =
+                new Machine(_alphabet, _numRotors, _numPawls, catalog);
+        if (Metrics.ENABLED) {
+            Metrics.METRICS.configRead(System.nanoTime() - start);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.alphabetSize = _alphabet.size();
+            event.rotors = catalog.size();
+            event.slots = _numRotors;
+            event.commit();
+        }
+        return machine;
     }
 
     /**
-     * Return a rotor, reading its description from _config.
+     * Return the value of TOKEN, the configured NAME.
      */
-    private Rotor readRotor() {
+    private static int parseCount(String token, String name) {
         try {
-            String name = "";
-            String type = "";
-            String permString = "";
-            name = _config.next();
-            type = _config.next();
-            while (_config.hasNext("\\(.+\\)")) {
-                permString += _config.next();
-            }
-            Permutation perm = new Permutation(permString, _alphabet);
-            if (type.charAt(0) == 'R') {
-                return new Reflector(name, perm);
-            }
-            if (type.charAt(0) == 'N') {
-                return new FixedRotor(name, perm);
-            }
-            if (type.charAt(0) == 'M') {
-                String notches = "";
-                if (type.length() > 1) {
-                    notches += type.substring(1);
-                }
-                return new MovingRotor(name, perm, notches);
-            } else {
-                String errorMsg = String.format("Error: "
-                        + "bad rotor name, current rotor name is %s", name);
-                throw error(errorMsg);
-            }
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
+            return Integer.parseInt(token);
+        } catch (NumberFormatException excp) {
+            throw error("Error: wrong %s value", name);
         }
     }
 
-
     /**
      * Set M according to the specification given in input,
      * assuming the input always begins with an asterisk.
      * taking LINE that begins with "*" as a setup.
      */
-    private void setUp(Machine M, String line) {
+    void setUp(Machine M, String line) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        Events.Setup event = new Events.Setup();
+        event.begin();
         Scanner setup = new Scanner(line);
         setup.next();
         String[] rotorsToInsert = new String[M.numRotors()];
@@ -193,6 +413,15 @@ public final class Main {
             plugboardCycles += setup.next();
         }
         M.setPlugboard(new Permutation(plugboardCycles, _alphabet));
+        if (Metrics.ENABLED) {
+            Metrics.METRICS.setUp(System.nanoTime() - start);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.rotorOrder = M.rotorOrder();
+            event.line = line;
+            event.commit();
+        }
     }
 
     /**
@@ -229,17 +458,82 @@ public final class Main {
     /**
      * Source of input messages.
      */
-    private Scanner _input;
+    private final LineInput _input;
 
     /**
-     * Source of machine configuration.
+     * True iff _input reads a named file, which I close.
      */
-    private Scanner _config;
+    private final boolean _namedInput;
+
+    /**
+     * A whitespace-separated token of a configuration.
+     */
+    private static final Pattern TOKEN = Pattern.compile("\\S+");
+
+    /**
+     * Text of the machine configuration.
+     */
+    private final String _config;
 
     /**
      * File for encoded/decoded messages.
      */
-    private PrintStream _output;
+    private final PrintStream _output;
+
+    /**
+     * Counts the bytes written to a named output file, else null.
+     */
+    private final CountingOutputStream _outputCount;
+
+    /**
+     * The setup line currently in force, or null before the first.
+     */
+    private String _setupLine;
+
+    /**
+     * File recording progress, or null if not checkpointing.
+     */
+    private Path _checkpointFile;
+
+    /**
+     * Number of input bytes between checkpoints.
+     */
+    private long _checkpointInterval = 8 << 20;
+
+    /**
+     * True iff checkpoints are forced to disk.
+     */
+    private boolean _fsync;
+
+    /**
+     * True iff the run resumes from its checkpoint.
+     */
+    private boolean _resume;
+
+    /**
+     * True iff message statistics are reported.
+     */
+    private boolean _stats;
+
+    /**
+     * Number of messages whose statistics have been reported.
+     */
+    private int _messages;
+
+    /**
+     * Latencies of setup lines, or null if not reported.
+     */
+    private LatencyHistogram _setupLatency;
+
+    /**
+     * Latencies of message conversions, or null if not reported.
+     */
+    private LatencyHistogram _convertLatency;
+
+    /**
+     * The checkpoint this run resumes from, or null.
+     */
+    private final Checkpoint _start;
 
     /**
      * num of available slots in the current machine.
@@ -253,5 +547,41 @@ public final class Main {
      */
     private int _numPawls;
 
+    /**
+     * An output stream that counts the bytes written through it.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        /**
+         * A stream writing to OUT, which already holds COUNT bytes.
+         */
+        CountingOutputStream(OutputStream out, long count) {
+            super(out);
+            _count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            _count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            _count += len;
+        }
+
+        /**
+         * Return the number of bytes in the output so far.
+         */
+        long count() {
+            return _count;
+        }
 
+        /**
+         * Number of bytes in the output so far.
+         */
+        private long _count;
+    }
 }
@@ -0,0 +1,278 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Runtime metrics of the engine.  Metrics are collected only when the
+ * system property enigma.metrics is true; since ENABLED is a constant,
+ * the instrumentation compiles away otherwise.  When enabled, the
+ * metrics are registered as the MBean enigma:type=Metrics and, if the
+ * property enigma.metrics.dump is a positive number of seconds, also
+ * printed to the standard error at that interval.
+ */
+final class Metrics implements MetricsMBean {
+
+    /**
+     * True iff metrics are collected.
+     */
+    static final boolean ENABLED = Boolean.getBoolean("enigma.metrics");
+
+    /**
+     * The single instance.
+     */
+    static final Metrics METRICS = new Metrics();
+
+    static {
+        if (ENABLED) {
+            METRICS.register();
+        }
+    }
+
+    /**
+     * Record the conversion of a message of LENGTH characters, taking
+     * NANOS nanoseconds.
+     */
+    void converted(int length, long nanos) {
+        _chars.add(length);
+        _messages.increment();
+        _convertNanos.add(nanos);
+        _convertLatency.record(nanos);
+    }
+
+    /**
+     * Record COUNT rotations of a machine.
+     */
+    void rotated(long count) {
+        _rotations.add(count);
+    }
+
+    /**
+     * Record handling a setup line, taking NANOS nanoseconds.
+     */
+    void setUp(long nanos) {
+        _setupLines.increment();
+        _setupNanos.add(nanos);
+        _setupLatency.record(nanos);
+    }
+
+    /**
+     * Record reading a configuration, taking NANOS nanoseconds.
+     */
+    void configRead(long nanos) {
+        _configs.increment();
+        _configNanos.add(nanos);
+    }
+
+    /**
+     * Record fetching a rotor from a catalog, which was already built
+     * iff CACHED.
+     */
+    void rotorFetched(boolean cached) {
+        if (cached) {
+            _rotorHits.increment();
+        } else {
+            _rotorsBuilt.increment();
+        }
+    }
+
+    @Override
+    public long getCharsConverted() {
+        return _chars.sum();
+    }
+
+    @Override
+    public long getMessagesConverted() {
+        return _messages.sum();
+    }
+
+    @Override
+    public long getRotations() {
+        return _rotations.sum();
+    }
+
+    @Override
+    public long getSetupLines() {
+        return _setupLines.sum();
+    }
+
+    @Override
+    public long getConfigsRead() {
+        return _configs.sum();
+    }
+
+    @Override
+    public long getRotorsBuilt() {
+        return _rotorsBuilt.sum();
+    }
+
+    @Override
+    public long getRotorCacheHits() {
+        return _rotorHits.sum();
+    }
+
+    @Override
+    public long getConvertNanos() {
+        return _convertNanos.sum();
+    }
+
+    @Override
+    public long getSetupNanos() {
+        return _setupNanos.sum();
+    }
+
+    @Override
+    public long getConfigNanos() {
+        return _configNanos.sum();
+    }
+
+    @Override
+    public double getCharsPerSecond() {
+        long nanos = getConvertNanos();
+        return nanos == 0 ? 0 : getCharsConverted() * 1e9 / nanos;
+    }
+
+    @Override
+    public long getConvertP99Nanos() {
+        return _convertLatency.percentile(99);
+    }
+
+    @Override
+    public long getSetupP99Nanos() {
+        return _setupLatency.percentile(99);
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("chars converted   %d (%.0f/s)%n",
+                getCharsConverted(), getCharsPerSecond()));
+        report.append(String.format("messages          %d%n",
+                getMessagesConverted()));
+        report.append(String.format("rotations         %d%n",
+                getRotations()));
+        report.append(String.format("setup lines       %d%n",
+                getSetupLines()));
+        report.append(String.format("configs read      %d%n",
+                getConfigsRead()));
+        report.append(String.format("rotors built      %d (cache hits %d)%n",
+                getRotorsBuilt(), getRotorCacheHits()));
+        report.append(String.format("time (ms)         config %.3f, "
+                + "setup %.3f, convert %.3f%n", getConfigNanos() / 1e6,
+                getSetupNanos() / 1e6, getConvertNanos() / 1e6));
+        report.append("convert latency   ").append(_convertLatency)
+                .append(String.format("%n"));
+        report.append("setup latency     ").append(_setupLatency)
+                .append(String.format("%n"));
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        _chars.reset();
+        _messages.reset();
+        _rotations.reset();
+        _setupLines.reset();
+        _configs.reset();
+        _rotorsBuilt.reset();
+        _rotorHits.reset();
+        _convertNanos.reset();
+        _setupNanos.reset();
+        _configNanos.reset();
+        _convertLatency.reset();
+        _setupLatency.reset();
+    }
+
+    /**
+     * Register me with the platform MBean server and start the periodic
+     * dump, if requested.
+     */
+    private void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    this, new ObjectName("enigma:type=Metrics"));
+        } catch (JMException excp) {
+            System.err.printf("Warning: could not register metrics: %s%n",
+                    excp.getMessage());
+        }
+        long period = Long.getLong("enigma.metrics.dump", 0);
+        if (period > 0) {
+            ScheduledExecutorService dumper =
+                    Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "enigma-metrics");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            dumper.scheduleAtFixedRate(
+                    () -> System.err.print(getReport()),
+                    period, period, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Characters converted.
+     */
+    private final LongAdder _chars = new LongAdder();
+
+    /**
+     * Messages converted.
+     */
+    private final LongAdder _messages = new LongAdder();
+
+    /**
+     * Machine rotations.
+     */
+    private final LongAdder _rotations = new LongAdder();
+
+    /**
+     * Setup lines handled.
+     */
+    private final LongAdder _setupLines = new LongAdder();
+
+    /**
+     * Configurations read.
+     */
+    private final LongAdder _configs = new LongAdder();
+
+    /**
+     * Catalog rotors built from their descriptions.
+     */
+    private final LongAdder _rotorsBuilt = new LongAdder();
+
+    /**
+     * Catalog rotors fetched already built.
+     */
+    private final LongAdder _rotorHits = new LongAdder();
+
+    /**
+     * Nanoseconds spent converting messages.
+     */
+    private final LongAdder _convertNanos = new LongAdder();
+
+    /**
+     * Nanoseconds spent handling setup lines.
+     */
+    private final LongAdder _setupNanos = new LongAdder();
+
+    /**
+     * Nanoseconds spent reading configurations.
+     */
+    private final LongAdder _configNanos = new LongAdder();
+
+    /**
+     * Distribution of per-message conversion times.
+     */
+    private final LatencyHistogram _convertLatency =
+            new LatencyHistogram();
+
+    /**
+     * Distribution of per-line setup times.
+     */
+    private final LatencyHistogram _setupLatency =
+            new LatencyHistogram();
+}
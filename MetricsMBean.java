@@ -0,0 +1,88 @@
+package enigma;
+
+/**
+ * Management interface of the engine's runtime metrics, registered as
+ * enigma:type=Metrics when metrics are enabled.
+ */
+public interface MetricsMBean {
+
+    /**
+     * Return the number of characters converted.
+     */
+    long getCharsConverted();
+
+    /**
+     * Return the number of messages converted.
+     */
+    long getMessagesConverted();
+
+    /**
+     * Return the number of machine rotations.  Each machine reports its
+     * rotations when it finishes converting a message and when its
+     * rotors are next inserted.
+     */
+    long getRotations();
+
+    /**
+     * Return the number of setup lines handled.
+     */
+    long getSetupLines();
+
+    /**
+     * Return the number of configurations read.
+     */
+    long getConfigsRead();
+
+    /**
+     * Return the number of catalog rotors built from their descriptions.
+     */
+    long getRotorsBuilt();
+
+    /**
+     * Return the number of times a catalog rotor was fetched already
+     * built.
+     */
+    long getRotorCacheHits();
+
+    /**
+     * Return the total nanoseconds spent converting messages.
+     */
+    long getConvertNanos();
+
+    /**
+     * Return the total nanoseconds spent handling setup lines.
+     */
+    long getSetupNanos();
+
+    /**
+     * Return the total nanoseconds spent reading configurations.
+     */
+    long getConfigNanos();
+
+    /**
+     * Return the characters converted per second of conversion time.
+     */
+    double getCharsPerSecond();
+
+    /**
+     * Return the 99th percentile of per-message conversion times,
+     * in nanoseconds.
+     */
+    long getConvertP99Nanos();
+
+    /**
+     * Return the 99th percentile of per-line setup times, in
+     * nanoseconds.
+     */
+    long getSetupP99Nanos();
+
+    /**
+     * Return a multi-line text report of all metrics.
+     */
+    String getReport();
+
+    /**
+     * Reset all metrics to zero.
+     */
+    void reset();
+}
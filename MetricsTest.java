@@ -0,0 +1,96 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the Metrics class.  Metrics are
+ * enabled only by a system property read when the class is loaded, so
+ * the checks run in a JVM of their own, started with it set.
+ */
+public class MetricsTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /**
+     * Check the metrics of converting messages, exiting with status 1
+     * and a message on the standard output if any is wrong.  Run with
+     * -Denigma.metrics=true.
+     */
+    public static void main(String[] ignored) throws JMException {
+        try {
+            check();
+        } catch (AssertionError excp) {
+            System.out.println(excp.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Check that converting messages advances the counters, and that
+     * the MBean reports them.
+     */
+    private static void check() throws JMException {
+        assertTrue("metrics not enabled", Metrics.ENABLED);
+        Metrics metrics = Metrics.METRICS;
+        metrics.reset();
+        Machine machine = threeRotorMachine();
+        machine.insertRotors(new String[] {"B", "III", "I", "II"});
+        machine.setRotors("FLO");
+        machine.convert("HELLOWORLD");
+        machine.convert("ABC");
+        assertEquals(13, metrics.getCharsConverted());
+        assertEquals(2, metrics.getMessagesConverted());
+        assertEquals(13, metrics.getRotations());
+        machine.convert(0);
+        assertEquals(13, metrics.getRotations());
+        machine.insertRotors(new String[] {"B", "I", "II", "III"});
+        assertEquals(14, metrics.getRotations());
+        assertTrue(metrics.getConvertNanos() > 0);
+        assertTrue(metrics.getCharsPerSecond() > 0);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("enigma:type=Metrics");
+        assertEquals(13L, server.getAttribute(name, "CharsConverted"));
+        assertEquals(2L, server.getAttribute(name, "MessagesConverted"));
+        assertEquals(14L, server.getAttribute(name, "Rotations"));
+        assertEquals(metrics.getConvertNanos(),
+                server.getAttribute(name, "ConvertNanos"));
+        assertTrue(((String) server.getAttribute(name, "Report"))
+                .contains("chars converted   13"));
+        server.invoke(name, "reset", null, null);
+        assertEquals(0, metrics.getCharsConverted());
+        assertEquals(0, metrics.getRotations());
+    }
+
+    @Test
+    public void testCountersAndMBean() throws IOException,
+        InterruptedException {
+        Process process = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString(), "-Denigma.metrics=true", "-cp",
+                System.getProperty("java.class.path"),
+                MetricsTest.class.getName())
+            .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8);
+        assertEquals(output, 0, process.waitFor());
+    }
+}
@@ -47,6 +47,11 @@ class MovingRotor extends Rotor {
                         alphabet().toChar(currSetting))));
     }
 
+    @Override
+    String notches() {
+        return _notches;
+    }
+
     /**
      * simply advance the setting of the moving rotor by one.
      */
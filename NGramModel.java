@@ -0,0 +1,370 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * Log-probabilities of the n-grams of some language over an alphabet,
+ * used to score candidate decryptions.  The n-gram c1 c2 ... cn, as
+ * alphabet indices, has key ((c1 * size + c2) * size + ...) + cn and
+ * its base-10 log-probability is entry key of a flat table, so scoring
+ * a text is a rolling computation over primitive arrays.
+ * Models are saved in a binary file: a header naming the alphabet and
+ * n, followed by the table in key order as 32-bit floats or as 16-bit
+ * values quantized linearly between the smallest and largest entry.
+ * Loading maps the file, so its bytes are never read into a heap buffer,
+ * and decodes the table in bulk, with no parsing per entry, into a float
+ * array on the heap.  That copy costs the table's size in heap and one
+ * pass over it at startup, but the scoring loops index a float array,
+ * which is faster than reading a buffer and, for a quantized table,
+ * does not decode an entry at every lookup.
+ */
+final class NGramModel {
+
+    /**
+     * A model of N-grams over ALPHA whose log-probabilities are TABLE,
+     * indexed by key.
+     */
+    NGramModel(Alphabet alpha, int n, float[] table) {
+        if (n < 1 || Math.pow(alpha.size(), n) > MAX_TABLE) {
+            throw error("Error: bad n-gram length %d", n);
+        }
+        _alphabet = alpha;
+        _n = n;
+        int span = 1;
+        for (int i = 1; i < n; i += 1) {
+            span *= alpha.size();
+        }
+        _span = span;
+        if (table.length != span * alpha.size()) {
+            throw error("Error: n-gram table has %d entries, not %d",
+                    table.length, span * alpha.size());
+        }
+        _table = table;
+    }
+
+    /**
+     * Return a model of the N-grams in CORPUS over ALPHA.  Characters of
+     * CORPUS not in ALPHA are dropped, after trying their upper-case
+     * form, so that n-grams may span words.  N-grams never seen get a
+     * small probability rather than none.
+     */
+    static NGramModel train(Alphabet alpha, int n, CharSequence corpus) {
+        int size = alpha.size();
+        int[] index = new int[Character.MAX_VALUE + 1];
+        Arrays.fill(index, -1);
+        for (int i = 0; i < size; i += 1) {
+            index[alpha.toChar(i)] = i;
+        }
+        long entries = (long) Math.pow(size, n);
+        if (n < 1 || entries > MAX_TABLE) {
+            throw error("Error: bad n-gram length %d", n);
+        }
+        long[] counts = new long[(int) entries];
+        int span = (int) (entries / size);
+        long total = 0;
+        int key = 0;
+        int run = 0;
+        for (int i = 0; i < corpus.length(); i += 1) {
+            char ch = corpus.charAt(i);
+            int c = index[ch];
+            if (c < 0) {
+                c = index[Character.toUpperCase(ch)];
+            }
+            if (c < 0) {
+                continue;
+            }
+            key = (key % span) * size + c;
+            run += 1;
+            if (run >= n) {
+                counts[key] += 1;
+                total += 1;
+            }
+        }
+        if (total == 0) {
+            throw error("Error: corpus has no %d-grams", n);
+        }
+        float[] table = new float[counts.length];
+        double floor = Math.log10(UNSEEN / total);
+        for (int k = 0; k < table.length; k += 1) {
+            table[k] = (float) (counts[k] == 0 ? floor
+                    : Math.log10((double) counts[k] / total));
+        }
+        return new NGramModel(alpha, n, table);
+    }
+
+    /**
+     * Return a model of the N-grams over ALPHA in the text file NAME.
+     */
+    static NGramModel trainFile(Alphabet alpha, int n, String name) {
+        try {
+            return train(alpha, n, Files.readString(Paths.get(name)));
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+    }
+
+    /**
+     * Return the model in the file NAME if it is a saved model, which
+     * must be over ALPHA, and otherwise a model of the N-grams over ALPHA
+     * in the text file NAME.
+     */
+    static NGramModel open(Alphabet alpha, int n, String name) {
+        Path file = Paths.get(name);
+        if (isSaved(file)) {
+            NGramModel model = load(file);
+            if (!Arrays.equals(model.alphabet().alphabetArray(),
+                    alpha.alphabetArray())) {
+                throw error("Error: %s is a model for another alphabet",
+                        name);
+            }
+            return model;
+        }
+        return trainFile(alpha, n, name);
+    }
+
+    /**
+     * Return true iff FILE starts like a saved model.
+     */
+    static boolean isSaved(Path file) {
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                continue;
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /**
+     * Save me in FILE, with the table quantized to 16 bits iff QUANTIZE.
+     */
+    void save(Path file, boolean quantize) {
+        char[] chars = _alphabet.alphabetArray();
+        int header = headerSize(chars.length);
+        ByteBuffer buf = ByteBuffer.allocate(header
+                + _table.length * (quantize ? 2 : 4));
+        float lo = _table[0];
+        float hi = _table[0];
+        for (float v : _table) {
+            lo = Math.min(lo, v);
+            hi = Math.max(hi, v);
+        }
+        float scale = hi > lo ? (hi - lo) / QUANTA : 1;
+        buf.putInt(MAGIC).putInt(_n).putInt(quantize ? SHORTS : FLOATS)
+            .putFloat(lo).putFloat(scale).putInt(chars.length);
+        for (char c : chars) {
+            buf.putChar(c);
+        }
+        buf.position(header);
+        if (quantize) {
+            for (float v : _table) {
+                buf.putShort((short) (Math.round((v - lo) / scale)
+                        + Short.MIN_VALUE));
+            }
+        } else {
+            buf.asFloatBuffer().put(_table);
+        }
+        Checkpoint.writeAtomically(file, buf.array(), false);
+    }
+
+    /**
+     * Return the model saved in FILE, with its table decoded onto the
+     * heap.
+     */
+    static NGramModel load(Path file) {
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+        try {
+            if (buf.getInt() != MAGIC) {
+                throw error("%s is not an n-gram model", file);
+            }
+            int n = buf.getInt();
+            int encoding = buf.getInt();
+            float lo = buf.getFloat();
+            float scale = buf.getFloat();
+            char[] chars = new char[buf.getInt()];
+            for (int i = 0; i < chars.length; i += 1) {
+                chars[i] = buf.getChar();
+            }
+            Alphabet alpha = new Alphabet(new String(chars));
+            long entries = (long) Math.pow(chars.length, n);
+            if (n < 1 || entries > MAX_TABLE) {
+                throw error("Error: bad n-gram length %d", n);
+            }
+            float[] table = new float[(int) entries];
+            buf.position(headerSize(chars.length));
+            if (encoding == FLOATS) {
+                buf.asFloatBuffer().get(table);
+            } else if (encoding == SHORTS) {
+                short[] quanta = new short[table.length];
+                buf.asShortBuffer().get(quanta);
+                for (int k = 0; k < table.length; k += 1) {
+                    table[k] = lo + (quanta[k] - Short.MIN_VALUE) * scale;
+                }
+            } else {
+                throw error("%s has unknown encoding %d", file, encoding);
+            }
+            return new NGramModel(alpha, n, table);
+        } catch (BufferUnderflowException | IllegalArgumentException excp) {
+            throw error("%s is not a valid n-gram model", file);
+        }
+    }
+
+    /**
+     * Return the size of the header of a saved model over an alphabet
+     * of SIZE characters, rounded up so that the table is aligned.
+     */
+    private static int headerSize(int size) {
+        return (6 * 4 + 2 * size + 7) & ~7;
+    }
+
+    /**
+     * Return my alphabet.
+     */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /**
+     * Return the length of my n-grams.
+     */
+    int n() {
+        return _n;
+    }
+
+    /**
+     * Return the number of keys of (n-1)-grams; the key of the last
+     * n-1 characters of an n-gram with key K is K % span().
+     */
+    int span() {
+        return _span;
+    }
+
+    /**
+     * Return my table of log-probabilities, indexed by key.  The
+     * array is shared, not copied, and must not be modified.
+     */
+    float[] table() {
+        return _table;
+    }
+
+    /**
+     * Return the log-probability of the n-gram with key KEY.
+     */
+    float logProb(int key) {
+        return _table[key];
+    }
+
+    /**
+     * Return the sum of the log-probabilities of every n-gram in the
+     * LEN characters of TEXT starting at FROM.
+     */
+    double score(int[] text, int from, int len) {
+        double sum = 0;
+        int size = _alphabet.size();
+        int key = 0;
+        for (int k = from; k < from + len; k += 1) {
+            key = (key % _span) * size + text[k];
+            if (k - from >= _n - 1) {
+                sum += _table[key];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Build and save a model, as specified by ARGS:
+     *   [--n=N] [--quantize] CONFIG CORPUS MODEL
+     * where CONFIG is a configuration file giving the alphabet, CORPUS a
+     * text and MODEL the file to write.  Saves the N-grams (default 4)
+     * of CORPUS, quantized to 16 bits iff --quantize.
+     */
+    public static void main(String... args) {
+        try {
+            Options options = new Options(args);
+            String[] files = options.positional();
+            if (files.length != 3) {
+                throw error("usage: NGramModel [options] CONFIG CORPUS "
+                        + "MODEL");
+            }
+            Alphabet alpha = Main.machineFor(files[0]).alphabet();
+            NGramModel model = trainFile(alpha, options.intValue("n", 4),
+                    files[1]);
+            model.save(Paths.get(files[2]), options.flag("quantize"));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /**
+     * Largest number of table entries allowed.
+     */
+    static final int MAX_TABLE = 1 << 26;
+
+    /**
+     * Count assumed for n-grams absent from the corpus.
+     */
+    private static final double UNSEEN = 0.01;
+
+    /**
+     * Marks the start of a saved model.
+     */
+    private static final int MAGIC = 0x4e474d31;
+
+    /**
+     * Encoding of a saved table as floats.
+     */
+    private static final int FLOATS = 0;
+
+    /**
+     * Encoding of a saved table as quantized shorts.
+     */
+    private static final int SHORTS = 1;
+
+    /**
+     * Number of quantization steps between the smallest and largest
+     * entries of a quantized table.
+     */
+    private static final int QUANTA = 65535;
+
+    /**
+     * Alphabet of my n-grams.
+     */
+    private final Alphabet _alphabet;
+
+    /**
+     * Length of my n-grams.
+     */
+    private final int _n;
+
+    /**
+     * Number of (n-1)-grams.
+     */
+    private final int _span;
+
+    /**
+     * Log-probability of each n-gram, by key.
+     */
+    private final float[] _table;
+}
@@ -0,0 +1,82 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the NGramModel class.
+ */
+public class NGramModelTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testTrain() {
+        Alphabet alpha = new Alphabet("ABC");
+        NGramModel model = NGramModel.train(alpha, 2, "ab ab, ab! AC");
+        assertEquals(2, model.n());
+        assertEquals(3, model.span());
+        assertEquals(9, model.table().length);
+        assertEquals(Math.log10(3.0 / 7), model.logProb(1), 1e-6);
+        assertEquals(Math.log10(3.0 / 7), model.logProb(3), 1e-6);
+        assertEquals(Math.log10(1.0 / 7), model.logProb(2), 1e-6);
+        assertTrue(model.logProb(8) < model.logProb(2));
+        assertEquals(model.logProb(8), model.logProb(4), 0);
+    }
+
+    @Test
+    public void testScore() {
+        Alphabet alpha = new Alphabet("ABC");
+        NGramModel model = NGramModel.train(alpha, 3, "ABCABCABCAB");
+        int[] text = alpha.toInts("CABCA");
+        double expected = model.logProb(2 * 9 + 0 * 3 + 1)
+                + model.logProb(0 * 9 + 1 * 3 + 2)
+                + model.logProb(1 * 9 + 2 * 3 + 0);
+        assertEquals(expected, model.score(text, 0, 5), 1e-6);
+        assertEquals(model.logProb(1 * 9 + 2 * 3 + 0),
+                model.score(text, 2, 3), 1e-6);
+        assertEquals(0, model.score(text, 0, 2), 0);
+        assertTrue(model.score(alpha.toInts("ABCAB"), 0, 5)
+                > model.score(alpha.toInts("ACBAC"), 0, 5));
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException {
+        Alphabet alpha = new Alphabet("XYZ\u00c4");
+        NGramModel model = NGramModel.train(alpha, 3,
+                "XYZ\u00c4XXYZYZ\u00c4\u00c4ZXY");
+        Path file = Files.createTempFile("ngram", ".bin");
+        try {
+            model.save(file, false);
+            assertTrue(NGramModel.isSaved(file));
+            NGramModel exact = NGramModel.load(file);
+            assertEquals("XYZ\u00c4", new String(
+                    exact.alphabet().alphabetArray()));
+            assertEquals(3, exact.n());
+            assertArrayEquals(model.table(), exact.table(), 0);
+            model.save(file, true);
+            NGramModel quantized = NGramModel.open(alpha, 2,
+                    file.toString());
+            assertEquals(3, quantized.n());
+            float[] table = model.table();
+            float step = 0;
+            for (float v : table) {
+                step = Math.max(step, Math.abs(v - table[0]));
+            }
+            assertArrayEquals(table, quantized.table(), step / 65535 + 1e-6f);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
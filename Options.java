@@ -0,0 +1,88 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * Command-line options of the form --NAME or --NAME=VALUE, preceding
+ * the positional arguments.
+ */
+final class Options {
+
+    /**
+     * The options and positional arguments in ARGS.
+     */
+    Options(String[] args) {
+        int k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+            int eq = args[k].indexOf('=');
+            if (eq < 0) {
+                _values.put(args[k].substring(2), "");
+            } else {
+                _values.put(args[k].substring(2, eq),
+                        args[k].substring(eq + 1));
+            }
+        }
+        _positional = Arrays.copyOfRange(args, k, args.length);
+    }
+
+    /**
+     * Return the positional arguments.
+     */
+    String[] positional() {
+        return _positional;
+    }
+
+    /**
+     * Return true iff option NAME was given.
+     */
+    boolean flag(String name) {
+        return _values.containsKey(name);
+    }
+
+    /**
+     * Return the value of option NAME, or DEFLT if it was not given.
+     */
+    String value(String name, String deflt) {
+        return _values.getOrDefault(name, deflt);
+    }
+
+    /**
+     * Return the integer value of option NAME, or DEFLT if it was not
+     * given.
+     */
+    int intValue(String name, int deflt) {
+        String value = _values.get(name);
+        try {
+            return value == null ? deflt : Integer.parseInt(value);
+        } catch (NumberFormatException excp) {
+            throw error("bad value for --%s: %s", name, value);
+        }
+    }
+
+    /**
+     * Return the floating-point value of option NAME, or DEFLT if it
+     * was not given.
+     */
+    double doubleValue(String name, double deflt) {
+        String value = _values.get(name);
+        try {
+            return value == null ? deflt : Double.parseDouble(value);
+        } catch (NumberFormatException excp) {
+            throw error("bad value for --%s: %s", name, value);
+        }
+    }
+
+    /**
+     * Values of the options given, "" for those without one.
+     */
+    private final Map<String, String> _values = new HashMap<>();
+
+    /**
+     * Arguments following the options.
+     */
+    private final String[] _positional;
+}
@@ -21,6 +21,8 @@ class Permutation {
      * Whitespace is ignored.
      */
     Permutation(String cycles, Alphabet alphabet) {
+        Events.PermutationBuild event = new Events.PermutationBuild();
+        event.begin();
         _alphabet = alphabet;
         _cyclesString = cycles.replaceAll("\\s+", "");
         _cyclesArray = _cyclesString.split("\\)");
@@ -31,6 +33,12 @@ class Permutation {
                 _cyclesArray[i] = _cyclesArray[i].replaceAll("\\(", "");
             }
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.alphabetSize = alphabet.size();
+            event.cyclesLength = _cyclesString.length();
+            event.commit();
+        }
     }
 
 
@@ -164,6 +172,18 @@ class Permutation {
         throw error("Error: this shouldn't occur");
     }
 
+    /**
+     * Return this permutation as an array, whose entry I is permute(I),
+     * for PermutationArrays.  The array is new on every call.
+     */
+    int[] toArray() {
+        int[] result = new int[size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = permute(i);
+        }
+        return result;
+    }
+
     /**
      * Return the alphabet used to initialize this Permutation.
      */
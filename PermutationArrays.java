@@ -0,0 +1,235 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * Algebra on permutations of 0 .. n-1 held as primitive arrays, entry X
+ * of a permutation being the image of X, as from Permutation.toArray.
+ * Each operation has a variant that writes its result into an array the
+ * caller provides and returns it, using any scratch space the caller
+ * also provides, so that bulk algebra allocates nothing; the others
+ * return new arrays.  Arguments are not checked to be permutations,
+ * only to have matching lengths.
+ */
+final class PermutationArrays {
+
+    /**
+     * Not instantiable.
+     */
+    private PermutationArrays() {
+    }
+
+    /**
+     * Return the identity permutation of SIZE elements.
+     */
+    static int[] identity(int size) {
+        return identity(new int[size]);
+    }
+
+    /**
+     * Set INTO to the identity permutation and return it.
+     */
+    static int[] identity(int[] into) {
+        for (int x = 0; x < into.length; x += 1) {
+            into[x] = x;
+        }
+        return into;
+    }
+
+    /**
+     * Return true iff P maps 0 .. P.length-1 one to one onto itself.
+     */
+    static boolean isPermutation(int[] p) {
+        boolean[] hit = new boolean[p.length];
+        for (int y : p) {
+            if (y < 0 || y >= p.length || hit[y]) {
+                return false;
+            }
+            hit[y] = true;
+        }
+        return true;
+    }
+
+    /**
+     * Return the permutation that applies P and then Q.
+     */
+    static int[] compose(int[] p, int[] q) {
+        return compose(p, q, new int[p.length]);
+    }
+
+    /**
+     * Set INTO to the permutation that applies P and then Q, and return
+     * it.  INTO may be P, but not Q.
+     */
+    static int[] compose(int[] p, int[] q, int[] into) {
+        checkSizes(p, q, into);
+        for (int x = 0; x < p.length; x += 1) {
+            into[x] = q[p[x]];
+        }
+        return into;
+    }
+
+    /**
+     * Return the inverse of P.
+     */
+    static int[] inverse(int[] p) {
+        return inverse(p, new int[p.length]);
+    }
+
+    /**
+     * Set INTO, which must not be P, to the inverse of P and return it.
+     */
+    static int[] inverse(int[] p, int[] into) {
+        checkSizes(p, p, into);
+        for (int x = 0; x < p.length; x += 1) {
+            into[p[x]] = x;
+        }
+        return into;
+    }
+
+    /**
+     * Return P conjugated by a rotation of OFFSET positions: the wiring
+     * P presents when turned OFFSET positions, which takes X to
+     * P[X + OFFSET] - OFFSET, modulo the size.
+     */
+    static int[] conjugate(int[] p, int offset) {
+        return conjugate(p, offset, new int[p.length]);
+    }
+
+    /**
+     * Set INTO, which must not be P, to P conjugated by a rotation of
+     * OFFSET positions, as for conjugate(P, OFFSET), and return it.
+     */
+    static int[] conjugate(int[] p, int offset, int[] into) {
+        checkSizes(p, p, into);
+        int n = p.length;
+        if (n == 0) {
+            return into;
+        }
+        int o = Math.floorMod(offset, n);
+        for (int x = 0; x < n; x += 1) {
+            int y = x + o;
+            int z = p[y >= n ? y - n : y] - o;
+            into[x] = z < 0 ? z + n : z;
+        }
+        return into;
+    }
+
+    /**
+     * Return P applied K times, or its inverse applied -K times if K is
+     * negative.
+     */
+    static int[] power(int[] p, int k) {
+        return power(p, k, new int[p.length], new int[p.length]);
+    }
+
+    /**
+     * Set INTO to P applied K times, or its inverse applied -K times if
+     * K is negative, by repeated squaring, and return it.  SCRATCH is
+     * space for one permutation.  Neither may be P.
+     */
+    static int[] power(int[] p, int k, int[] into, int[] scratch) {
+        checkSizes(p, into, scratch);
+        long e = Math.abs((long) k);
+        identity(into);
+        for (int bit = Long.SIZE - 1 - Long.numberOfLeadingZeros(e);
+             bit >= 0; bit -= 1) {
+            compose(into, into, scratch);
+            if ((e >>> bit & 1) != 0) {
+                compose(scratch, p, into);
+            } else {
+                System.arraycopy(scratch, 0, into, 0, into.length);
+            }
+        }
+        if (k < 0) {
+            inverse(into, scratch);
+            System.arraycopy(scratch, 0, into, 0, into.length);
+        }
+        return into;
+    }
+
+    /**
+     * Return the cycle type of P: entry L is its number of cycles of
+     * length L, for 1 <= L <= P.length.
+     */
+    static int[] cycleType(int[] p) {
+        return cycleType(p, new int[p.length + 1],
+                new long[(p.length + Long.SIZE - 1) / Long.SIZE]);
+    }
+
+    /**
+     * Set INTO, of at least P.length + 1 entries, to the cycle type of P,
+     * as for cycleType(P), and return it.  SEEN is space for a bitset of
+     * P.length bits, unused if that fits in a long.
+     */
+    static int[] cycleType(int[] p, int[] into, long[] seen) {
+        if (into.length <= p.length
+            || (long) seen.length * Long.SIZE < p.length) {
+            throw error("Error: cycle type buffers too small");
+        }
+        Arrays.fill(into, 0);
+        if (p.length <= Long.SIZE) {
+            long small = 0;
+            for (int x = 0; x < p.length; x += 1) {
+                if ((small & 1L << x) != 0) {
+                    continue;
+                }
+                int length = 0;
+                for (int y = x; (small & 1L << y) == 0; y = p[y]) {
+                    small |= 1L << y;
+                    length += 1;
+                }
+                into[length] += 1;
+            }
+            return into;
+        }
+        Arrays.fill(seen, 0);
+        for (int x = 0; x < p.length; x += 1) {
+            if ((seen[x >>> 6] & 1L << x) != 0) {
+                continue;
+            }
+            int length = 0;
+            for (int y = x; (seen[y >>> 6] & 1L << y) == 0; y = p[y]) {
+                seen[y >>> 6] |= 1L << y;
+                length += 1;
+            }
+            into[length] += 1;
+        }
+        return into;
+    }
+
+    /**
+     * Return true iff P maps no element to itself.
+     */
+    static boolean isDerangement(int[] p) {
+        for (int x = 0; x < p.length; x += 1) {
+            if (p[x] == x) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return true iff P is its own inverse.
+     */
+    static boolean isInvolution(int[] p) {
+        for (int x = 0; x < p.length; x += 1) {
+            if (p[p[x]] != x) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Throw an error unless A, B and C have the same length.
+     */
+    private static void checkSizes(int[] a, int[] b, int[] c) {
+        if (a.length != b.length || a.length != c.length) {
+            throw error("Error: permutations of different sizes");
+        }
+    }
+}
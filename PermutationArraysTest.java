@@ -0,0 +1,120 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the PermutationArrays class.
+ */
+public class PermutationArraysTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /**
+     * Return a random permutation of SIZE elements from RANDOM.
+     */
+    private static int[] randomPermutation(Random random, int size) {
+        int[] result = PermutationArrays.identity(size);
+        for (int i = size - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    @Test
+    public void testToArray() {
+        Permutation perm = new Permutation(NAVALA.get("I"), UPPER);
+        int[] array = perm.toArray();
+        for (int i = 0; i < array.length; i += 1) {
+            assertEquals(perm.permute(i), array[i]);
+        }
+        assertTrue(PermutationArrays.isPermutation(array));
+        int[] reflector = new Permutation(NAVALA.get("B"), UPPER).toArray();
+        assertTrue(PermutationArrays.isDerangement(reflector));
+        assertTrue(PermutationArrays.isInvolution(reflector));
+        assertFalse(PermutationArrays.isInvolution(array));
+        assertFalse(PermutationArrays.isPermutation(new int[] {0, 0, 1}));
+    }
+
+    @Test
+    public void testComposeInverseConjugate() {
+        Random random = new Random(49);
+        for (int size : new int[] {1, 2, 26, 100}) {
+            int[] p = randomPermutation(random, size);
+            int[] q = randomPermutation(random, size);
+            int[] pq = PermutationArrays.compose(p, q);
+            int[] inv = PermutationArrays.inverse(p);
+            for (int x = 0; x < size; x += 1) {
+                assertEquals(q[p[x]], pq[x]);
+                assertEquals(x, inv[p[x]]);
+            }
+            assertArrayEquals(PermutationArrays.identity(size),
+                    PermutationArrays.compose(p, inv));
+            for (int o = -size; o <= 2 * size; o += 1) {
+                int[] c = PermutationArrays.conjugate(p, o);
+                for (int x = 0; x < size; x += 1) {
+                    int expected = Math.floorMod(
+                            p[Math.floorMod(x + o, size)] - o, size);
+                    assertEquals(expected, c[x]);
+                }
+            }
+            int[] into = p.clone();
+            PermutationArrays.compose(into, q, into);
+            assertArrayEquals(pq, into);
+        }
+    }
+
+    @Test
+    public void testPower() {
+        Random random = new Random(50);
+        int[] p = randomPermutation(random, 40);
+        int[] into = new int[40], scratch = new int[40];
+        int[] expected = PermutationArrays.identity(40);
+        for (int k = 0; k <= 70; k += 1) {
+            assertArrayEquals(expected,
+                    PermutationArrays.power(p, k, into, scratch));
+            assertArrayEquals(PermutationArrays.inverse(expected),
+                    PermutationArrays.power(p, -k));
+            expected = PermutationArrays.compose(expected, p);
+        }
+        int[] cycle = {1, 2, 0};
+        assertArrayEquals(cycle,
+                PermutationArrays.power(cycle, Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void testCycleType() {
+        Random random = new Random(51);
+        for (int size : new int[] {1, 26, 64, 65, 200}) {
+            int[] p = randomPermutation(random, size);
+            int[] expected = new int[size + 1];
+            boolean[] seen = new boolean[size];
+            for (int x = 0; x < size; x += 1) {
+                int length = 0;
+                for (int y = x; !seen[y]; y = p[y]) {
+                    seen[y] = true;
+                    length += 1;
+                }
+                if (length > 0) {
+                    expected[length] += 1;
+                }
+            }
+            assertArrayEquals(expected, PermutationArrays.cycleType(p));
+        }
+        int[] reflector = new Permutation(NAVALA.get("B"), UPPER).toArray();
+        assertEquals(13, PermutationArrays.cycleType(reflector)[2]);
+    }
+}
@@ -0,0 +1,431 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * Recovery of the plugboard of a machine whose rotors and positions are
+ * known, by simulated annealing over plugboard pairs.  A candidate
+ * plugboard is scored by the n-gram log-probability of the decryption
+ * it gives.  Each restart starts from a random plugboard, tries moves
+ * that make, break or exchange pairs, accepting worse plugboards with a
+ * probability that falls as the temperature cools, and ends with plain
+ * hill-climbing.  Restarts are spread over a pool of threads.
+ * The rotor scramblers at each position are computed once, and each
+ * thread keeps a DeltaDecryptor, so that trying a move rescores only
+ * the positions whose decryption it changes, touching nothing but
+ * primitive arrays and allocating nothing.
+ */
+final class PlugboardSolver {
+
+    /**
+     * A solver for CIPHERTEXT as enciphered on MACHINE from its current
+     * settings, whose plugboard is ignored, scoring with MODEL and
+     * allowing at most MAXPAIRS plugboard pairs.  Steps MACHINE through
+     * the ciphertext.
+     */
+    PlugboardSolver(FastMachine machine, int[] ciphertext, NGramModel model,
+                    int maxPairs) {
+        _size = machine.size();
+        if (model.alphabet().size() != _size) {
+            throw error("Error: n-gram model is for a different alphabet");
+        }
+        if (maxPairs < 0 || 2 * maxPairs > _size) {
+            throw error("Error: bad number of plugboard pairs: %d",
+                    maxPairs);
+        }
+        _ciphertext = ciphertext;
+        _model = model;
+        _maxPairs = maxPairs;
+        _scramblers = DeltaDecryptor.scramblers(machine, ciphertext.length);
+    }
+
+    /**
+     * Return the best plugboard found by RESTARTS annealing runs, each
+     * of PASSES cooling passes from temperature TEMPERATURE, spread over
+     * PARALLELISM threads.  Restart R draws its random numbers from a
+     * generator seeded by SEED and R and starts from the same order of
+     * moves whichever thread runs it, and ties go to the lowest R, so
+     * results do not depend on scheduling.
+     */
+    Solution solve(int restarts, int passes, double temperature,
+                   int parallelism, long seed) {
+        synchronized (this) {
+            _best = null;
+            _bestRestart = -1;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, restarts).parallel()
+                    .forEach(r -> restart(r, passes, temperature, seed)))
+                    .join();
+        } finally {
+            pool.shutdown();
+        }
+        synchronized (this) {
+            return _best;
+        }
+    }
+
+    /**
+     * Run restart number R of PASSES passes from TEMPERATURE with a
+     * generator seeded by SEED, recording the result if it is the best
+     * so far, or as good and from an earlier restart.
+     */
+    private void restart(int r, int passes, double temperature, long seed) {
+        Worker w = _workers.get();
+        w.resetMoves();
+        SplittableRandom random = new SplittableRandom(seed + r * GOLDEN);
+        int[] plug = w.plug;
+        for (int x = 0; x < _size; x += 1) {
+            plug[x] = x;
+        }
+        int pairs = random.nextInt(_maxPairs + 1);
+        for (int i = 0; i < pairs; i += 1) {
+            int a = random.nextInt(_size);
+            int b = random.nextInt(_size);
+            if (a != b && plug[a] == a && plug[b] == b) {
+                plug[a] = b;
+                plug[b] = a;
+            }
+        }
+        w.pairs = countPairs(plug);
+        w.delta.setPlugboard(plug);
+        double score = w.delta.score();
+        for (int pass = 0; pass < passes; pass += 1) {
+            double t = temperature * (passes - pass) / passes;
+            score = pass(w, random, score, t);
+        }
+        double previous;
+        do {
+            previous = score;
+            score = pass(w, random, score, 0);
+        } while (score > previous);
+        synchronized (this) {
+            if (_best == null || score > _best.score()
+                    || score == _best.score() && r < _bestRestart) {
+                _best = new Solution(plug.clone(), score);
+                _bestRestart = r;
+            }
+        }
+    }
+
+    /**
+     * Try one move for every pair of characters, in random order, on
+     * W's plugboard, whose score is SCORE, accepting a worse plugboard
+     * with probability exp(loss / T), or never if T is 0.  Uses RANDOM
+     * for the order and acceptance.  Return the score of the resulting
+     * plugboard.
+     */
+    private double pass(Worker w, SplittableRandom random, double score,
+                        double t) {
+        int[] moves = w.moves;
+        for (int i = moves.length - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            int m = moves[i];
+            moves[i] = moves[j];
+            moves[j] = m;
+        }
+        int[] plug = w.plug;
+        int[] saved = w.saved;
+        for (int m : moves) {
+            System.arraycopy(plug, 0, saved, 0, _size);
+            int savedPairs = w.pairs;
+            if (!move(w, m / _size, m % _size, random.nextBoolean())) {
+                continue;
+            }
+            double next = w.delta.update(plug);
+            if (next >= score
+                    || t > 0 && random.nextDouble()
+                    < Math.exp((next - score) / t)) {
+                score = next;
+            } else {
+                System.arraycopy(saved, 0, plug, 0, _size);
+                w.pairs = savedPairs;
+                w.delta.revert();
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Change W's plugboard for the characters A and B: unplug them if
+     * they are paired, else pair them, first unplugging their partners,
+     * which are paired with each other instead iff EXCHANGE.  Return
+     * false, leaving the plugboard alone, if the result would have too
+     * many pairs.
+     */
+    private boolean move(Worker w, int a, int b, boolean exchange) {
+        int[] plug = w.plug;
+        int pa = plug[a];
+        int pb = plug[b];
+        if (pa == b) {
+            plug[a] = a;
+            plug[b] = b;
+            w.pairs -= 1;
+            return true;
+        }
+        int pairs = w.pairs + 1;
+        if (pa != a) {
+            plug[pa] = pa;
+            pairs -= 1;
+        }
+        if (pb != b) {
+            plug[pb] = pb;
+            pairs -= 1;
+        }
+        if (exchange && pa != a && pb != b) {
+            plug[pa] = pb;
+            plug[pb] = pa;
+            pairs += 1;
+        }
+        if (pairs > _maxPairs) {
+            plug[pa] = a;
+            plug[pb] = b;
+            return false;
+        }
+        plug[a] = b;
+        plug[b] = a;
+        w.pairs = pairs;
+        return true;
+    }
+
+    /**
+     * Return the number of pairs in plugboard PLUG.
+     */
+    private int countPairs(int[] plug) {
+        int pairs = 0;
+        for (int x = 0; x < _size; x += 1) {
+            if (plug[x] > x) {
+                pairs += 1;
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Return my ciphertext decrypted with plugboard PLUG.
+     */
+    int[] decrypt(int[] plug) {
+        int[] result = new int[_ciphertext.length];
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = plug[_scramblers[k * _size + plug[_ciphertext[k]]]];
+        }
+        return result;
+    }
+
+    /**
+     * A plugboard and its score.
+     */
+    static final class Solution {
+
+        /**
+         * A solution with plugboard PLUG scoring SCORE.
+         */
+        Solution(int[] plug, double score) {
+            _plug = plug;
+            _score = score;
+        }
+
+        /**
+         * Return my plugboard, mapping each index to its partner.
+         */
+        int[] plug() {
+            return _plug.clone();
+        }
+
+        /**
+         * Return my score; larger is better.
+         */
+        double score() {
+            return _score;
+        }
+
+        /**
+         * Return my pairs in the cycle notation of setup lines, over
+         * ALPHA.
+         */
+        String cycles(Alphabet alpha) {
+            List<String> pairs = new ArrayList<>();
+            for (int x = 0; x < _plug.length; x += 1) {
+                if (_plug[x] > x) {
+                    pairs.add("(" + alpha.toChar(x)
+                            + alpha.toChar(_plug[x]) + ")");
+                }
+            }
+            return String.join(" ", pairs);
+        }
+
+        /**
+         * Partner of each index.
+         */
+        private final int[] _plug;
+
+        /**
+         * Score of the decryption.
+         */
+        private final double _score;
+    }
+
+    /**
+     * Per-thread state: a plugboard being improved and scratch arrays.
+     */
+    private class Worker {
+
+        /**
+         * Decrypts and scores under plug.
+         */
+        final DeltaDecryptor delta =
+                new DeltaDecryptor(_scramblers, _ciphertext, _size, _model);
+
+        /**
+         * Current plugboard.
+         */
+        final int[] plug = new int[_size];
+
+        /**
+         * Plugboard before the last move.
+         */
+        final int[] saved = new int[_size];
+
+        /**
+         * Number of pairs in plug.
+         */
+        int pairs;
+
+        /**
+         * Every pair a < b of characters, as a * size + b.
+         */
+        final int[] moves = new int[_size * (_size - 1) / 2];
+
+        /**
+         * A worker with a fresh list of moves.
+         */
+        Worker() {
+            resetMoves();
+        }
+
+        /**
+         * Put moves back in increasing order, undoing the shuffles of
+         * earlier restarts.
+         */
+        void resetMoves() {
+            int i = 0;
+            for (int a = 0; a < _size; a += 1) {
+                for (int b = a + 1; b < _size; b += 1) {
+                    moves[i] = a * _size + b;
+                    i += 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Recover the plugboard of a ciphertext, as specified by ARGS:
+     *   [--n=N] [--pairs=P] [--restarts=R] [--passes=K]
+     *   [--temperature=T] [--seed=S] [--threads=T]
+     *   CONFIG CORPUS CIPHERTEXT SETTING
+     * where CONFIG is a configuration file, CORPUS a text in the
+     * language of the plaintext or a model saved by NGramModel,
+     * CIPHERTEXT a file holding the ciphertext and SETTING a setup line
+     * without plugboard.  Scores with N-grams (default 3) learned from
+     * CORPUS, or with the saved model, allows at most P
+     * pairs (default 10) and runs R restarts (default 64, or 4 per
+     * thread if more) of K annealing passes (default 16) from
+     * temperature T (default 3).
+     * Prints the setup line with the plugboard found and the
+     * decryption.
+     */
+    public static void main(String... args) {
+        try {
+            Options options = new Options(args);
+            String[] files = options.positional();
+            if (files.length != 4) {
+                throw error("usage: PlugboardSolver [options] CONFIG "
+                        + "CORPUS CIPHERTEXT SETTING");
+            }
+            Machine machine = Main.machineFor(files[0], files[3]);
+            Alphabet alpha = machine.alphabet();
+            NGramModel model = NGramModel.open(alpha,
+                    options.intValue("n", 3), files[1]);
+            int[] text = KeySearch.readCiphertext(alpha, files[2],
+                    Integer.MAX_VALUE);
+            int threads = options.intValue("threads",
+                    Runtime.getRuntime().availableProcessors());
+            PlugboardSolver solver = new PlugboardSolver(
+                    new FastMachine(machine), text, model,
+                    options.intValue("pairs", 10));
+            long start = System.nanoTime();
+            Solution best = solver.solve(
+                    options.intValue("restarts", Math.max(64, 4 * threads)),
+                    options.intValue("passes", 16),
+                    options.doubleValue("temperature", 3),
+                    threads, options.intValue("seed", 1));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s %s%n", files[3].trim(),
+                    best.cycles(alpha));
+            StringBuilder plain = new StringBuilder();
+            for (int c : solver.decrypt(best.plug())) {
+                plain.append(alpha.toChar(c));
+            }
+            System.out.println(plain);
+            System.err.printf("score %.2f in %.1fs%n", best.score(), seconds);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /**
+     * Spreads restart seeds over the space of generator seeds.
+     */
+    private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Size of the alphabet.
+     */
+    private final int _size;
+
+    /**
+     * The ciphertext, as indices.
+     */
+    private final int[] _ciphertext;
+
+    /**
+     * Scores decryptions.
+     */
+    private final NGramModel _model;
+
+    /**
+     * Largest number of plugboard pairs allowed.
+     */
+    private final int _maxPairs;
+
+    /**
+     * Rotor scrambler at each ciphertext position k, without plugboard,
+     * mapping x to _scramblers[k * size + x].
+     */
+    private final int[] _scramblers;
+
+    /**
+     * Best solution found, or null.
+     */
+    private Solution _best;
+
+    /**
+     * Number of the restart that found _best.
+     */
+    private int _bestRestart;
+
+    /**
+     * Per-thread workers.
+     */
+    private final ThreadLocal<Worker> _workers =
+            ThreadLocal.withInitial(Worker::new);
+}
@@ -0,0 +1,83 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the PlugboardSolver class.
+ */
+public class PlugboardSolverTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /**
+     * The plaintext, also the corpus the model learns from.
+     */
+    private static final String PLAIN =
+        "ITWASTHEBESTOFTIMESITWASTHEWORSTOFTIMESITWASTHEAGEOFWISDOM"
+        + "ITWASTHEAGEOFFOOLISHNESSITWASTHEEPOCHOFBELIEFITWASTHEEPOCH"
+        + "OFINCREDULITYITWASTHESEASONOFLIGHTITWASTHESEASONOFDARKNESS"
+        + "ITWASTHESPRINGOFHOPEITWASTHEWINTEROFDESPAIRWEHADEVERYTHING"
+        + "BEFOREUSWEHADNOTHINGBEFOREUSWEWEREALLGOINGDIRECTTOHEAVEN"
+        + "WEWEREALLGOINGDIRECTTHEOTHERWAY";
+
+    /**
+     * The plugboard of the key.
+     */
+    private static final String PLUGS =
+        "(AM) (FI) (NV) (PS) (TU) (WZ) (CK) (DH)";
+
+    /**
+     * Return a solver for PLAIN enciphered with rotors B III I II at
+     * KEY and plugboard PLUGS, allowing up to ten pairs.
+     */
+    private PlugboardSolver solver() {
+        Machine machine = threeRotorMachine();
+        machine.insertRotors(new String[] {"B", "III", "I", "II"});
+        machine.setRotors("KEY");
+        machine.setPlugboard(new Permutation(PLUGS, UPPER));
+        int[] text = UPPER.toInts(PLAIN);
+        for (int k = 0; k < text.length; k += 1) {
+            text[k] = machine.convert(text[k]);
+        }
+        machine.setRotors("KEY");
+        return new PlugboardSolver(new FastMachine(machine), text,
+                NGramModel.train(UPPER, 3, PLAIN), 10);
+    }
+
+    @Test
+    public void testRecoversPlugboard() {
+        PlugboardSolver solver = solver();
+        PlugboardSolver.Solution best = solver.solve(8, 8, 3, 1, 36);
+        Permutation plug = new Permutation(PLUGS, UPPER);
+        for (int x = 0; x < 26; x += 1) {
+            assertEquals(msg("plugboard", "partner of %c", UPPER.toChar(x)),
+                    plug.permute(x), best.plug()[x]);
+        }
+        assertArrayEquals(UPPER.toInts(PLAIN), solver.decrypt(best.plug()));
+    }
+
+    @Test
+    public void testIndependentOfThreads() {
+        PlugboardSolver solver = solver();
+        PlugboardSolver.Solution one = solver.solve(12, 2, 3, 1, 7);
+        PlugboardSolver.Solution four = solver.solve(12, 2, 3, 4, 7);
+        assertArrayEquals(one.plug(), four.plug());
+        assertEquals(one.score(), four.score(), 0);
+        PlugboardSolver.Solution again = solver().solve(12, 2, 3, 4, 7);
+        assertArrayEquals(one.plug(), again.plug());
+        assertEquals(one.score(), again.score(), 0);
+
+        PlugboardSolver.Solution worse = solver.solve(1, 0, 0, 1, 7);
+        assertTrue("solve() returned an earlier call's result",
+                worse.score() < one.score());
+    }
+}
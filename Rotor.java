@@ -78,10 +78,10 @@ class Rotor {
      * so an addition checker is implemented
      */
     void set(int posn) {
-        if (posn > _permutation.size()) {
+        if (posn < 0 || posn >= _permutation.size()) {
             throw error("Error: position out of bound");
         }
-        set(alphabet().toChar(posn));
+        _setting = posn;
     }
 
     /**Set setting() to character CPOSN.
@@ -100,6 +100,15 @@ class Rotor {
         _ringSetting = alphabet().toInt(cposn);
     }
 
+    /** set ring setting to POSN.
+     */
+    void setRingSet(int posn) {
+        if (posn < 0 || posn >= _permutation.size()) {
+            throw error("Error: ring setting out of bound");
+        }
+        _ringSetting = posn;
+    }
+
 
 
     /**
@@ -130,6 +139,14 @@ class Rotor {
         return false;
     }
 
+    /**
+     * Return the characters at which I allow the rotor to my left to
+     * advance.  By default, none.
+     */
+    String notches() {
+        return "";
+    }
+
     /**
      * Advance me one position, if possible. By default, does nothing.
      */
@@ -0,0 +1,293 @@
+package enigma;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * The rotors available to a machine, in catalog order.  A catalog read
+ * from a configuration file is only indexed up front: each entry's
+ * name, type and notches and the range of the text holding its cycles.
+ * An entry's Rotor is built from its cycles when first asked for,
+ * normally when Machine.insertRotors selects it, and its CompiledRotor
+ * when first asked for after that; both are kept for reuse.  So a run
+ * that uses five rotors of a catalog of thousands parses five.
+ * Names are looked up in a hash table; as before, the first of several
+ * entries with the same name is the one found.
+ */
+final class RotorCatalog {
+
+    /**
+     * A catalog of ROTORS, already built, in order.
+     */
+    RotorCatalog(Collection<Rotor> rotors) {
+        this(null, null, rotors.size());
+        int i = 0;
+        for (Rotor r : rotors) {
+            _names[i] = r.name();
+            _types[i] = r.reflecting() ? "R" : r.rotates()
+                    ? "M" + r.notches() : "N";
+            _rotors[i] = r;
+            _index.putIfAbsent(r.name(), i);
+            i += 1;
+        }
+    }
+
+    /**
+     * A catalog of SIZE entries over ALPHA whose cycles are in TEXT,
+     * with no entries filled in.
+     */
+    private RotorCatalog(Alphabet alpha, String text, int size) {
+        _alphabet = alpha;
+        _text = text;
+        _names = new String[size];
+        _types = new String[size];
+        _start = new int[size];
+        _end = new int[size];
+        _rotors = new Rotor[size];
+        _compiled = new CompiledRotor[size];
+        _index = new HashMap<>();
+    }
+
+    /**
+     * Return the catalog of rotors over ALPHA described in TEXT from
+     * character FROM to its end, in the format of a configuration file:
+     * for each rotor, its name, its type (R, N, or M followed by its
+     * notches) and the cycles of its permutation, as whitespace-separated
+     * tokens.  Only the names and types are checked here; the cycles
+     * are checked when the rotor is first built.
+     */
+    static RotorCatalog index(Alphabet alpha, String text, int from) {
+        List<int[]> entries = new ArrayList<>();
+        int at = skip(text, from);
+        while (at < text.length()) {
+            int nameEnd = token(text, at);
+            int typeStart = skip(text, nameEnd);
+            if (typeStart == text.length()) {
+                throw error("bad rotor description");
+            }
+            int typeEnd = token(text, typeStart);
+            char kind = text.charAt(typeStart);
+            if (kind != 'R' && kind != 'N' && kind != 'M') {
+                throw error("Error: bad rotor name, current rotor name is %s",
+                        text.substring(at, nameEnd));
+            }
+            int cyclesStart = skip(text, typeEnd);
+            int cyclesEnd = cyclesStart;
+            int next = cyclesStart;
+            while (next < text.length() && isCycle(text, next)) {
+                cyclesEnd = token(text, next);
+                next = skip(text, cyclesEnd);
+            }
+            entries.add(new int[] {at, nameEnd, typeStart, typeEnd,
+                cyclesStart, cyclesEnd});
+            at = next;
+        }
+        RotorCatalog result = new RotorCatalog(alpha, text, entries.size());
+        for (int i = 0; i < entries.size(); i += 1) {
+            int[] e = entries.get(i);
+            result._names[i] = text.substring(e[0], e[1]);
+            result._types[i] = text.substring(e[2], e[3]);
+            result._start[i] = e[4];
+            result._end[i] = e[5];
+            result._index.putIfAbsent(result._names[i], i);
+        }
+        return result;
+    }
+
+    /**
+     * Return the first position at or after AT in TEXT that is not
+     * whitespace.
+     */
+    private static int skip(String text, int at) {
+        while (at < text.length()
+               && Character.isWhitespace(text.charAt(at))) {
+            at += 1;
+        }
+        return at;
+    }
+
+    /**
+     * Return the end of the token starting at AT in TEXT.
+     */
+    private static int token(String text, int at) {
+        while (at < text.length()
+               && !Character.isWhitespace(text.charAt(at))) {
+            at += 1;
+        }
+        return at;
+    }
+
+    /**
+     * Return true iff the token starting at AT in TEXT is a cycle: an
+     * opening parenthesis, at least one character and a closing one.
+     */
+    private static boolean isCycle(String text, int at) {
+        int end = token(text, at);
+        return end - at >= 3 && text.charAt(at) == '('
+            && text.charAt(end - 1) == ')';
+    }
+
+    /**
+     * Return the number of rotors in the catalog.
+     */
+    int size() {
+        return _names.length;
+    }
+
+    /**
+     * Return the name of rotor I.
+     */
+    String name(int i) {
+        return _names[i];
+    }
+
+    /**
+     * Return the index of the first rotor named NAME, or -1 if there is
+     * none.
+     */
+    int indexOf(String name) {
+        Integer i = _index.get(name);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Return true iff rotor I is a reflector, without building it.
+     */
+    boolean reflecting(int i) {
+        return _types[i].charAt(0) == 'R';
+    }
+
+    /**
+     * Return true iff rotor I can move, without building it.
+     */
+    boolean rotates(int i) {
+        return _types[i].charAt(0) == 'M';
+    }
+
+    /**
+     * Return rotor I, building it on first use.
+     */
+    synchronized Rotor rotor(int i) {
+        Rotor r = _rotors[i];
+        if (r == null) {
+            r = build(i);
+            _rotors[i] = r;
+            _built += 1;
+            if (Metrics.ENABLED) {
+                Metrics.METRICS.rotorFetched(false);
+            }
+        } else if (Metrics.ENABLED) {
+            Metrics.METRICS.rotorFetched(true);
+        }
+        return r;
+    }
+
+    /**
+     * Return the compiled form of rotor I, compiling it on first use.
+     */
+    synchronized CompiledRotor compiled(int i) {
+        CompiledRotor c = _compiled[i];
+        if (c == null) {
+            c = new CompiledRotor(rotor(i));
+            _compiled[i] = c;
+        }
+        return c;
+    }
+
+    /**
+     * Return the rotors as a list, each built when first got.
+     */
+    List<Rotor> rotors() {
+        return new AbstractList<Rotor>() {
+            @Override
+            public Rotor get(int i) {
+                return rotor(i);
+            }
+
+            @Override
+            public int size() {
+                return RotorCatalog.this.size();
+            }
+        };
+    }
+
+    /**
+     * Return the number of rotors built from their descriptions so far.
+     */
+    synchronized int built() {
+        return _built;
+    }
+
+    /**
+     * Return rotor I, built from its description.
+     */
+    private Rotor build(int i) {
+        Permutation perm = new Permutation(
+                _text.substring(_start[i], _end[i]), _alphabet);
+        String type = _types[i];
+        switch (type.charAt(0)) {
+        case 'R':
+            return new Reflector(_names[i], perm);
+        case 'N':
+            return new FixedRotor(_names[i], perm);
+        default:
+            return new MovingRotor(_names[i], perm, type.substring(1));
+        }
+    }
+
+    /**
+     * Alphabet of the rotors, or null if they were given built.
+     */
+    private final Alphabet _alphabet;
+
+    /**
+     * Text holding the rotors' cycles, or null if they were given built.
+     */
+    private final String _text;
+
+    /**
+     * Name of each rotor.
+     */
+    private final String[] _names;
+
+    /**
+     * Type of each rotor: R, N, or M followed by its notches.
+     */
+    private final String[] _types;
+
+    /**
+     * Start of each rotor's cycles in _text.
+     */
+    private final int[] _start;
+
+    /**
+     * End of each rotor's cycles in _text.
+     */
+    private final int[] _end;
+
+    /**
+     * Each rotor, once built.
+     */
+    private final Rotor[] _rotors;
+
+    /**
+     * Compiled form of each rotor, once compiled.
+     */
+    private final CompiledRotor[] _compiled;
+
+    /**
+     * Index of the first rotor with each name.
+     */
+    private final Map<String, Integer> _index;
+
+    /**
+     * Number of rotors built from their descriptions.
+     */
+    private int _built;
+}
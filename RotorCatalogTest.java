@@ -0,0 +1,112 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the RotorCatalog class.
+ */
+public class RotorCatalogTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /**
+     * Return the rotor descriptions of a configuration file holding the
+     * naval rotors I-VIII as moving rotors, Beta and Gamma as fixed ones
+     * and B as a reflector, followed by a second rotor named I.
+     */
+    private static String catalogText() {
+        String[][] rotors = {{"I", "MQ"}, {"II", "ME"}, {"III", "MV"},
+            {"IV", "MJ"}, {"V", "MZ"}, {"VI", "MZM"}, {"VII", "MZM"},
+            {"VIII", "MZM"}, {"Beta", "N"}, {"Gamma", "N"}, {"B", "R"}};
+        StringBuilder text = new StringBuilder(" 5 3\n");
+        for (String[] r : rotors) {
+            text.append(' ').append(r[0]).append(' ').append(r[1])
+                .append(' ').append(NAVALA.get(r[0])).append('\n');
+        }
+        text.append(" I M (AB)\n");
+        return text.toString();
+    }
+
+    @Test
+    public void testBuildsOnlySelectedRotors() {
+        String text = catalogText();
+        RotorCatalog catalog = RotorCatalog.index(UPPER, text, 4);
+        assertEquals(12, catalog.size());
+        assertEquals(0, catalog.built());
+        assertEquals("Gamma", catalog.name(9));
+        assertTrue(catalog.reflecting(10));
+        assertTrue(catalog.rotates(5));
+        assertFalse(catalog.rotates(8));
+        assertEquals(0, catalog.indexOf("I"));
+        assertEquals(-1, catalog.indexOf("C"));
+
+        Machine machine = new Machine(UPPER, 5, 3, catalog);
+        machine.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        assertEquals(5, catalog.built());
+        Machine eager = new Machine(UPPER, 5, 3, new ArrayList<>(
+                RotorCatalog.index(UPPER, text, 4).rotors()));
+        eager.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        machine.setRotors("AXLE");
+        eager.setRotors("AXLE");
+        assertEquals(eager.convert("FROMHISSHOULDER"),
+                machine.convert("FROMHISSHOULDER"));
+        machine.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        assertEquals(5, catalog.built());
+
+        Rotor first = catalog.rotor(0);
+        assertEquals("Q", first.notches());
+        assertEquals(UPPER.toInt('E'), first.permutation().permute(0));
+        assertSame(first, catalog.rotor(0));
+        assertSame(catalog.compiled(0), catalog.compiled(0));
+        assertEquals(5, catalog.built());
+    }
+
+    @Test
+    public void testMatchesBuiltCatalog() {
+        RotorCatalog lazy = RotorCatalog.index(UPPER, catalogText(), 4);
+        RotorCatalog eager = new RotorCatalog(lazy.rotors());
+        for (int i = 0; i < lazy.size(); i += 1) {
+            assertEquals(lazy.name(i), eager.name(i));
+            assertEquals(lazy.rotates(i), eager.rotates(i));
+            assertEquals(lazy.reflecting(i), eager.reflecting(i));
+            assertSame(lazy.rotor(i), eager.rotor(i));
+        }
+    }
+
+    @Test
+    public void testBadDescriptions() {
+        try {
+            RotorCatalog.index(UPPER, "I MQ (AB)\nII X (CD)\n", 0);
+            fail("bad rotor type accepted");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("II"));
+        }
+        try {
+            RotorCatalog.index(UPPER, "I MQ (AB)\nII", 0);
+            fail("truncated rotor accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("bad rotor description", excp.getMessage());
+        }
+        RotorCatalog catalog =
+            RotorCatalog.index(UPPER, "I MQ (AB)\nII N (A1)\n", 0);
+        assertEquals(2, catalog.size());
+        catalog.rotor(0);
+        try {
+            catalog.rotor(1);
+            fail("bad cycle accepted");
+        } catch (EnigmaException excp) {
+            assertEquals(1, catalog.built());
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * The coordinator of a key search spread over worker processes, each
+ * running a SearchWorker.  The partitions of the KeySearch key space
+ * are grouped into leases of consecutive partitions.  A worker that
+ * connects is sent the job, then one lease at a time; it searches the
+ * lease on all its threads and replies with the number of keys tried
+ * and its best candidates, which are merged into one top-K.  A lease
+ * whose worker disconnects is put back at once, and one not finished
+ * within the timeout is issued again to the next idle worker; whichever
+ * copy finishes first counts.
+ * Messages are written with DataOutputStream:
+ *   worker hello:  MAGIC
+ *   job:           MAGIC, reflector, ring slots, top K, partitions,
+ *                  job key, ciphertext length and ciphertext
+ *   lease:         lease number, first and last+1 partition
+ *   end of job:    -1
+ *   result:        lease number, keys tried, number of candidates and,
+ *                  for each, score, order key and position key.
+ */
+final class SearchCoordinator {
+
+    /**
+     * A coordinator for the search for keys of machines configured like
+     * MACHINE, with reflector REFLECTOR, under which CIPHERTEXT decrypts
+     * best, searching the ring settings of the rightmost RINGSLOTS slots
+     * and keeping the best TOPK candidates.  Leases hold LEASESIZE
+     * partitions and are reissued after TIMEOUT milliseconds.
+     */
+    SearchCoordinator(Machine machine, String reflector, int[] ciphertext,
+                      int ringSlots, int topK, long leaseSize, long timeout) {
+        if (leaseSize < 1 || timeout < 1) {
+            throw error("Error: bad lease size or timeout");
+        }
+        _reflector = reflector;
+        _ciphertext = ciphertext;
+        _ringSlots = ringSlots;
+        _topK = topK;
+        KeySearch search = new KeySearch(machine, reflector, ciphertext,
+                ringSlots, topK);
+        _partitions = search.partitions();
+        _jobKey = search.jobKey();
+        _leaseSize = leaseSize;
+        _timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+        int leases = (int) ((_partitions + leaseSize - 1) / leaseSize);
+        _done = new boolean[leases];
+        _issued = new long[leases];
+        for (int i = 0; i < leases; i += 1) {
+            _issued[i] = -1;
+            _pending.add(i);
+        }
+        _remaining = leases;
+        _top = new TopK(topK);
+    }
+
+    /**
+     * Listen for workers on PORT, or any free port if 0, returning the
+     * port.
+     */
+    int bind(int port) {
+        try {
+            _server = new ServerSocket(port);
+            return _server.getLocalPort();
+        } catch (IOException excp) {
+            throw error("could not listen on port %d", port);
+        }
+    }
+
+    /**
+     * Serve workers until every lease is done, returning the best
+     * candidates found, best first.  Requires bind() first.
+     */
+    List<Candidate> run() {
+        Thread acceptor = new Thread(this::accept, "search-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        try {
+            synchronized (this) {
+                while (_remaining > 0) {
+                    wait();
+                }
+            }
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } finally {
+            close();
+        }
+        return _top.best();
+    }
+
+    /**
+     * Accept workers until my socket is closed, serving each on a
+     * thread of its own.
+     */
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = _server.accept();
+                synchronized (_sockets) {
+                    _sockets.add(socket);
+                }
+                Thread thread = new Thread(() -> serve(socket),
+                        "search-worker-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /**
+     * Stop listening and disconnect every worker.
+     */
+    private void close() {
+        try {
+            _server.close();
+        } catch (IOException excp) {
+            /* Ignore: the search is over. */
+        }
+        synchronized (_sockets) {
+            for (Socket socket : _sockets) {
+                try {
+                    socket.close();
+                } catch (IOException excp) {
+                    /* Ignore: the worker is gone. */
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the job and then leases to the worker at the other end of
+     * SOCKET until none remain, merging its results.  A lease the
+     * worker does not finish is put back.
+     */
+    private void serve(Socket socket) {
+        int lease = -1;
+        try (DataInputStream in = new DataInputStream(
+                     new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(socket.getOutputStream()))) {
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            out.writeInt(MAGIC);
+            out.writeUTF(_reflector);
+            out.writeInt(_ringSlots);
+            out.writeInt(_topK);
+            out.writeLong(_partitions);
+            out.writeLong(_jobKey);
+            out.writeInt(_ciphertext.length);
+            for (int c : _ciphertext) {
+                out.writeInt(c);
+            }
+            while ((lease = nextLease()) >= 0) {
+                out.writeInt(lease);
+                out.writeLong(lease * _leaseSize);
+                out.writeLong(Math.min(_partitions,
+                        (lease + 1) * _leaseSize));
+                out.flush();
+                if (in.readInt() != lease) {
+                    return;
+                }
+                long tested = in.readLong();
+                List<Candidate> found = readCandidates(in);
+                _top.offerAll(found);
+                complete(lease, tested);
+                lease = -1;
+            }
+            out.writeInt(-1);
+            out.flush();
+        } catch (IOException | InterruptedException excp) {
+            return;
+        } finally {
+            if (lease >= 0) {
+                fail(lease);
+            }
+        }
+    }
+
+    /**
+     * Return the candidates in a result read from IN.
+     */
+    static List<Candidate> readCandidates(DataInputStream in)
+        throws IOException {
+        int n = in.readInt();
+        List<Candidate> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i += 1) {
+            result.add(new Candidate(in.readDouble(), in.readLong(),
+                    in.readLong()));
+        }
+        return result;
+    }
+
+    /**
+     * Write CANDIDATES to OUT as in a result.
+     */
+    static void writeCandidates(DataOutputStream out,
+                                List<Candidate> candidates)
+        throws IOException {
+        out.writeInt(candidates.size());
+        for (Candidate c : candidates) {
+            out.writeDouble(c.score());
+            out.writeLong(c.orderKey());
+            out.writeLong(c.positionKey());
+        }
+    }
+
+    /**
+     * Return the next lease to issue, waiting while every unfinished
+     * lease is out and none has timed out, or -1 once all are done.
+     */
+    private synchronized int nextLease() throws InterruptedException {
+        while (_remaining > 0) {
+            Integer pending = _pending.poll();
+            if (pending != null) {
+                if (!_done[pending]) {
+                    _issued[pending] = System.nanoTime();
+                    return pending;
+                }
+                continue;
+            }
+            long now = System.nanoTime();
+            long wait = Long.MAX_VALUE;
+            for (int i = 0; i < _done.length; i += 1) {
+                if (!_done[i] && _issued[i] >= 0) {
+                    long left = _issued[i] + _timeout - now;
+                    if (left <= 0) {
+                        _issued[i] = now;
+                        _reissued += 1;
+                        return i;
+                    }
+                    wait = Math.min(wait, left);
+                }
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, Math.max(wait, 1));
+        }
+        return -1;
+    }
+
+    /**
+     * Record that LEASE is done, TESTED keys having been tried in it,
+     * unless it already was.
+     */
+    private synchronized void complete(int lease, long tested) {
+        if (!_done[lease]) {
+            _done[lease] = true;
+            _tested.add(tested);
+            _remaining -= 1;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Put LEASE back to be issued again, unless it is done.
+     */
+    private synchronized void fail(int lease) {
+        if (!_done[lease]) {
+            _issued[lease] = -1;
+            _pending.add(lease);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Return the number of keys tried in finished leases.
+     */
+    long candidatesTested() {
+        return _tested.sum();
+    }
+
+    /**
+     * Return the number of leases issued again after timing out.
+     */
+    synchronized int leasesReissued() {
+        return _reissued;
+    }
+
+    /**
+     * Return the number of leases.
+     */
+    int leases() {
+        return _done.length;
+    }
+
+    /**
+     * Coordinate a search for the key of a ciphertext, as specified by
+     * ARGS:
+     *   [--port=P] [--lease=N] [--timeout=S] [--rings=K] [--top=K]
+     *   [--sample=N] CONFIG CIPHERTEXT REFLECTOR
+     * where CONFIG is a configuration file, CIPHERTEXT a file holding the
+     * ciphertext and REFLECTOR the name of the reflector.  Listens on
+     * port P (default 7361) for SearchWorkers, issuing leases of N
+     * partitions (default 4) that are reissued after S seconds (default
+     * 300).  The other options and the output are as for KeySearch.
+     */
+    public static void main(String... args) {
+        try {
+            Options options = new Options(args);
+            String[] files = options.positional();
+            if (files.length != 3) {
+                throw error("usage: SearchCoordinator [options] CONFIG "
+                        + "CIPHERTEXT REFLECTOR");
+            }
+            Machine machine = Main.machineFor(files[0]);
+            int[] text = KeySearch.readCiphertext(machine.alphabet(),
+                    files[1], options.intValue("sample", Integer.MAX_VALUE));
+            SearchCoordinator coordinator = new SearchCoordinator(machine,
+                    files[2], text, options.intValue("rings", 0),
+                    options.intValue("top", 10), options.intValue("lease", 4),
+                    1000L * options.intValue("timeout", 300));
+            int port = coordinator.bind(options.intValue("port", PORT));
+            System.err.printf("listening on port %d, %d leases%n", port,
+                    coordinator.leases());
+            long start = System.nanoTime();
+            List<Candidate> best = coordinator.run();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            for (Candidate c : best) {
+                System.out.printf("%.6f %s%n", c.score(), c.setupLine(machine));
+            }
+            System.err.printf("%d keys in %.1fs (%.0f keys/s), %d leases "
+                    + "reissued%n", coordinator.candidatesTested(), seconds,
+                    coordinator.candidatesTested() / seconds,
+                    coordinator.leasesReissued());
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /**
+     * Starts every message from a worker or coordinator.
+     */
+    static final int MAGIC = 0x454e5332;
+
+    /**
+     * Default port.
+     */
+    static final int PORT = 7361;
+
+    /**
+     * Name of the reflector.
+     */
+    private final String _reflector;
+
+    /**
+     * The ciphertext, as indices.
+     */
+    private final int[] _ciphertext;
+
+    /**
+     * Number of rightmost slots whose ring settings are searched.
+     */
+    private final int _ringSlots;
+
+    /**
+     * Number of candidates kept.
+     */
+    private final int _topK;
+
+    /**
+     * Number of partitions of the key space.
+     */
+    private final long _partitions;
+
+    /**
+     * Key identifying the search, as from KeySearch.jobKey().
+     */
+    private final long _jobKey;
+
+    /**
+     * Number of partitions per lease.
+     */
+    private final long _leaseSize;
+
+    /**
+     * Nanoseconds after which an unfinished lease is reissued.
+     */
+    private final long _timeout;
+
+    /**
+     * True for each lease that is done.
+     */
+    private final boolean[] _done;
+
+    /**
+     * Time at which each lease was last issued, or -1 if it is not out.
+     */
+    private final long[] _issued;
+
+    /**
+     * Leases waiting to be issued.
+     */
+    private final ArrayDeque<Integer> _pending = new ArrayDeque<>();
+
+    /**
+     * Number of leases not done.
+     */
+    private int _remaining;
+
+    /**
+     * Number of leases reissued after timing out.
+     */
+    private int _reissued;
+
+    /**
+     * Best candidates found.
+     */
+    private final TopK _top;
+
+    /**
+     * Number of keys tried in finished leases.
+     */
+    private final LongAdder _tested = new LongAdder();
+
+    /**
+     * Socket on which workers connect.
+     */
+    private ServerSocket _server;
+
+    /**
+     * Connections to workers.
+     */
+    private final List<Socket> _sockets = new ArrayList<>();
+}
@@ -0,0 +1,219 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for SearchCoordinator and SearchWorker.
+ */
+public class SearchCoordinatorTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /**
+     * Return a machine like threeRotorMachine(), but with rotor I wired
+     * like rotor VI, so that its key space has the same shape.
+     */
+    private Machine rewiredMachine() {
+        List<Rotor> rotors =
+            new ArrayList<>(threeRotorMachine().allRotors());
+        rotors.set(0, new MovingRotor("I",
+                new Permutation(NAVALA.get("VI"), UPPER), "Q"));
+        return new Machine(UPPER, 4, 3, rotors);
+    }
+
+    /**
+     * Return 120 characters of English-like text enciphered by a
+     * machine like threeRotorMachine() with key SETUP.
+     */
+    private int[] ciphertext(String[] setup) {
+        Machine machine = threeRotorMachine();
+        machine.insertRotors(setup);
+        machine.setRotors("KEY");
+        String plain = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOGANDTHENRUNS"
+                + "AWAYFROMTHEFARMERWHOISCHASINGITWITHABROOMTHROUGHTHE"
+                + "MUDDYFIELDSOFTHEVALLEYATDAWN";
+        int[] text = UPPER.toInts(plain);
+        for (int k = 0; k < text.length; k += 1) {
+            text[k] = machine.convert(text[k]);
+        }
+        return text;
+    }
+
+    /**
+     * Start a thread running a worker for machines like
+     * threeRotorMachine() against the coordinator on PORT.
+     */
+    private Thread startWorker(int port) {
+        Thread thread = new Thread(() -> new SearchWorker(
+                threeRotorMachine(), 1).run("localhost", port));
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Assert that the candidates EXPECTED and ACTUAL have the same keys
+     * and scores.
+     */
+    private void assertSameCandidates(List<Candidate> expected,
+                                      List<Candidate> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i += 1) {
+            assertEquals(msg("distributed", "candidate %d", i),
+                    expected.get(i).score(), actual.get(i).score(), 1e-12);
+        }
+    }
+
+    @Test
+    public void testMatchesKeySearch() throws InterruptedException {
+        int[] text = ciphertext(new String[] {"B", "III", "I", "II"});
+        KeySearch search = new KeySearch(threeRotorMachine(), "B", text, 0, 5);
+        List<Candidate> expected = search.run(2);
+        SearchCoordinator coordinator = new SearchCoordinator(
+                threeRotorMachine(), "B", text, 0, 5, 7, 60000);
+        int port = coordinator.bind(0);
+        Thread a = startWorker(port);
+        Thread b = startWorker(port);
+        List<Candidate> actual = coordinator.run();
+        assertSameCandidates(expected, actual);
+        assertEquals(search.candidatesTested(),
+                coordinator.candidatesTested());
+        assertEquals(0, coordinator.leasesReissued());
+        a.join();
+        b.join();
+    }
+
+    @Test
+    public void testReissuesStalledLease() throws Exception {
+        int[] text = ciphertext(new String[] {"B", "II", "III", "I"});
+        List<Candidate> expected =
+                new KeySearch(threeRotorMachine(), "B", text, 0, 5).run(1);
+        SearchCoordinator coordinator = new SearchCoordinator(
+                threeRotorMachine(), "B", text, 0, 5, 40, 200);
+        int port = coordinator.bind(0);
+        List<List<Candidate>> result = new ArrayList<>();
+        Thread running = new Thread(() -> result.add(coordinator.run()));
+        running.start();
+        try (Socket stalled = new Socket("localhost", port)) {
+            DataOutputStream out =
+                    new DataOutputStream(stalled.getOutputStream());
+            out.writeInt(SearchCoordinator.MAGIC);
+            out.flush();
+            DataInputStream in = new DataInputStream(stalled.getInputStream());
+            assertEquals(SearchCoordinator.MAGIC, in.readInt());
+            in.readUTF();
+            in.readInt();
+            in.readInt();
+            in.readLong();
+            in.readLong();
+            in.skipBytes(Integer.BYTES * in.readInt());
+            assertTrue(in.readInt() >= 0);
+            startWorker(port);
+            running.join();
+        }
+        assertSameCandidates(expected, result.get(0));
+        assertTrue(coordinator.leasesReissued() >= 1);
+    }
+
+    /**
+     * Return a configuration describing threeRotorMachine().
+     */
+    private String config() {
+        StringBuilder text = new StringBuilder(UPPER_STRING + "\n 4 3\n");
+        String[][] rotors = {{"I", "MQ"}, {"II", "ME"}, {"III", "MV"},
+            {"B", "R"}};
+        for (String[] r : rotors) {
+            text.append(' ').append(r[0]).append(' ').append(r[1])
+                .append(' ').append(NAVALA.get(r[0])).append('\n');
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void testReissuesLeaseOfKilledWorker() throws Exception {
+        int[] text = ciphertext(new String[] {"B", "III", "II", "I"});
+        KeySearch search = new KeySearch(threeRotorMachine(), "B", text, 0, 5);
+        List<Candidate> expected = search.run(1);
+        SearchCoordinator coordinator = new SearchCoordinator(
+                threeRotorMachine(), "B", text, 0, 5, 1, 60000);
+        int port = coordinator.bind(0);
+        List<List<Candidate>> result = new ArrayList<>();
+        Thread running = new Thread(() -> result.add(coordinator.run()));
+        running.start();
+        Path conf = Files.createTempFile("worker", ".conf");
+        Process worker = null;
+        try {
+            Files.write(conf, config().getBytes(StandardCharsets.UTF_8));
+            worker = new ProcessBuilder(
+                    Paths.get(System.getProperty("java.home"), "bin", "java")
+                    .toString(), "-cp", System.getProperty("java.class.path"),
+                    SearchWorker.class.getName(), "--threads=1",
+                    "localhost:" + port, conf.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            while (coordinator.candidatesTested() == 0) {
+                assertTrue("worker exited before finishing a lease",
+                        worker.isAlive());
+                Thread.sleep(1);
+            }
+        } finally {
+            if (worker != null) {
+                worker.destroyForcibly().waitFor();
+            }
+            Files.deleteIfExists(conf);
+        }
+        /* The worker was given its next lease as soon as it finished one,
+         * and leases remain, so it died holding one.  With a timeout of a
+         * minute, the search finishes only if that lease is put back
+         * when the connection drops. */
+        long tested = coordinator.candidatesTested();
+        assertTrue(tested < search.candidatesTested());
+        startWorker(port);
+        running.join();
+        assertSameCandidates(expected, result.get(0));
+        assertEquals(search.candidatesTested(),
+                coordinator.candidatesTested());
+        assertEquals(0, coordinator.leasesReissued());
+    }
+
+    @Test
+    public void testRejectsDifferentWiring() throws InterruptedException {
+        int[] text = ciphertext(new String[] {"B", "I", "III", "II"});
+        List<Candidate> expected =
+                new KeySearch(threeRotorMachine(), "B", text, 0, 5).run(1);
+        SearchCoordinator coordinator = new SearchCoordinator(
+                threeRotorMachine(), "B", text, 0, 5, 40, 60000);
+        int port = coordinator.bind(0);
+        List<List<Candidate>> result = new ArrayList<>();
+        Thread running = new Thread(() -> result.add(coordinator.run()));
+        running.start();
+        try {
+            new SearchWorker(rewiredMachine(), 1).run("localhost", port);
+            fail("worker joined a job for a different configuration");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("different"));
+        }
+        startWorker(port);
+        running.join();
+        assertSameCandidates(expected, result.get(0));
+    }
+}
@@ -0,0 +1,170 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * The progress of a KeySearch job: which of its partitions have been
+ * searched, as a bitset, and the best candidates found so far.  Threads
+ * mark partitions done without locking, so the progress can be saved
+ * while they work.
+ * A checkpoint file holds a header (magic number, job key, number of
+ * partitions), the bitset of partitions done and the candidates.
+ */
+final class SearchProgress {
+
+    /**
+     * No progress on the job with key JOB, which has PARTITIONS
+     * partitions.
+     */
+    SearchProgress(long job, long partitions) {
+        if (partitions > (long) Long.SIZE * Integer.MAX_VALUE) {
+            throw error("Error: too many partitions to record");
+        }
+        _job = job;
+        _partitions = partitions;
+        _done = new AtomicLongArray(
+                (int) ((partitions + Long.SIZE - 1) / Long.SIZE));
+        _candidates = new ArrayList<>();
+    }
+
+    /**
+     * Return the key of my job.
+     */
+    long job() {
+        return _job;
+    }
+
+    /**
+     * Return the number of partitions of my job.
+     */
+    long partitions() {
+        return _partitions;
+    }
+
+    /**
+     * Return true iff PARTITION has been searched.
+     */
+    boolean isDone(long partition) {
+        return (_done.get((int) (partition >>> 6)) & (1L << partition)) != 0;
+    }
+
+    /**
+     * Record that PARTITION has been searched, its candidates having
+     * already been offered.  May be called from any thread.
+     */
+    void markDone(long partition) {
+        _done.getAndAccumulate((int) (partition >>> 6), 1L << partition,
+                (word, bit) -> word | bit);
+    }
+
+    /**
+     * Return the number of partitions searched.
+     */
+    long done() {
+        long result = 0;
+        for (int i = 0; i < _done.length(); i += 1) {
+            result += Long.bitCount(_done.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Return the candidates read from a checkpoint, best first, or an
+     * empty list if I was not read from one.
+     */
+    List<Candidate> candidates() {
+        return _candidates;
+    }
+
+    /**
+     * Write my progress, with the candidates of TOP, to FILE, replacing
+     * it atomically.  Forces the data to disk first iff FSYNC.  The
+     * partitions done are read before the candidates, so every
+     * partition recorded as done has its candidates recorded too.
+     */
+    void write(Path file, TopK top, boolean fsync) {
+        long[] done = new long[_done.length()];
+        for (int i = 0; i < done.length; i += 1) {
+            done[i] = _done.get(i);
+        }
+        List<Candidate> best = top.best();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeLong(_job);
+            out.writeLong(_partitions);
+            for (long word : done) {
+                out.writeLong(word);
+            }
+            SearchCoordinator.writeCandidates(out, best);
+        } catch (IOException excp) {
+            throw error("could not encode search progress");
+        }
+        Checkpoint.writeAtomically(file, bytes.toByteArray(), fsync);
+    }
+
+    /**
+     * Return the progress stored in FILE, which must be for the job
+     * with key JOB and PARTITIONS partitions, or no progress if there
+     * is no such file.
+     */
+    static SearchProgress read(Path file, long job, long partitions) {
+        SearchProgress result = new SearchProgress(job, partitions);
+        if (!Files.exists(file)) {
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw error("%s is not a search checkpoint", file);
+            }
+            if (in.readLong() != job || in.readLong() != partitions) {
+                throw error("%s is a checkpoint of a different search", file);
+            }
+            for (int i = 0; i < result._done.length(); i += 1) {
+                result._done.set(i, in.readLong());
+            }
+            result._candidates.addAll(SearchCoordinator.readCandidates(in));
+        } catch (IOException excp) {
+            throw error("could not read search checkpoint %s", file);
+        }
+        return result;
+    }
+
+    /**
+     * Marks the start of a search checkpoint file.
+     */
+    private static final int MAGIC = 0x4b534331;
+
+    /**
+     * Key of my job.
+     */
+    private final long _job;
+
+    /**
+     * Number of partitions of my job.
+     */
+    private final long _partitions;
+
+    /**
+     * Bit P % 64 of word P / 64 is set iff partition P has been
+     * searched.
+     */
+    private final AtomicLongArray _done;
+
+    /**
+     * Candidates read from a checkpoint.
+     */
+    private final List<Candidate> _candidates;
+}
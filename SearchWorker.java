@@ -0,0 +1,140 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * A worker in a key search coordinated by a SearchCoordinator: receives
+ * the job, then searches each lease it is given on all its threads and
+ * returns the keys tried and its best candidates so far, until told the
+ * job is over.
+ */
+final class SearchWorker {
+
+    /**
+     * A worker searching keys of machines configured like MACHINE,
+     * using PARALLELISM threads.
+     */
+    SearchWorker(Machine machine, int parallelism) {
+        _machine = machine;
+        _parallelism = parallelism;
+    }
+
+    /**
+     * Work for the coordinator listening on HOST at PORT until it ends
+     * the job, returning the number of leases searched.
+     */
+    int run(String host, int port) {
+        try (Socket socket = new Socket(host, port);
+             DataInputStream in = new DataInputStream(
+                     new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(socket.getOutputStream()))) {
+            out.writeInt(SearchCoordinator.MAGIC);
+            out.flush();
+            if (in.readInt() != SearchCoordinator.MAGIC) {
+                throw error("Error: %s:%d is not a search coordinator",
+                        host, port);
+            }
+            String reflector = in.readUTF();
+            int ringSlots = in.readInt();
+            int topK = in.readInt();
+            long partitions = in.readLong();
+            long jobKey = in.readLong();
+            int[] ciphertext = new int[in.readInt()];
+            for (int k = 0; k < ciphertext.length; k += 1) {
+                ciphertext[k] = in.readInt();
+            }
+            KeySearch search = new KeySearch(_machine, reflector, ciphertext,
+                    ringSlots, topK);
+            if (search.partitions() != partitions
+                    || search.jobKey() != jobKey) {
+                throw error("Error: coordinator has a different "
+                        + "configuration");
+            }
+            int leases = 0;
+            for (int lease = nextLease(in); lease >= 0;
+                 lease = nextLease(in)) {
+                long lo = in.readLong();
+                long hi = in.readLong();
+                long before = search.candidatesTested();
+                List<Candidate> best = search.run(lo, hi, _parallelism);
+                out.writeInt(lease);
+                out.writeLong(search.candidatesTested() - before);
+                SearchCoordinator.writeCandidates(out, best);
+                out.flush();
+                leases += 1;
+            }
+            return leases;
+        } catch (IOException excp) {
+            throw error("lost connection to %s:%d", host, port);
+        }
+    }
+
+    /**
+     * Return the number of the next lease read from IN, or -1 if the job
+     * is over.  A coordinator that has finished may close the connection
+     * without saying so.
+     */
+    private static int nextLease(DataInputStream in) throws IOException {
+        try {
+            return in.readInt();
+        } catch (EOFException excp) {
+            return -1;
+        }
+    }
+
+    /**
+     * Work for a search coordinator, as specified by ARGS:
+     *   [--threads=T] HOST:PORT CONFIG
+     * where HOST:PORT is the address of a SearchCoordinator and CONFIG
+     * the configuration file it was given.  Uses --threads threads
+     * (default all processors).
+     */
+    public static void main(String... args) {
+        try {
+            Options options = new Options(args);
+            String[] files = options.positional();
+            if (files.length != 2) {
+                throw error("usage: SearchWorker [options] HOST:PORT CONFIG");
+            }
+            int colon = files[0].lastIndexOf(':');
+            if (colon < 0) {
+                throw error("Error: bad coordinator address: %s", files[0]);
+            }
+            int port;
+            try {
+                port = Integer.parseInt(files[0].substring(colon + 1));
+            } catch (NumberFormatException excp) {
+                throw error("Error: bad coordinator address: %s", files[0]);
+            }
+            SearchWorker worker = new SearchWorker(
+                    Main.machineFor(files[1]), options.intValue("threads",
+                            Runtime.getRuntime().availableProcessors()));
+            int leases = worker.run(files[0].substring(0, colon), port);
+            System.err.printf("%d leases searched%n", leases);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /**
+     * Machines whose keys are searched.
+     */
+    private final Machine _machine;
+
+    /**
+     * Number of threads used.
+     */
+    private final int _parallelism;
+}
@@ -1,6 +1,10 @@
 package enigma;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
 
 /**
  * Utility definitions for use in unit tests.
@@ -22,6 +26,65 @@ class TestUtils {
         return testId + " (" + String.format(msgFormat, args) + ")";
     }
 
+    /**
+     * Return a machine with the naval rotors I-III, notched as usual,
+     * and reflector B, four slots and three pawls, with no rotors
+     * inserted.
+     */
+    static Machine threeRotorMachine() {
+        List<Rotor> rotors = new ArrayList<>();
+        String[][] moving = {{"I", "Q"}, {"II", "E"}, {"III", "V"}};
+        for (String[] r : moving) {
+            rotors.add(new MovingRotor(r[0],
+                    new Permutation(NAVALA.get(r[0]), UPPER), r[1]));
+        }
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        return new Machine(UPPER, 4, 3, rotors);
+    }
+
+    /**
+     * Return LENGTH random indices below SIZE from RANDOM.
+     */
+    static int[] randomText(Random random, int size, int length) {
+        int[] text = new int[length];
+        for (int k = 0; k < length; k += 1) {
+            text[k] = random.nextInt(size);
+        }
+        return text;
+    }
+
+    /**
+     * Return a random string of LENGTH characters of ALPHA from RANDOM.
+     */
+    static String randomString(Random random, Alphabet alpha, int length) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < length; i += 1) {
+            result.append(alpha.toChar(random.nextInt(alpha.size())));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Return the cycles of a random permutation of ALPHA from RANDOM, in
+     * pairs if PAIRS.
+     */
+    static String randomCycles(Random random, Alphabet alpha,
+                               boolean pairs) {
+        List<Character> chars = new ArrayList<>();
+        for (int i = 0; i < alpha.size(); i += 1) {
+            chars.add(alpha.toChar(i));
+        }
+        Collections.shuffle(chars, random);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < chars.size(); i += 1) {
+            if (i == 0 || pairs && i % 2 == 0) {
+                result.append(i == 0 ? "(" : ") (");
+            }
+            result.append(chars.get(i));
+        }
+        return result.append(")").toString();
+    }
+
     /**
      * The naval rotors in the A (0) setting.
      */
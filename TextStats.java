@@ -0,0 +1,148 @@
+package enigma;
+
+import java.util.Arrays;
+
+/**
+ * Letter statistics of a text, accumulated one character at a time:
+ * counts of each letter, and from them the index of coincidence and the
+ * chi-square statistic against uniform letters.  The sum of the squared
+ * counts is kept up to date as letters arrive, so both statistics are
+ * available at any time without a pass over the counts.
+ */
+final class TextStats {
+
+    /**
+     * Empty statistics for texts over an alphabet of SIZE characters.
+     */
+    TextStats(int size) {
+        _counts = new long[size];
+    }
+
+    /**
+     * Record the character with index C.
+     */
+    void record(int c) {
+        long count = _counts[c];
+        _counts[c] = count + 1;
+        _sumSquares += 2 * count + 1;
+        _length += 1;
+    }
+
+    /**
+     * Add the characters recorded in OTHER, which must be over the same
+     * alphabet, to mine.
+     */
+    void add(TextStats other) {
+        _sumSquares = 0;
+        for (int c = 0; c < _counts.length; c += 1) {
+            _counts[c] += other._counts[c];
+            _sumSquares += _counts[c] * _counts[c];
+        }
+        _length += other._length;
+    }
+
+    /**
+     * Forget everything recorded.
+     */
+    void clear() {
+        Arrays.fill(_counts, 0);
+        _sumSquares = 0;
+        _length = 0;
+    }
+
+    /**
+     * Return the number of characters recorded.
+     */
+    long length() {
+        return _length;
+    }
+
+    /**
+     * Return the number of times the character with index C was
+     * recorded.
+     */
+    long count(int c) {
+        return _counts[c];
+    }
+
+    /**
+     * Return the index of coincidence of the characters recorded: the
+     * chance that two of them, drawn without replacement, are equal.
+     * Returns 0 for fewer than two characters.
+     */
+    double indexOfCoincidence() {
+        if (_length < 2) {
+            return 0;
+        }
+        return (double) (_sumSquares - _length)
+                / ((double) _length * (_length - 1));
+    }
+
+    /**
+     * Return the chi-square statistic of the letter counts against
+     * equally likely letters, with size() - 1 degrees of freedom.
+     */
+    double chiSquare() {
+        if (_length == 0) {
+            return 0;
+        }
+        return (double) _sumSquares * _counts.length / _length - _length;
+    }
+
+    /**
+     * Return a one-line summary using the characters of ALPHA: length,
+     * index of coincidence, chi-square and the TOP most common letters
+     * with their shares.
+     */
+    String summary(Alphabet alpha, int top) {
+        StringBuilder line = new StringBuilder(String.format(
+                "%d chars, IoC %.4f, chi2 %.1f", _length,
+                indexOfCoincidence(), chiSquare()));
+        boolean[] shown = new boolean[_counts.length];
+        for (int i = 0; i < Math.min(top, _counts.length); i += 1) {
+            int best = -1;
+            for (int c = 0; c < _counts.length; c += 1) {
+                if (!shown[c] && (best < 0 || _counts[c] > _counts[best])) {
+                    best = c;
+                }
+            }
+            if (_counts[best] == 0) {
+                break;
+            }
+            shown[best] = true;
+            line.append(i == 0 ? ", top " : " ").append(alpha.toChar(best))
+                .append(String.format(" %.1f%%",
+                        100.0 * _counts[best] / _length));
+        }
+        return line.toString();
+    }
+
+    /**
+     * Return the letter frequencies, one line per letter of ALPHA, as
+     * the letter, its count and its share in percent.
+     */
+    String frequencies(Alphabet alpha) {
+        StringBuilder table = new StringBuilder();
+        for (int c = 0; c < _counts.length; c += 1) {
+            table.append(String.format("%c %10d %6.2f%%%n", alpha.toChar(c),
+                    _counts[c], _length == 0 ? 0.0
+                            : 100.0 * _counts[c] / _length));
+        }
+        return table.toString();
+    }
+
+    /**
+     * Number of times each character was recorded.
+     */
+    private final long[] _counts;
+
+    /**
+     * Sum of the squares of _counts.
+     */
+    private long _sumSquares;
+
+    /**
+     * Number of characters recorded.
+     */
+    private long _length;
+}
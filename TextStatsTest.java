@@ -0,0 +1,75 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the TextStats class.
+ */
+public class TextStatsTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testMatchesDirectFormulas() {
+        Random random = new Random(47);
+        TextStats whole = new TextStats(26);
+        TextStats first = new TextStats(26);
+        TextStats second = new TextStats(26);
+        int[] counts = new int[26];
+        int n = 1000;
+        for (int k = 0; k < n; k += 1) {
+            int c = random.nextInt(random.nextBoolean() ? 26 : 5);
+            counts[c] += 1;
+            whole.record(c);
+            (k < 300 ? first : second).record(c);
+        }
+        double coincidences = 0, chi = 0;
+        for (int c = 0; c < 26; c += 1) {
+            coincidences += (double) counts[c] * (counts[c] - 1);
+            double e = n / 26.0;
+            chi += (counts[c] - e) * (counts[c] - e) / e;
+            assertEquals(counts[c], whole.count(c));
+        }
+        assertEquals(n, whole.length());
+        assertEquals(coincidences / ((double) n * (n - 1)),
+                whole.indexOfCoincidence(), 1e-12);
+        assertEquals(chi, whole.chiSquare(), 1e-9);
+        first.add(second);
+        assertEquals(whole.indexOfCoincidence(), first.indexOfCoincidence(),
+                1e-12);
+        assertEquals(whole.chiSquare(), first.chiSquare(), 1e-9);
+        first.clear();
+        assertEquals(0, first.length());
+        assertEquals(0, first.indexOfCoincidence(), 0);
+    }
+
+    @Test
+    public void testMachineRecordsOutput() {
+        Machine machine = new Machine(UPPER, 2, 1, List.of(
+                new MovingRotor("I", new Permutation(NAVALA.get("I"), UPPER),
+                        "Q"),
+                new Reflector("B", new Permutation(NAVALA.get("B"), UPPER))));
+        machine.insertRotors(new String[] {"B", "I"});
+        machine.setRotors("A");
+        TextStats stats = new TextStats(26);
+        String out = machine.convert("HELLOWORLD", stats);
+        assertEquals(10, stats.length());
+        for (int c = 0; c < 26; c += 1) {
+            char ch = UPPER.toChar(c);
+            assertEquals(out.chars().filter(x -> x == ch).count(),
+                    stats.count(c));
+        }
+    }
+}
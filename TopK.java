@@ -0,0 +1,98 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * The best candidates offered so far, up to a fixed number, shared by
+ * any number of searching threads.  Offers that cannot make the cut are
+ * rejected by reading a volatile threshold, without locking.
+ */
+final class TopK {
+
+    /**
+     * An empty collection keeping the best CAPACITY candidates, which
+     * must be positive.
+     */
+    TopK(int capacity) {
+        if (capacity < 1) {
+            throw error("Error: bad number of candidates to keep: %d",
+                    capacity);
+        }
+        _capacity = capacity;
+    }
+
+    /**
+     * Return true iff a candidate scoring SCORE would currently be kept.
+     */
+    boolean accepts(double score) {
+        return score > _threshold;
+    }
+
+    /**
+     * Return the score a candidate must beat to be kept.
+     */
+    double threshold() {
+        return _threshold;
+    }
+
+    /**
+     * Offer CANDIDATE, returning true iff it is kept.  A candidate for
+     * a key already held is ignored.
+     */
+    synchronized boolean offer(Candidate candidate) {
+        if (!accepts(candidate.score())) {
+            return false;
+        }
+        for (Candidate held : _heap) {
+            if (held.sameKey(candidate)) {
+                return false;
+            }
+        }
+        _heap.add(candidate);
+        if (_heap.size() > _capacity) {
+            _heap.poll();
+        }
+        if (_heap.size() == _capacity) {
+            _threshold = _heap.peek().score();
+        }
+        return true;
+    }
+
+    /**
+     * Offer every candidate in CANDIDATES.
+     */
+    void offerAll(Iterable<Candidate> candidates) {
+        for (Candidate c : candidates) {
+            offer(c);
+        }
+    }
+
+    /**
+     * Return the candidates kept, best first.
+     */
+    synchronized List<Candidate> best() {
+        List<Candidate> result = new ArrayList<>(_heap);
+        result.sort(Collections.reverseOrder());
+        return result;
+    }
+
+    /**
+     * Maximum number of candidates kept.
+     */
+    private final int _capacity;
+
+    /**
+     * Candidates kept, worst at the head.
+     */
+    private final PriorityQueue<Candidate> _heap = new PriorityQueue<>();
+
+    /**
+     * Score of the worst candidate kept once full, else -infinity.
+     */
+    private volatile double _threshold = Double.NEGATIVE_INFINITY;
+}
@@ -14,7 +14,17 @@ public class UnitTest {
      */
     public static void main(String[] ignored) {
         System.exit(textui.runClasses(PermutationTest.class,
-                MovingRotorTest.class
+                MovingRotorTest.class, MachineTest.class,
+                LatencyHistogramTest.class, FastMachineTest.class,
+                NGramModelTest.class, DeltaDecryptorTest.class,
+                CycleCatalogTest.class, CribFilterTest.class,
+                SearchCoordinatorTest.class, KeyEnumeratorTest.class,
+                KeySearchTest.class, BatchDecryptorTest.class,
+                DepthDetectorTest.class, TextStatsTest.class,
+                DifferentialVerifierTest.class, PermutationArraysTest.class,
+                RotorCatalogTest.class, CheckpointTest.class,
+                BombeTest.class, MachineProcessorTest.class,
+                PlugboardSolverTest.class, MetricsTest.class
         ));
     }
 
@@ -0,0 +1,251 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Randomly generated, but reproducible, alphabets, rotor catalogs,
+ * machines and message corpora for the benchmarks.
+ */
+final class BenchFixtures {
+
+    /**
+     * Characters from which generated alphabets are drawn.
+     */
+    static final String CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789"
+            + "!#$%&+,-./:;<=>?@[]^_{|}~";
+
+    /**
+     * Fixtures for an alphabet of ALPHABETSIZE characters and machines
+     * with SLOTS slots, generated from SEED.  One slot holds a fixed
+     * rotor, the rest beside the reflector hold moving rotors.
+     */
+    BenchFixtures(int alphabetSize, int slots, long seed) {
+        if (alphabetSize > CHARS.length() || alphabetSize % 2 != 0) {
+            throw new IllegalArgumentException("bad alphabet size");
+        }
+        _random = new Random(seed);
+        _alphabetString = CHARS.substring(0, alphabetSize);
+        _alphabet = new Alphabet(_alphabetString);
+        _slots = slots;
+        _pawls = slots - 2;
+        _rotorNames = new String[slots];
+        _rotorNames[0] = "REF";
+        _rotorNames[1] = "FIX";
+        for (int i = 2; i < slots; i += 1) {
+            _rotorNames[i] = "R" + i;
+        }
+        StringBuilder config = new StringBuilder();
+        config.append(_alphabetString).append('\n');
+        config.append(slots).append(' ').append(_pawls).append('\n');
+        config.append("REF R ").append(randomReflector()).append('\n');
+        config.append("FIX N ").append(randomCycles()).append('\n');
+        for (int i = 2; i < slots + 2; i += 1) {
+            config.append('R').append(i).append(" M")
+                    .append(_alphabetString.charAt(
+                            _random.nextInt(alphabetSize)))
+                    .append(' ').append(randomCycles()).append('\n');
+        }
+        _config = config.toString();
+    }
+
+    /**
+     * Return my alphabet.
+     */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /**
+     * Return the text of my configuration file.
+     */
+    String config() {
+        return _config;
+    }
+
+    /**
+     * Return a random permutation of my alphabet in cycle notation.
+     */
+    String randomCycles() {
+        List<Character> chars = shuffled();
+        StringBuilder result = new StringBuilder();
+        int i = 0;
+        while (i < chars.size()) {
+            int len = 1 + _random.nextInt(chars.size() - i);
+            result.append('(');
+            for (int k = 0; k < len; k += 1, i += 1) {
+                result.append(chars.get(i));
+            }
+            result.append(')');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Return a random fixed-point-free involution of my alphabet in
+     * cycle notation.
+     */
+    String randomReflector() {
+        List<Character> chars = shuffled();
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < chars.size(); i += 2) {
+            result.append('(').append(chars.get(i))
+                    .append(chars.get(i + 1)).append(')');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Return a random plugboard of PAIRS swapped pairs.
+     */
+    String randomPlugboard(int pairs) {
+        List<Character> chars = shuffled();
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < 2 * pairs && i + 1 < chars.size(); i += 2) {
+            result.append('(').append(chars.get(i))
+                    .append(chars.get(i + 1)).append(')');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Return a random string of LENGTH characters from my alphabet.
+     */
+    String randomMessage(int length) {
+        char[] result = new char[length];
+        for (int i = 0; i < length; i += 1) {
+            result[i] = _alphabetString.charAt(
+                    _random.nextInt(_alphabetString.length()));
+        }
+        return new String(result);
+    }
+
+    /**
+     * Return a setup line for my machines, with random settings, ring
+     * settings and a plugboard of a few pairs.
+     */
+    String setupLine() {
+        StringBuilder line = new StringBuilder("*");
+        for (String name : _rotorNames) {
+            line.append(' ').append(name);
+        }
+        line.append(' ').append(randomMessage(_slots - 1));
+        line.append(' ').append(randomMessage(_slots - 1));
+        line.append(' ').append(randomPlugboard(5));
+        return line.toString();
+    }
+
+    /**
+     * Return a new machine built from my configuration and set up by
+     * setupLine().
+     */
+    Machine machine() {
+        List<Rotor> rotors = new ArrayList<>();
+        for (String line : _config.split("\n")) {
+            String[] fields = line.split(" ");
+            if (fields.length < 3) {
+                continue;
+            }
+            Permutation perm = new Permutation(fields[2], _alphabet);
+            switch (fields[1].charAt(0)) {
+            case 'R':
+                rotors.add(new Reflector(fields[0], perm));
+                break;
+            case 'N':
+                rotors.add(new FixedRotor(fields[0], perm));
+                break;
+            default:
+                rotors.add(new MovingRotor(fields[0], perm,
+                        fields[1].substring(1)));
+                break;
+            }
+        }
+        Machine machine = new Machine(_alphabet, _slots, _pawls, rotors);
+        machine.insertRotors(_rotorNames);
+        machine.setRotors(randomMessage(_slots - 1));
+        machine.ringSetRotors(randomMessage(_slots - 1));
+        machine.setPlugboard(new Permutation(randomPlugboard(5), _alphabet));
+        return machine;
+    }
+
+    /**
+     * Write my configuration to a new temporary file and return it.
+     */
+    Path writeConfig() throws IOException {
+        Path file = Files.createTempFile("enigma-bench", ".conf");
+        Files.writeString(file, _config);
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Write a corpus of MESSAGES messages of MESSAGELENGTH characters,
+     * each preceded by a setup line, to a new temporary file and
+     * return it.
+     */
+    Path writeCorpus(int messages, int messageLength) throws IOException {
+        Path file = Files.createTempFile("enigma-bench", ".in");
+        file.toFile().deleteOnExit();
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            for (int i = 0; i < messages; i += 1) {
+                out.println(setupLine());
+                out.println(randomMessage(messageLength));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Return the characters of my alphabet in random order.
+     */
+    private List<Character> shuffled() {
+        List<Character> chars = new ArrayList<>();
+        for (char c : _alphabetString.toCharArray()) {
+            chars.add(c);
+        }
+        Collections.shuffle(chars, _random);
+        return chars;
+    }
+
+    /**
+     * Source of all randomness, for reproducibility.
+     */
+    private final Random _random;
+
+    /**
+     * My alphabet, as a string.
+     */
+    private final String _alphabetString;
+
+    /**
+     * My alphabet.
+     */
+    private final Alphabet _alphabet;
+
+    /**
+     * Number of slots in my machines.
+     */
+    private final int _slots;
+
+    /**
+     * Number of pawls in my machines.
+     */
+    private final int _pawls;
+
+    /**
+     * Names of the rotors inserted into my machines, reflector first.
+     */
+    private final String[] _rotorNames;
+
+    /**
+     * Text of my configuration file.
+     */
+    private final String _config;
+}
@@ -0,0 +1,304 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * Stores benchmark runs and compares them against a baseline.
+ * Usage:
+ *   BenchStore save RESULTS.csv STORED.csv [LABEL]
+ *   BenchStore compare BASELINE.csv RESULTS.csv [THRESHOLD-PERCENT]
+ * RESULTS.csv is the output of a JMH run with "-rf csv"; either file
+ * given to compare may be a stored run or raw JMH output.  A stored run
+ * is a CSV file whose leading "#" lines record the format version and
+ * the environment it was measured in.
+ * A benchmark has regressed when its new score is worse than the
+ * baseline by more than the threshold (default 5%) and the two 99.9%
+ * confidence intervals reported by JMH do not overlap.  A benchmark in
+ * the baseline but not in the new results is missing, which counts as
+ * a regression, since it may have failed or been renamed.  compare
+ * exits with code 1 if any benchmark regressed, and 2 on errors.
+ */
+public final class BenchStore {
+
+    /**
+     * Format version written to stored runs.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Run the command given by ARGS.
+     */
+    public static void main(String... args) {
+        try {
+            if (args.length >= 3 && args.length <= 4
+                    && args[0].equals("save")) {
+                save(Paths.get(args[1]), Paths.get(args[2]),
+                        args.length > 3 ? args[3] : "unnamed");
+                return;
+            }
+            if (args.length >= 3 && args.length <= 4
+                    && args[0].equals("compare")) {
+                double threshold =
+                        args.length > 3 ? Double.parseDouble(args[3]) : 5;
+                int regressions = compare(readRun(Paths.get(args[1])),
+                        readRun(Paths.get(args[2])), threshold / 100,
+                        new PrintWriter(System.out));
+                System.exit(regressions == 0 ? 0 : 1);
+            }
+            throw error("usage: BenchStore save RESULTS STORED [LABEL] | "
+                    + "compare BASELINE RESULTS [THRESHOLD]");
+        } catch (EnigmaException | NumberFormatException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(2);
+    }
+
+    /**
+     * Store the JMH results in RESULTS as STORED, labelled LABEL and
+     * annotated with the current environment.
+     */
+    static void save(Path results, Path stored, String label) {
+        List<Result> run = readRun(results);
+        try (PrintWriter out = new PrintWriter(
+                Files.newBufferedWriter(stored))) {
+            out.printf("# enigma-bench-results version=%d%n", VERSION);
+            out.printf("# label=%s%n", label);
+            out.printf("# date=%s%n", Instant.now());
+            for (String key : new String[] {
+                "java.version", "java.vm.name", "java.vm.version",
+                "os.name", "os.arch", "os.version"
+            }) {
+                out.printf("# %s=%s%n", key, System.getProperty(key));
+            }
+            out.printf("# cpus=%d%n",
+                    Runtime.getRuntime().availableProcessors());
+            out.printf("# maxHeap=%d%n", Runtime.getRuntime().maxMemory());
+            out.println("benchmark,mode,params,samples,score,error,unit");
+            for (Result r : run) {
+                out.printf("%s,%s,%s,%d,%s,%s,%s%n", r.benchmark, r.mode,
+                        r.params, r.samples, r.score, r.error, r.unit);
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", stored);
+        }
+    }
+
+    /**
+     * Print a comparison of each result in LATEST against its
+     * counterpart in BASELINE to OUT, and return the number of
+     * regressions by more than the fraction THRESHOLD, counting each
+     * result of BASELINE missing from LATEST as one.
+     */
+    static int compare(List<Result> baseline, List<Result> latest,
+                       double threshold, PrintWriter out) {
+        Map<String, Result> base = new LinkedHashMap<>();
+        for (Result r : baseline) {
+            base.put(r.key(), r);
+        }
+        int regressions = 0;
+        for (Result r : latest) {
+            Result b = base.remove(r.key());
+            if (b == null) {
+                out.printf("NEW        %s%n", r.key());
+                continue;
+            }
+            double change = (r.score - b.score) / b.score;
+            double worse = r.higherIsBetter() ? -change : change;
+            boolean separated = r.score - r.error > b.score + b.error
+                    || r.score + r.error < b.score - b.error;
+            String verdict;
+            if (!separated || Math.abs(change) <= threshold) {
+                verdict = "same";
+            } else if (worse > 0) {
+                verdict = "REGRESSED";
+                regressions += 1;
+            } else {
+                verdict = "improved";
+            }
+            out.printf("%-10s %s: %.4g +/- %.2g -> %.4g +/- %.2g %s (%+.1f%%)%n",
+                    verdict, r.key(), b.score, b.error, r.score, r.error,
+                    r.unit, 100 * change);
+        }
+        for (String key : base.keySet()) {
+            out.printf("MISSING    %s%n", key);
+            regressions += 1;
+        }
+        out.flush();
+        return regressions;
+    }
+
+    /**
+     * Return the results in FILE, either a stored run or raw JMH CSV
+     * output.
+     */
+    static List<Result> readRun(Path file) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file);
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+        List<Result> results = new ArrayList<>();
+        List<String> header = null;
+        for (String line : lines) {
+            if (line.startsWith("#")) {
+                if (line.startsWith("# enigma-bench-results version=")
+                        && Integer.parseInt(line.substring(31)) > VERSION) {
+                    throw error("%s has an unknown format version", file);
+                }
+                continue;
+            }
+            if (line.isBlank()) {
+                continue;
+            }
+            List<String> fields = splitCsv(line);
+            if (header == null) {
+                header = fields;
+                continue;
+            }
+            results.add(header.get(0).equals("Benchmark")
+                    ? fromJmh(header, fields) : fromStored(fields));
+        }
+        return results;
+    }
+
+    /**
+     * Return the result in the JMH CSV row FIELDS, whose column names
+     * are HEADER.
+     */
+    private static Result fromJmh(List<String> header, List<String> fields) {
+        StringBuilder params = new StringBuilder();
+        for (int i = 7; i < header.size(); i += 1) {
+            if (params.length() > 0) {
+                params.append(';');
+            }
+            params.append(header.get(i).replace("Param: ", ""))
+                    .append('=').append(fields.get(i));
+        }
+        double error = fields.get(5).isEmpty() || fields.get(5).equals("NaN")
+                ? 0 : Double.parseDouble(fields.get(5));
+        return new Result(fields.get(0), fields.get(1), params.toString(),
+                Integer.parseInt(fields.get(3)),
+                Double.parseDouble(fields.get(4)), error, fields.get(6));
+    }
+
+    /**
+     * Return the result in the stored row FIELDS.
+     */
+    private static Result fromStored(List<String> fields) {
+        return new Result(fields.get(0), fields.get(1), fields.get(2),
+                Integer.parseInt(fields.get(3)),
+                Double.parseDouble(fields.get(4)),
+                Double.parseDouble(fields.get(5)), fields.get(6));
+    }
+
+    /**
+     * Return the fields of the CSV row LINE, with quotes removed.
+     */
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length()
+                        && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i += 1;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * One measured benchmark.
+     */
+    static final class Result {
+
+        /**
+         * The result of BENCHMARK in MODE with PARAMS: SCORE +/- ERROR in
+         * UNIT over SAMPLES samples.
+         */
+        Result(String benchmark, String mode, String params, int samples,
+               double score, double error, String unit) {
+            this.benchmark = benchmark;
+            this.mode = mode;
+            this.params = params;
+            this.samples = samples;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        /**
+         * Return the key identifying this benchmark across runs.
+         */
+        String key() {
+            return params.isEmpty() ? benchmark + " " + mode
+                    : benchmark + " " + mode + " [" + params + "]";
+        }
+
+        /**
+         * Return true iff larger scores are better.
+         */
+        boolean higherIsBetter() {
+            return mode.equals("thrpt");
+        }
+
+        /**
+         * Fully qualified benchmark method.
+         */
+        final String benchmark;
+
+        /**
+         * JMH mode: thrpt, avgt, sample or ss.
+         */
+        final String mode;
+
+        /**
+         * Parameter assignments, as name=value pairs separated by ';'.
+         */
+        final String params;
+
+        /**
+         * Number of measurement samples.
+         */
+        final int samples;
+
+        /**
+         * Mean score.
+         */
+        final double score;
+
+        /**
+         * Half-width of the 99.9% confidence interval of the score.
+         */
+        final double error;
+
+        /**
+         * Unit of the score.
+         */
+        final String unit;
+    }
+}
@@ -0,0 +1,100 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+import ucb.junit.textui;
+
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the BenchStore class.  It needs no
+ * JMH, so 'make bench-unit' runs it apart from the benchmarks.
+ */
+public class BenchStoreTest {
+
+    /**
+     * Run the tests in this class.
+     */
+    public static void main(String[] ignored) {
+        System.exit(textui.runClasses(BenchStoreTest.class));
+    }
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /**
+     * Return a throughput result for benchmark NAME of SCORE +/- ERROR.
+     */
+    private static BenchStore.Result thrpt(String name, double score,
+                                           double error) {
+        return new BenchStore.Result(name, "thrpt", "", 10, score, error,
+                "ops/s");
+    }
+
+    /**
+     * Return an average-time result for benchmark NAME of SCORE +/-
+     * ERROR.
+     */
+    private static BenchStore.Result avgt(String name, double score,
+                                          double error) {
+        return new BenchStore.Result(name, "avgt", "", 10, score, error,
+                "ns/op");
+    }
+
+    /**
+     * Return the lines printed by comparing LATEST against BASELINE at
+     * a 5% threshold, after checking that it reports REGRESSIONS.
+     */
+    private static String[] compare(List<BenchStore.Result> baseline,
+                                    List<BenchStore.Result> latest,
+                                    int regressions) {
+        StringWriter text = new StringWriter();
+        assertEquals(regressions, BenchStore.compare(baseline, latest, 0.05,
+                new PrintWriter(text)));
+        return text.toString().split("\n");
+    }
+
+    @Test
+    public void testOverlappingIntervals() {
+        String[] lines = compare(List.of(thrpt("a", 100, 10)),
+                List.of(thrpt("a", 85, 10)), 0);
+        assertEquals(1, lines.length);
+        assertTrue(lines[0].startsWith("same"));
+    }
+
+    @Test
+    public void testSeparatedIntervals() {
+        String[] lines = compare(
+                List.of(thrpt("a", 100, 1), thrpt("b", 100, 1),
+                        avgt("c", 100, 1), avgt("d", 100, 1),
+                        thrpt("e", 100, 1)),
+                List.of(thrpt("a", 80, 1), thrpt("b", 120, 1),
+                        avgt("c", 120, 1), avgt("d", 80, 1),
+                        thrpt("e", 97, 0.5)), 2);
+        assertTrue(lines[0].startsWith("REGRESSED  a thrpt"));
+        assertTrue(lines[1].startsWith("improved   b thrpt"));
+        assertTrue(lines[2].startsWith("REGRESSED  c avgt"));
+        assertTrue(lines[3].startsWith("improved   d avgt"));
+        assertTrue(lines[4].startsWith("same       e thrpt"));
+    }
+
+    @Test
+    public void testMissingAndNew() {
+        String[] lines = compare(
+                List.of(thrpt("kept", 100, 1), thrpt("renamed", 100, 1)),
+                List.of(thrpt("kept", 100, 1), thrpt("fresh", 100, 1)), 1);
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("same       kept"));
+        assertEquals("NEW        fresh thrpt", lines[1]);
+        assertEquals("MISSING    renamed thrpt", lines[2]);
+    }
+}
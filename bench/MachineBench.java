@@ -0,0 +1,92 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of stepping a machine and of converting characters and whole
+ * messages with it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class MachineBench {
+
+    /**
+     * Number of characters in the alphabet.
+     */
+    @Param({"26", "62"})
+    public int alphabetSize;
+
+    /**
+     * Number of rotor slots, counting the reflector.
+     */
+    @Param({"3", "5", "8"})
+    public int slots;
+
+    /**
+     * Length of converted messages.
+     */
+    @Param({"16", "1024", "16384"})
+    public int messageLength;
+
+    /**
+     * Build a set-up machine and a random message.
+     */
+    @Setup
+    public void setUp() {
+        BenchFixtures fixtures = new BenchFixtures(alphabetSize, slots, 3);
+        _machine = fixtures.machine();
+        _message = fixtures.randomMessage(messageLength);
+    }
+
+    /**
+     * Advance the rotors once.
+     */
+    @Benchmark
+    public void rotate() {
+        _machine.rotate();
+    }
+
+    /**
+     * Convert the next index, advancing the rotors first.
+     */
+    @Benchmark
+    public int convertChar() {
+        _next = _next + 1 == alphabetSize ? 0 : _next + 1;
+        return _machine.convert(_next);
+    }
+
+    /**
+     * Convert a whole message.
+     */
+    @Benchmark
+    public String convertMessage() {
+        return _machine.convert(_message);
+    }
+
+    /**
+     * Machine under test.
+     */
+    private Machine _machine;
+
+    /**
+     * Message converted by convertMessage.
+     */
+    private String _message;
+
+    /**
+     * Next index converted by convertChar.
+     */
+    private int _next;
+}
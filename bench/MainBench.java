@@ -0,0 +1,128 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Cost of handling setup lines, and end-to-end throughput of Main on
+ * generated corpora.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class MainBench {
+
+    /**
+     * Number of characters in the alphabet.
+     */
+    @Param({"26", "62"})
+    public int alphabetSize;
+
+    /**
+     * Number of rotor slots, counting the reflector.
+     */
+    @Param({"3", "5", "8"})
+    public int slots;
+
+    /**
+     * Length of each message in the corpus.
+     */
+    @Param({"16", "1024"})
+    public int messageLength;
+
+    /**
+     * Number of messages in the corpus.
+     */
+    @Param({"200"})
+    public int messages;
+
+    /**
+     * Write the configuration and corpus, and configure a machine for
+     * the setup benchmark.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchFixtures fixtures =
+                new BenchFixtures(alphabetSize, slots, 4);
+        _config = fixtures.writeConfig();
+        _corpus = fixtures.writeCorpus(messages, messageLength);
+        _output = Files.createTempFile("enigma-bench", ".out");
+        _setupLine = fixtures.setupLine();
+        _main = Main.forConfig(_config.toString());
+        _machine = _main.readConfig();
+    }
+
+    /**
+     * Remove the output file.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(_output);
+    }
+
+    /**
+     * Handle one setup line.
+     */
+    @Benchmark
+    public Machine setUpLine() {
+        _main.setUp(_machine, _setupLine);
+        return _machine;
+    }
+
+    /**
+     * Read the configuration and process the whole corpus.
+     */
+    @Benchmark
+    public void process() {
+        try (Main main = new Main(new String[] {
+            _config.toString(), _corpus.toString(), _output.toString()
+        })) {
+            main.process();
+        }
+    }
+
+    /**
+     * Generated configuration file.
+     */
+    private Path _config;
+
+    /**
+     * Generated message corpus.
+     */
+    private Path _corpus;
+
+    /**
+     * Output of process.
+     */
+    private Path _output;
+
+    /**
+     * Setup line handled by setUpLine.
+     */
+    private String _setupLine;
+
+    /**
+     * Main instance whose setUp is measured.
+     */
+    private Main _main;
+
+    /**
+     * Machine configured by _main.
+     */
+    private Machine _machine;
+}
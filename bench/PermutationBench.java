@@ -0,0 +1,66 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of applying a single permutation and its inverse.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class PermutationBench {
+
+    /**
+     * Number of characters in the alphabet.
+     */
+    @Param({"26", "62"})
+    public int alphabetSize;
+
+    /**
+     * Build a random permutation of the alphabet.
+     */
+    @Setup
+    public void setUp() {
+        BenchFixtures fixtures = new BenchFixtures(alphabetSize, 5, 1);
+        _perm = new Permutation(fixtures.randomCycles(), fixtures.alphabet());
+    }
+
+    /**
+     * Apply the permutation to the next index.
+     */
+    @Benchmark
+    public int permute() {
+        _next = _next + 1 == alphabetSize ? 0 : _next + 1;
+        return _perm.permute(_next);
+    }
+
+    /**
+     * Apply the inverse permutation to the next index.
+     */
+    @Benchmark
+    public int invert() {
+        _next = _next + 1 == alphabetSize ? 0 : _next + 1;
+        return _perm.invert(_next);
+    }
+
+    /**
+     * Permutation under test.
+     */
+    private Permutation _perm;
+
+    /**
+     * Next index to apply it to.
+     */
+    private int _next;
+}
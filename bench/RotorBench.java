@@ -0,0 +1,69 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of passing a signal through one rotor in each direction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class RotorBench {
+
+    /**
+     * Number of characters in the alphabet.
+     */
+    @Param({"26", "62"})
+    public int alphabetSize;
+
+    /**
+     * Build a moving rotor with nonzero setting and ring setting.
+     */
+    @Setup
+    public void setUp() {
+        BenchFixtures fixtures = new BenchFixtures(alphabetSize, 5, 2);
+        _rotor = new MovingRotor("R", new Permutation(
+                fixtures.randomCycles(), fixtures.alphabet()), "A");
+        _rotor.set(alphabetSize / 3);
+        _rotor.setRingSet(alphabetSize / 5);
+    }
+
+    /**
+     * Pass the next index forward through the rotor.
+     */
+    @Benchmark
+    public int convertForward() {
+        _next = _next + 1 == alphabetSize ? 0 : _next + 1;
+        return _rotor.convertForward(_next);
+    }
+
+    /**
+     * Pass the next index backward through the rotor.
+     */
+    @Benchmark
+    public int convertBackward() {
+        _next = _next + 1 == alphabetSize ? 0 : _next + 1;
+        return _rotor.convertBackward(_next);
+    }
+
+    /**
+     * Rotor under test.
+     */
+    private Rotor _rotor;
+
+    /**
+     * Next index to pass through it.
+     */
+    private int _next;
+}
@@ -0,0 +1,207 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+import static enigma.EnigmaException.*;
+import static jdk.incubator.vector.VectorOperators.*;
+
+/**
+ * A BatchDecryptor converting a vector of lanes at a time with the
+ * incubating Vector API: each vector lane holds one key's settings, and
+ * stepping and the passes through the rotors are done with per-lane
+ * offset arithmetic and table lookups.  A rotor's wiring at offset O
+ * takes C to W[(C + O) mod size] - O, so every lane looks up the same
+ * table W, the rotor's wiring at setting 0.  W is split into chunks of
+ * one vector, each looked up with a rearrangement, and the results are
+ * blended by which chunk each index falls in, so an alphabet that fits
+ * in two vectors is looked up in registers.  A gather load would do
+ * for any alphabet, but the JDK 17 C2 compiler miscompiles the gather
+ * with an index map, giving wrong lanes and occasionally crashing.
+ * Built separately (make simd), needing --add-modules
+ * jdk.incubator.vector to compile and run; BatchDecryptor.create loads
+ * it when it can.
+ */
+final class VectorBatchDecryptor extends BatchDecryptor {
+
+    /**
+     * A decryptor of LANES keys, a multiple of the preferred vector
+     * length, over an alphabet of SIZE characters with NUMROTORS slots,
+     * initially empty, with no plugboard.
+     */
+    VectorBatchDecryptor(int size, int numRotors, int lanes) {
+        super(size, numRotors, lanes);
+        if (lanes % SPECIES.length() != 0) {
+            throw error("Error: %d keys do not fill vectors of %d", lanes,
+                    SPECIES.length());
+        }
+        _chunks = Math.max(2, (size + SPECIES.length() - 1)
+                / SPECIES.length());
+        int width = _chunks * SPECIES.length();
+        _forward = new int[numRotors][width];
+        _backward = new int[numRotors][width];
+        _notch = new int[numRotors][width];
+        _plugTable = new int[width];
+        _offsets = new int[numRotors * SPECIES.length()];
+        setPlugboard(_plug);
+    }
+
+    @Override
+    void setRotor(int slot, CompiledRotor rotor) {
+        super.setRotor(slot, rotor);
+        for (int i = 0; i < _size; i += 1) {
+            _forward[slot][i] = rotor.forward()[i];
+            _backward[slot][i] = rotor.backward()[i];
+            _notch[slot][i] = rotor.notch()[i] ? 1 : 0;
+        }
+    }
+
+    @Override
+    void setPlugboard(int[] plug) {
+        super.setPlugboard(plug);
+        System.arraycopy(_plugInverse, 0, _plugTable, 0, _size);
+    }
+
+    @Override
+    void decrypt(int[] in, int[] out) {
+        for (int base = 0; base < _lanes; base += SPECIES.length()) {
+            for (int k = 0; k < in.length; k += 1) {
+                step(base);
+                IntVector c = IntVector.broadcast(SPECIES, _plug[in[k]]);
+                c = lookup(_plugTable, scramble(base, c));
+                c.intoArray(out, k * _lanes + base);
+            }
+        }
+    }
+
+    /**
+     * Advance the rotors of the vector of lanes starting at BASE once,
+     * exactly as FastMachine.step does in each lane.
+     */
+    private void step(int base) {
+        VectorMask<Integer> advance = SPECIES.maskAll(true);
+        VectorMask<Integer> doubleStep = SPECIES.maskAll(false);
+        for (int i = _slots.length - 1; i >= _firstMoving; i -= 1) {
+            int at = i * _lanes + base;
+            IntVector setting = IntVector.fromArray(SPECIES, _setting, at);
+            IntVector ring = IntVector.fromArray(SPECIES, _ring, at);
+            VectorMask<Integer> atNotch =
+                lookup(_notch[i], wrap(setting.add(ring))).compare(NE, 0);
+            advance(setting, advance, at);
+            if (i + 1 < _slots.length) {
+                advance(IntVector.fromArray(SPECIES, _setting, at + _lanes),
+                        advance.and(doubleStep), at + _lanes);
+            }
+            doubleStep = advance.not();
+            advance = atNotch;
+        }
+    }
+
+    /**
+     * Store SETTING, advanced by one position in the lanes of MASK, into
+     * _setting at AT.
+     */
+    private void advance(IntVector setting, VectorMask<Integer> mask,
+                         int at) {
+        IntVector next = setting.add(1, mask);
+        next.blend(0, next.compare(EQ, _size)).intoArray(_setting, at);
+    }
+
+    /**
+     * Return the result of passing the indices C through the rotors of
+     * the vector of lanes starting at BASE at their current settings.
+     */
+    private IntVector scramble(int base, IntVector c) {
+        int width = SPECIES.length();
+        int last = _slots.length - 1;
+        for (int i = last; i >= 0; i -= 1) {
+            int at = i * _lanes + base;
+            IntVector offset = wrap(IntVector.fromArray(SPECIES, _setting, at)
+                    .sub(IntVector.fromArray(SPECIES, _ring, at)));
+            offset.intoArray(_offsets, i * width);
+            c = through(_forward[i], c, offset);
+        }
+        for (int i = 1; i <= last; i += 1) {
+            c = through(_backward[i], c,
+                    IntVector.fromArray(SPECIES, _offsets, i * width));
+        }
+        return c;
+    }
+
+    /**
+     * Return the result of passing the indices C through the wiring
+     * TABLE at the offsets OFFSET.
+     */
+    private IntVector through(int[] table, IntVector c, IntVector offset) {
+        return wrap(lookup(table, wrap(c.add(offset))).sub(offset));
+    }
+
+    /**
+     * Return the entries of TABLE at the indices INDEX, each in
+     * 0 .. size()-1.  Each chunk of the table is rearranged separately
+     * and the results blended: the two-vector rearrange is miscompiled
+     * by the JDK 17 C2 compiler too, which ignores its second vector.
+     */
+    private IntVector lookup(int[] table, IntVector index) {
+        int width = SPECIES.length();
+        VectorShuffle<Integer> shuffle = index.and(width - 1).toShuffle();
+        IntVector result = IntVector.fromArray(SPECIES, table, 0)
+            .rearrange(shuffle);
+        for (int j = 1; j < _chunks; j += 1) {
+            result = result.blend(IntVector.fromArray(SPECIES, table,
+                    j * width).rearrange(shuffle),
+                    index.compare(GE, j * width));
+        }
+        return result;
+    }
+
+    /**
+     * Return P modulo my alphabet size in each lane, where
+     * -size() < P < 2 * size().
+     */
+    private IntVector wrap(IntVector p) {
+        p = p.add(_size, p.compare(LT, 0));
+        return p.sub(_size, p.compare(GE, _size));
+    }
+
+    /**
+     * Vector shape used.
+     */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_PREFERRED;
+
+    /**
+     * Number of vectors each table is padded to, at least two.
+     */
+    private final int _chunks;
+
+    /**
+     * Wiring of each slot's rotor at setting 0, padded to _chunks
+     * vectors.
+     */
+    private final int[][] _forward;
+
+    /**
+     * Inverse wiring of each slot's rotor, laid out as _forward.
+     */
+    private final int[][] _backward;
+
+    /**
+     * For each slot, 1 at the notch positions of its rotor and 0
+     * elsewhere, laid out as _forward.
+     */
+    private final int[][] _notch;
+
+    /**
+     * Inverse plugboard, laid out as _forward.
+     */
+    private final int[] _plugTable;
+
+    /**
+     * Offsets of each slot for the current character, kept from the
+     * pass towards the reflector for the pass back.
+     */
+    private final int[] _offsets;
+}